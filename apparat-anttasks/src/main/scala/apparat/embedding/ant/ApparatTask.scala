@@ -22,6 +22,8 @@ package apparat.embedding.ant
 
 import org.apache.tools.ant.taskdefs.Java
 import collection.mutable.HashMap
+import apparat.utils.BuildCache
+import java.io.{File => JFile}
 
 trait OutParameter {
 	def setArgument(name: String, value: Any)
@@ -35,6 +37,8 @@ class ApparatTask(tool: {def getClass: Class[_]}, name: String) extends Java {
 
 	val arguments: HashMap[String, String] = HashMap.empty
 
+	private var cacheDir: Option[JFile] = None
+
 	//	@deprecated("Use setArgument instead of createArg")
 	override def createArg = error("Use setArgument instead of createArg")
 
@@ -42,7 +46,47 @@ class ApparatTask(tool: {def getClass: Class[_]}, name: String) extends Java {
 		arguments(name) = value.toString
 	}
 
+	/**
+	 * Enables the build cache. Unchanged inputs are restored from
+	 * <code>value</code> instead of being processed again.
+	 */
+	def setCacheDir(value: JFile) = {
+		cacheDir = Some(value)
+	}
+
+	/**
+	 * Additional files which affect the output of the tool.
+	 */
+	protected def cacheDependencies: List[JFile] = Nil
+
 	override def execute = {
+		cacheDir match {
+			case Some(directory) if arguments contains "i" => {
+				val input = new JFile(arguments("i"))
+				val output = arguments get "o" map { new JFile(_) } getOrElse input
+				val configuration = (for((name, value) <- arguments.toList.sortBy(_._1) if name != "i" && name != "o") yield name+"="+value) ++ outputProperties
+				val cache = new BuildCache(directory, getClassname, configuration.toArray, cacheDependencies.toArray)
+				val key = cache keyOf input
+
+				if(cache.restore(key, output)) {
+					log("Restored "+output+" from cache.")
+				} else {
+					executeTool()
+					cache.store(key, output)
+				}
+			}
+			case _ => executeTool()
+		}
+	}
+
+	/**
+	 * The <code>OutputProperties</code> passed to a forked JVM.
+	 */
+	private def outputProperties = getCommandLine.getSystemProperties.getVariables.toList filter {
+		definition => BuildCache.OutputProperties exists { name => definition startsWith "-D"+name+"=" }
+	}
+
+	private def executeTool() = {
 		clearArgs()
 
 		arguments.keysIterator.foreach(name => {
@@ -22,18 +22,25 @@ package apparat.embedding.ant.reducer
 
 import apparat.embedding.ant.{OutParameter, ApparatTask}
 import apparat.tools.reducer.{MatryoshkaType, Reducer}
+import java.io.{File => JFile}
 
 sealed class ReducerTask extends ApparatTask(Reducer, "reducer") with OutParameter {
 	def setDeblock(value: Float) = setArgument("d", value)
 
 	def setQuality(value: Float) = setArgument("q", value)
 
+	def setPSNR(value: Float) = setArgument("p", value)
+
+	def setBudget(value: Int) = setArgument("z", value)
+
 	def setMergeABC(value: Boolean) = setArgument("m", value)
 
 	def setMergeCF(value: Boolean) = setArgument("b", value)
 
 	def setSortCPool(value: Boolean) = setArgument("s", value)
 
+	def setSortCPoolBySize(value: Boolean) = setArgument("c", value)
+
 	def setLZMA(value: Boolean) = setArgument("l", value)
 
 	def setMatryoshkaType(value: String) = {
@@ -45,4 +52,6 @@ sealed class ReducerTask extends ApparatTask(Reducer, "reducer") with OutParamet
 	}
 
 	def setMatryoshkaFile(value: String) = setArgument("f", value)
+
+	override protected def cacheDependencies = (arguments get "f" map { new JFile(_) }).toList
 }
@@ -22,6 +22,7 @@
 
 import apparat.embedding.ant.{OutParameter, ApparatTask}
 import apparat.tools.tdsi.TurboDieselSportInjection
+import java.io.{File => JFile}
 
 sealed class TDSITask extends ApparatTask(TurboDieselSportInjection, "tdsi") with OutParameter {
 	def setAlchemy(value: String) = setArgument("a", value)
@@ -35,4 +36,9 @@ sealed class TDSITask extends ApparatTask(TurboDieselSportInjection, "tdsi") wit
 	def setAsm(value: String) = setArgument("s", value)
 
 	def setLibraries(value: String) = setArgument("l", value)
+
+	override protected def cacheDependencies = arguments get "l" match {
+		case Some(libraries) => (libraries split JFile.pathSeparatorChar).toList map { new JFile(_) }
+		case None => Nil
+	}
 }
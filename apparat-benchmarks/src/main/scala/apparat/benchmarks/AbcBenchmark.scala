@@ -0,0 +1,87 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.benchmarks
+
+import apparat.abc.{AbcConstantPool, Abc}
+import apparat.abc.analysis.AbcConstantPoolBuilder
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+/**
+ * Benchmarks reading and writing an ABC, its bytecode and its constant pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+class AbcBenchmark {
+	@Param(Array("Fp10App.swf", "ApparatTest.swc"))
+	var fixture: String = _
+
+	@Param(Array("1", "100"))
+	var scale: Int = _
+
+	var bytes: Array[Byte] = _
+	var abc: Abc = _
+	var loaded: Abc = _
+
+	@Setup
+	def setup(): Unit = {
+		bytes = Fixtures.scaledAbcOf(fixture, scale).toByteArray
+		abc = Abc fromByteArray bytes
+		loaded = Abc fromByteArray bytes
+		loaded.loadBytecode()
+	}
+
+	@Benchmark
+	def read(): Abc = Abc fromByteArray bytes
+
+	@Benchmark
+	def write(): Array[Byte] = abc.toByteArray
+
+	@Benchmark
+	def loadBytecode(): Abc = {
+		loaded.bytecodeAvailable = false
+		loaded.loadBytecode()
+
+		for(method <- loaded.methods; body <- method.body) {
+			body.bytecode
+		}
+
+		loaded
+	}
+
+	@Benchmark
+	def saveBytecode(): Abc = {
+		//
+		// Replacing the pool forces all bodies to be encoded again.
+		//
+
+		loaded.cpool = loaded.cpool
+		loaded.saveBytecode()
+		loaded
+	}
+
+	@Benchmark
+	def buildConstantPool(): AbcConstantPool = AbcConstantPoolBuilder using abc
+}
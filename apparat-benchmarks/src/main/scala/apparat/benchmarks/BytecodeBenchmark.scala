@@ -0,0 +1,102 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.benchmarks
+
+import apparat.abc.{AbcMethodBody, Abc}
+import apparat.bytecode.{BytecodeEncoder, BytecodeDecoder, Bytecode}
+import apparat.bytecode.optimization.{InlineExpansion, PeepholeOptimizations}
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+/**
+ * Benchmarks the bytecode of all method bodies of an ABC.
+ *
+ * The transformations modify the bytecode so it is decoded again before
+ * each invocation. This is only reasonable for the larger scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+class BytecodeBenchmark {
+	@Param(Array("Fp10App.swf", "ApparatTest.swc"))
+	var fixture: String = _
+
+	@Param(Array("100"))
+	var scale: Int = _
+
+	implicit var abc: Abc = _
+	var bodies: Array[AbcMethodBody] = _
+	var expansion: InlineExpansion = _
+
+	@Setup
+	def setup(): Unit = {
+		abc = Fixtures.scaledAbcOf(fixture, scale)
+		bodies = abc.methods flatMap { _.body }
+		expansion = new InlineExpansion(List(abc))
+	}
+
+	@Benchmark
+	def decode(blackhole: Blackhole): Unit = {
+		for(body <- bodies) {
+			blackhole consume BytecodeDecoder(body.code, body.exceptions, body)
+		}
+	}
+
+	@Benchmark
+	def encode(decoded: DecodedBytecode, blackhole: Blackhole): Unit = {
+		for(bytecode <- decoded.bytecodes) {
+			blackhole consume BytecodeEncoder(bytecode)
+		}
+	}
+
+	@Benchmark
+	def peepholeOptimizations(decoded: DecodedBytecode, blackhole: Blackhole): Unit = {
+		for(bytecode <- decoded.bytecodes) {
+			blackhole consume PeepholeOptimizations(bytecode)
+		}
+	}
+
+	@Benchmark
+	def inlineExpansion(decoded: DecodedBytecode, blackhole: Blackhole): Unit = {
+		for(bytecode <- decoded.bytecodes) {
+			blackhole consume (expansion expand bytecode)
+		}
+	}
+}
+
+/**
+ * The bytecode of all method bodies, decoded before each invocation of the
+ * benchmarks which use it.
+ */
+@State(Scope.Thread)
+class DecodedBytecode {
+	var bytecodes: Array[Bytecode] = _
+
+	@Setup(Level.Invocation)
+	def decodeAll(benchmark: BytecodeBenchmark): Unit = {
+		implicit val abc = benchmark.abc
+		bytecodes = benchmark.bodies map { Bytecode fromBody _ }
+	}
+}
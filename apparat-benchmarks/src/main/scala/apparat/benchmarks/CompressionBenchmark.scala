@@ -0,0 +1,88 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.benchmarks
+
+import apparat.lzma.LZMA
+import apparat.utils.{DeflateEncoder, Deflate}
+import java.io.{ByteArrayInputStream => JByteArrayInputStream, ByteArrayOutputStream => JByteArrayOutputStream}
+import java.util.concurrent.TimeUnit
+import java.util.zip.{Deflater => JDeflater, DeflaterOutputStream => JDeflaterOutputStream}
+import org.openjdk.jmh.annotations._
+
+/**
+ * Compresses the uncompressed body of a scaled SWF.
+ *
+ * <code>deflate</code> measures whatever <code>Deflate.compress</code> is
+ * configured to do so pass <code>-jvmArgs -Dapparat.deflate.optimal=false</code>
+ * or <code>-Dapparat.deflate.iterations=N</code> to compare settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+class CompressionBenchmark {
+	@Param(Array("Fp10App.swf"))
+	var fixture: String = _
+
+	@Param(Array("100", "1000"))
+	var scale: Int = _
+
+	var bytes: Array[Byte] = _
+
+	@Setup
+	def setup(): Unit = {
+		bytes = Fixtures.scaledSwfOf(fixture, scale).toByteArray
+	}
+
+	@Benchmark
+	def deflate(): Array[Byte] = {
+		val output = new JByteArrayOutputStream(bytes.length)
+		Deflate.compress(bytes, output)
+		output.toByteArray
+	}
+
+	@Benchmark
+	def deflateEncoder(): Array[Byte] = {
+		val output = new JByteArrayOutputStream(bytes.length)
+		DeflateEncoder.compress(bytes, output)
+		output.toByteArray
+	}
+
+	@Benchmark
+	def deflater(): Array[Byte] = {
+		val output = new JByteArrayOutputStream(bytes.length)
+		val deflater = new JDeflater(JDeflater.BEST_COMPRESSION)
+		val deflaterOutputStream = new JDeflaterOutputStream(output, deflater, 0x8000)
+		deflaterOutputStream write bytes
+		deflaterOutputStream.finish()
+		deflater.end()
+		output.toByteArray
+	}
+
+	@Benchmark
+	def lzma(): Array[Byte] = {
+		val output = new JByteArrayOutputStream(bytes.length)
+		LZMA.encode(new JByteArrayInputStream(bytes), bytes.length, output)
+		output.toByteArray
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.benchmarks
+
+import apparat.abc.Abc
+import apparat.swc.Swc
+import apparat.swf.{End, DoABC, Swf, SwfTags}
+import apparat.utils.IO._
+
+/**
+ * Loads the fixtures of apparat-core and scales them up synthetically.
+ */
+object Fixtures {
+	val SwfFixture = "Fp10App.swf"
+	val DebugSwfFixture = "myFunctionInDebug.swf"
+	val SwcFixture = "ApparatTest.swc"
+
+	def bytesOf(name: String): Array[Byte] = getClass.getResourceAsStream("fixtures/" + name) match {
+		case null => error("Fixture " + name + " does not exist.")
+		case input => using(input) { byteArrayOf(_) }
+	}
+
+	def swfOf(name: String): Swf = {
+		val result = new Swf()
+
+		if(name endsWith ".swc") {
+			val swc = new Swc()
+			swc read bytesOf(name)
+			result read swc
+		} else {
+			result read bytesOf(name)
+		}
+
+		result
+	}
+
+	/**
+	 * An uncompressed SWF which repeats all tags of the fixture
+	 * <code>scale</code> times.
+	 */
+	def scaledSwfOf(name: String, scale: Int): Swf = {
+		val result = swfOf(name)
+		val body = result.tags filterNot { _.kind == SwfTags.End }
+
+		result.compressed = false
+		result.tags = (List.fill(scale)(body)).flatten ::: List(new End())
+		result
+	}
+
+	/**
+	 * An ABC which merges <code>scale</code> independent copies of all ABC
+	 * files of the fixture. The bytecode is decoded before merging and
+	 * encoded against the merged constant pool.
+	 */
+	def scaledAbcOf(name: String, scale: Int): Abc = {
+		val abcs = for(i <- 0 until scale; doABC <- swfOf(name).tags collect { case doABC: DoABC => doABC }) yield {
+			val abc = Abc fromDoABC doABC
+			abc.loadBytecode()
+			abc
+		}
+
+		val result = abcs reduceLeft { _ + _ }
+		result.bytecodeAvailable = true
+		result.rebuildPool()
+		result.saveBytecode()
+		result.bytecodeAvailable = false
+		result
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.benchmarks
+
+import apparat.swf.Swf
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+/**
+ * Benchmarks reading and writing a SWF.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+class SwfBenchmark {
+	@Param(Array("Fp10App.swf", "myFunctionInDebug.swf", "ApparatTest.swc"))
+	var fixture: String = _
+
+	@Param(Array("1", "100"))
+	var scale: Int = _
+
+	var swf: Swf = _
+	var bytes: Array[Byte] = _
+
+	@Setup
+	def setup(): Unit = {
+		swf = Fixtures.scaledSwfOf(fixture, scale)
+		bytes = swf.toByteArray
+	}
+
+	@Benchmark
+	def read(): Swf = {
+		val result = new Swf()
+		result read bytes
+		result
+	}
+
+	@Benchmark
+	def write(): Array[Byte] = swf.toByteArray
+}
@@ -22,7 +22,7 @@ package apparat.abc
 
 import scala.annotation.tailrec
 import apparat.bytecode._
-import apparat.utils.IO
+import apparat.utils.{ByteArrayOutput, IO}
 import apparat.utils.IO._
 import apparat.utils.Dumpable
 import apparat.utils.IndentingPrintWriter
@@ -32,8 +32,8 @@ import scala.collection.immutable._
 import apparat.actors.Futures._
 import java.io.{
 	BufferedInputStream => JBufferedInputStream,
+	BufferedOutputStream => JBufferedOutputStream,
 	ByteArrayInputStream => JByteArrayInputStream,
-	ByteArrayOutputStream => JByteArrayOutputStream,
 	InputStream => JInputStream,
 	File => JFile,
 	FileInputStream => JFileInputStream,
@@ -47,7 +47,11 @@ object Abc {
 	//val MINOR = 17//with decimals!
 	val MAJOR = 46
 
-	def fromDoABC(doABC: DoABC) = fromByteArray(doABC.abcData)
+	def fromDoABC(doABC: DoABC) = {
+		val abc = new Abc
+		abc read doABC
+		abc
+	}
 
 	def fromByteArray(byteArray: Array[Byte]) = {
 		val abc = new Abc
@@ -96,16 +100,59 @@ object Abc {
 }
 
 class Abc extends Dumpable {
-	var cpool = new AbcConstantPool(new Array[Int](0),
+	private var constantPool = new AbcConstantPool(new Array[Int](0),
 		new Array[Long](0), new Array[Double](0), new Array[Symbol](0),
 		new Array[AbcNamespace](0), new Array[AbcNSSet](0), new Array[AbcName](0))
-	var methods = new Array[AbcMethod](0)
+	private var methodArray = new Array[AbcMethod](0)
+	private var typeArray = new Array[AbcNominalType](0)
+	private var modifications = 0
+
 	var metadata = new Array[AbcMetadata](0)
-	var types = new Array[AbcNominalType](0)
 	var scripts = new Array[AbcScript](0)
 
 	var bytecodeAvailable = false
 
+	private var readLength = 0
+
+	def cpool = constantPool
+
+	def cpool_=(value: AbcConstantPool): Unit = {
+		modify()
+		constantPool = value
+	}
+
+	def methods = methodArray
+
+	def methods_=(value: Array[AbcMethod]): Unit = {
+		modify()
+		methodArray = value
+	}
+
+	def types = typeArray
+
+	def types_=(value: Array[AbcNominalType]): Unit = {
+		modify()
+		typeArray = value
+	}
+
+	/**
+	 * The number of times the constant pool, the methods or the types have
+	 * been replaced. Encoded bytecode refers to them by index and is only
+	 * valid for the version it has been read from.
+	 */
+	private[abc] def version = modifications
+
+	private def modify() = {
+		for {
+			method <- methodArray
+			body <- method.body if body.isPending
+		} {
+			body.bytecode
+		}
+
+		modifications += 1
+	}
+
 	def +(that: Abc) = {
 		val result = new Abc()
 
@@ -129,48 +176,31 @@ class Abc extends Dumpable {
 
 	def rebuildPool() = cpool = AbcConstantPoolBuilder using this
 
+	/**
+	 * Makes the bytecode of all method bodies available. A body is decoded
+	 * when its bytecode is accessed for the first time.
+	 */
 	def loadBytecode() = if(!bytecodeAvailable) {
-		implicit val abc = this
-
-		methods filter (_.body.isDefined) map {
-			method => future {
-				val body = method.body.get
-				body.bytecode = Some(Bytecode fromBody body)
-			}
-		} map { _() }
-
-		/*methods foreach {
-			_.body match {
-				case Some(body) => body.bytecode = Some(Bytecode fromBody body)
-				case None => {}
-			}
-		}*/
+		for {
+			method <- methods
+			body <- method.body
+		} {
+			body defer this
+		}
 
 		bytecodeAvailable = true
 	}
 
+	/**
+	 * Encodes the bytecode of all method bodies. Bodies which have not been
+	 * accessed or modified keep their original code.
+	 */
 	def saveBytecode() = if(bytecodeAvailable) {
-		implicit val abc = this
-
 		val tasks = for(method <- methods if method.body.isDefined) yield future {
-			val body = method.body.get
-			body.bytecode match {
-				case Some(bytecode) => bytecode storeIn body
-				case None =>
-			}
+			method.body.get store this
 		}
 
 		tasks foreach { _() }
-
-		/*methods foreach {
-			_.body match {
-				case Some(body) => body.bytecode match {
-					case Some(bytecode) => bytecode storeIn body
-					case None => {}
-				}
-				case None => {}
-			}
-		}*/
 	}
 
 	def read(file: JFile): Unit = using(new JBufferedInputStream(new JFileInputStream(file), 0x1000))(read _)
@@ -181,7 +211,7 @@ class Abc extends Dumpable {
 
 	def read(data: Array[Byte]): Unit = using(new JByteArrayInputStream(data))(read _)
 
-	def read(doABC: DoABC): Unit = read(doABC.abcData)
+	def read(doABC: DoABC): Unit = using(doABC.abcInputStream)(read _)
 
 	def read(input: AbcInputStream): Unit = {
 		if (input.readU16() != Abc.MINOR) error("Minor version not supported.")
@@ -192,15 +222,19 @@ class Abc extends Dumpable {
 		types = readTypes(input)
 		scripts = readScripts(input)
 		readBodies(input)
+		readLength = input.position
 	}
 
-	def write(file: JFile): Unit = using(new JFileOutputStream(file))(write _)
+	def write(file: JFile): Unit = using(new JBufferedOutputStream(new JFileOutputStream(file), 0x1000))(write _)
 
 	def write(pathname: String): Unit = write(new JFile(pathname))
 
 	def write(output: JOutputStream): Unit = using(new AbcOutputStream(output))(write _)
 
-	def write(doABC: DoABC): Unit = doABC.abcData = toByteArray
+	def write(doABC: DoABC): Unit = {
+		val output = serialize()
+		doABC setAbcData (output.array, output.size)
+	}
 
 	def write(output: AbcOutputStream): Unit = {
 		output writeU16 Abc.MINOR
@@ -213,10 +247,24 @@ class Abc extends Dumpable {
 		writeBodies(output)
 	}
 
-	def toByteArray = {
-		val byteArrayOutputStream = new JByteArrayOutputStream()
-		using(byteArrayOutputStream)(write _)
-		byteArrayOutputStream.toByteArray
+	def toByteArray = serialize().toByteArray
+
+	/**
+	 * Writes the ABC into a buffer which is sized after the ABC this one
+	 * has been read from, or after its method bodies.
+	 */
+	private def serialize() = {
+		val codeLength = methods.foldLeft(0L) {
+			(sum, method) => method.body match {
+				case Some(body) => sum + body.code.length
+				case None => sum
+			}
+		}
+		val estimate = math.max(readLength.asInstanceOf[Long], codeLength + (codeLength >> 1))
+		val output = new ByteArrayOutput(math.min(estimate + (estimate >> 4) + 0x400, Int.MaxValue - 8).asInstanceOf[Int])
+
+		using(new AbcOutputStream(output))(write _)
+		output
 	}
 
 	private def readPool(implicit input: AbcInputStream) = {
@@ -70,19 +70,27 @@ class AbcConstantPool(
 				AbcConstantType.PrivateNamespace => namespaces(index)
 	}
 
-	def indexOf(value: Int): Int = ints indexOf value
+	@volatile private var indexes = new Indexes
 
-	def indexOf(value: Long): Int = uints indexOf value
+	/**
+	 * Drops the hash indexes of all tables. The indexes are rebuilt on the
+	 * next lookup. Call this after modifying any of the tables in place.
+	 */
+	def invalidateIndexes(): Unit = indexes = new Indexes
 
-	def indexOf(value: Double): Int = doubles indexOf value
+	def indexOf(value: Int): Int = if(ints.length > 0 && ints(0) == value) 0 else indexes.ints(value)
 
-	def indexOf(value: Symbol): Int = strings indexOf value
+	def indexOf(value: Long): Int = if(uints.length > 0 && uints(0) == value) 0 else indexes.uints(value)
 
-	def indexOf(value: AbcNamespace) = namespaces indexOf value
+	def indexOf(value: Double): Int = if(!value.isNaN && doubles.length > 0 && doubles(0) == value) 0 else indexOfDouble(value)
 
-	def indexOf(value: AbcNSSet) = nssets indexOf value
+	def indexOf(value: Symbol): Int = if(strings.length > 0 && strings(0) == value) 0 else indexes.strings(value)
 
-	def indexOf(value: AbcName) = names indexOf value
+	def indexOf(value: AbcNamespace): Int = if(namespaces.length > 0 && namespaces(0) == value) 0 else indexes.namespaces(value)
+
+	def indexOf(value: AbcNSSet): Int = if(nssets.length > 0 && nssets(0) == value) 0 else indexes.nssets(value)
+
+	def indexOf(value: AbcName): Int = if(names.length > 0 && names(0) == value) 0 else indexes.names(value)
 
 	def indexOf(kind: Option[Int], value: Option[Any]): Int = {
 		value match {
@@ -104,25 +112,10 @@ class AbcConstantPool(
 		// is zero.
 		//
 		kind match {
-			case AbcConstantType.Int => ints.indexOf(value.asInstanceOf[Int], 1)
-			case AbcConstantType.UInt => uints.indexOf(value.asInstanceOf[Long], 1)
-			case AbcConstantType.Double => {
-				//TODO fix when fixed
-				//http://lampsvn.epfl.ch/trac/scala/ticket/3291
-				val double = value.asInstanceOf[Double]
-				if(double.isNaN) {
-					for(i <- 1 until doubles.length) {
-						if(doubles(i).isNaN) {
-							return i
-						}
-					}
-
-					-1
-				} else {
-					doubles.indexOf(value.asInstanceOf[Double], 1)
-				}
-			}
-			case AbcConstantType.Utf8 => strings.indexOf(value.asInstanceOf[Symbol], 1)
+			case AbcConstantType.Int => indexes.ints(value.asInstanceOf[Int])
+			case AbcConstantType.UInt => indexes.uints(value.asInstanceOf[Long])
+			case AbcConstantType.Double => indexOfDouble(value.asInstanceOf[Double])
+			case AbcConstantType.Utf8 => indexes.strings(value.asInstanceOf[Symbol])
 			case AbcConstantType.True |
 					AbcConstantType.False |
 					AbcConstantType.Null |
@@ -133,11 +126,41 @@ class AbcConstantPool(
 					AbcConstantType.ProtectedNamespace |
 					AbcConstantType.ExplicitNamespace |
 					AbcConstantType.StaticProtectedNamespace |
-					AbcConstantType.PrivateNamespace => namespaces.indexOf(value.asInstanceOf[AbcNamespace], 1)
+					AbcConstantType.PrivateNamespace => indexes.namespaces(value.asInstanceOf[AbcNamespace])
 			case _ => 0xff
 		}
 	}
 
+	/**
+	 * Looks up a double starting at index one. All NaN values are treated
+	 * as equal. An exact match of a signed zero is preferred but the lookup
+	 * falls back to the other zero since both compare equal.
+	 */
+	private def indexOfDouble(value: Double): Int = {
+		val index = indexes.doubles(value)
+
+		if(-1 == index && 0.0 == value) {
+			indexes.doubles(-value)
+		} else {
+			index
+		}
+	}
+
+	/**
+	 * The hash indexes are built lazily per table. Lazy values are
+	 * initialized in a thread-safe manner so concurrent encoders may share
+	 * the same pool.
+	 */
+	private final class Indexes {
+		lazy val ints = AbcConstantPoolIndex(AbcConstantPool.this.ints)
+		lazy val uints = AbcConstantPoolIndex(AbcConstantPool.this.uints)
+		lazy val doubles = AbcConstantPoolIndex ofDoubles AbcConstantPool.this.doubles
+		lazy val strings = AbcConstantPoolIndex(AbcConstantPool.this.strings)
+		lazy val namespaces = AbcConstantPoolIndex(AbcConstantPool.this.namespaces)
+		lazy val nssets = AbcConstantPoolIndex(AbcConstantPool.this.nssets)
+		lazy val names = AbcConstantPoolIndex(AbcConstantPool.this.names)
+	}
+
 	override def toString = "[AbcConstantPool]"
 
 	override def dump(writer: IndentingPrintWriter) = {
@@ -0,0 +1,65 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.abc
+
+import java.util.{HashMap => JHashMap}
+import java.lang.{Double => JDouble, Integer => JInteger}
+
+/**
+ * A hash index over one table of the constant pool.
+ *
+ * The index maps a key of each entry to the lowest index greater than zero
+ * holding that entry. Entry zero is never indexed since it is the implicit
+ * default value of each table.
+ */
+private[abc] final class AbcConstantPoolIndex[T, K](table: Array[T])(key: T => K) {
+	private val map = {
+		val n = table.length
+		val result = new JHashMap[K, JInteger](n << 1)
+		var i = n - 1
+
+		//
+		// Walk backwards so the lowest index of a duplicate wins.
+		//
+
+		while(i > 0) {
+			result.put(key(table(i)), JInteger valueOf i)
+			i -= 1
+		}
+
+		result
+	}
+
+	def apply(value: T): Int = {
+		val index = map get key(value)
+		if(null == index) -1 else index.intValue
+	}
+}
+
+private[abc] object AbcConstantPoolIndex {
+	def apply[T](table: Array[T]) = new AbcConstantPoolIndex[T, T](table)(identity)
+
+	/**
+	 * Doubles are keyed by their bit pattern. This collapses all NaN values
+	 * into a single key and keeps 0.0 and -0.0 apart.
+	 */
+	def ofDoubles(table: Array[Double]) = new AbcConstantPoolIndex[Double, Long](table)(JDouble.doubleToLongBits _)
+}
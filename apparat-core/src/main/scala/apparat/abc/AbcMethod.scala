@@ -97,8 +97,68 @@ class AbcMethod(var parameters: Array[AbcMethodParameter], var returnType: AbcNa
 
 class AbcMethodBody(var maxStack: Int, var localCount: Int, var initScopeDepth: Int,
 					var maxScopeDepth: Int, var code: Array[Byte], var exceptions: Array[AbcExceptionHandler],
-					var traits: Array[AbcTrait], var bytecode: Option[Bytecode] = None) extends Dumpable with HasTraits
+					var traits: Array[AbcTrait], initialBytecode: Option[Bytecode] = None) extends Dumpable with HasTraits
 {
+	//
+	// After Abc.loadBytecode the bytecode is decoded on first access. The
+	// code is only encoded again if the bytecode has been modified or the
+	// ABC it refers to has changed in the meantime.
+	//
+
+	private var decoded = initialBytecode
+	private var pending: Abc = null
+	private var origin: Abc = null
+	private var originVersion = -1
+	private var cleanModCount = -1
+
+	def bytecode: Option[Bytecode] = synchronized {
+		if(null != pending) {
+			val abc = pending
+			val result = Bytecode.fromBody(this)(abc)
+
+			decoded = Some(result)
+			cleanModCount = result.modCount
+			pending = null
+		}
+
+		decoded
+	}
+
+	def bytecode_=(value: Option[Bytecode]): Unit = synchronized {
+		decoded = value
+		cleanModCount = -1
+		pending = null
+	}
+
+	private[abc] def isPending = synchronized { null != pending }
+
+	private[abc] def defer(abc: Abc): Unit = synchronized {
+		decoded = None
+		cleanModCount = -1
+		pending = abc
+		origin = abc
+		originVersion = abc.version
+	}
+
+	/**
+	 * Encodes the bytecode into <code>code</code> unless the code is still
+	 * valid for <code>abc</code>.
+	 */
+	private[abc] def store(abc: Abc): Unit = synchronized {
+		val valid = (origin eq abc) && originVersion == abc.version
+
+		if(!valid || null == pending) {
+			bytecode match {
+				case Some(bytecode) => if(!valid || bytecode.modCount != cleanModCount) {
+					bytecode.storeIn(this)(abc)
+					cleanModCount = bytecode.modCount
+					origin = abc
+					originVersion = abc.version
+				}
+				case None =>
+			}
+		}
+	}
 	def accept(visitor: AbcVisitor) = {
 		visitor visit this
 		exceptions foreach (_ accept visitor)
@@ -22,75 +22,255 @@
 package apparat.abc.analysis
 
 import apparat.abc._
+import collection.mutable.ListBuffer
+import java.lang.{Double => JDouble, Integer => JInteger}
+import java.util.{Arrays => JArrays, Comparator => JComparator, HashMap => JHashMap, HashSet => JHashSet}
 
 object AbcConstantPoolBuilder {
-	def using(abc: Abc) = {
-		val builder = new AbcConstantPoolBuilder()
+	def using(abc: Abc): AbcConstantPool = using(abc, false)
+
+	def using(abc: Abc, sizeAware: Boolean): AbcConstantPool = {
+		val builder = new AbcConstantPoolBuilder(sizeAware)
 		builder add abc
 		builder.createPool
 	}
 }
-class AbcConstantPoolBuilder extends AbcVisitor with AbstractAbcConstantPoolBuilder {
-	var ints: List[Int] = Nil
-	var uints: List[Long] = Nil
-	var doubles: List[Double] = Nil
-	var strings: List[Symbol] = Nil
-	var namespaces: List[AbcNamespace] = Nil
-	var nssets: List[AbcNSSet] = Nil
-	var names: List[AbcName] = Nil
+
+/**
+ * Sorts the entries of each table by the number of references so the most
+ * frequent ones get the shortest U30 index. Entries referenced equally
+ * often are ordered by their last reference, most recent first.
+ *
+ * Typenames are put behind all other names. If <code>sizeAware</code> is
+ * set, a typename is sorted like any other name and only kept behind the
+ * names it refers to.
+ */
+class AbcConstantPoolBuilder(sizeAware: Boolean) extends AbcVisitor with AbstractAbcConstantPoolBuilder {
+	private var ints = new PrimitiveOccurrences()
+	private var uints = new PrimitiveOccurrences()
+	private var doubles = new PrimitiveOccurrences()
+	private var strings = new Occurrences[Symbol]()
+	private var namespaces = new Occurrences[AbcNamespace]()
+	private var nssets = new Occurrences[AbcNSSet]()
+	private var names = new Occurrences[AbcName]()
+
+	def this() = this(false)
 
 	override def reset() = {
 		super.reset()
 
-		ints = Nil
-		uints = Nil
-		doubles = Nil
-		strings = Nil
-		namespaces = Nil
-		nssets = Nil
-		names = Nil
-	}
-
-	def optimize[B](list: List[B]) = {
-		val noDuplicates = list.distinct
-		val count = Map(noDuplicates zip (noDuplicates map { x => list count (_ == x) }): _*)
-		noDuplicates sortWith { (a, b) => count(a) > count(b) }
+		ints = new PrimitiveOccurrences()
+		uints = new PrimitiveOccurrences()
+		doubles = new PrimitiveOccurrences()
+		strings = new Occurrences[Symbol]()
+		namespaces = new Occurrences[AbcNamespace]()
+		nssets = new Occurrences[AbcNSSet]()
+		names = new Occurrences[AbcName]()
 	}
 
 	def createPool = {
 		import apparat.actors.Futures._
-		val intFuture = future { (0 :: optimize(ints)).toArray }
-		val uintFuture = future { (0L :: optimize(uints)).toArray }
+		val intFuture = future { 0 +: (ints.sorted map { _.asInstanceOf[Int] }) }
+		val uintFuture = future { 0L +: uints.sorted }
 		val doubleFuture = future {
+			val sorted = doubles.sorted map { JDouble.longBitsToDouble(_) }
+
 			if(addNaN) {
-				(Double.NaN :: Double.NaN :: optimize(doubles)).toArray
+				Array(Double.NaN, Double.NaN) ++ sorted
 			} else {
-				(Double.NaN :: optimize(doubles)).toArray
+				Double.NaN +: sorted
 			}
 		}
-		val stringFuture = future { (AbcConstantPool.EMPTY_STRING :: optimize(strings)).toArray }
-		val namespaceFuture = future { (AbcConstantPool.EMPTY_NAMESPACE :: optimize(namespaces)).toArray }
-		val nssetFuture = future { (AbcConstantPool.EMPTY_NSSET :: optimize(nssets)).toArray }
-		val nameFuture = future {
-			val noDuplicates = names.distinct
-			val count = Map(noDuplicates zip (noDuplicates map { x => names count (_ == x) }): _*)
-			(AbcConstantPool.EMPTY_NAME :: noDuplicates.sortWith((a, b) => a match {
-				case AbcTypename(_, _) => false
-				case other => b match {
-					case AbcTypename(_, _) => true
-					case _ => count(a) > count(b)
-				}
-			}).distinct).toArray
-		}
+		val stringFuture = future { (AbcConstantPool.EMPTY_STRING :: strings.sorted).toArray }
+		val namespaceFuture = future { (AbcConstantPool.EMPTY_NAMESPACE :: namespaces.sorted).toArray }
+		val nssetFuture = future { (AbcConstantPool.EMPTY_NSSET :: nssets.sorted).toArray }
+		val nameFuture = future { (AbcConstantPool.EMPTY_NAME :: (if(sizeAware) namesBySize else namesByFrequency)).toArray }
 		new AbcConstantPool(intFuture(), uintFuture(), doubleFuture(), stringFuture(),
 			namespaceFuture(), nssetFuture(), nameFuture())
 	}
 
-	override protected def addValueToPool(value: Int): Unit  = ints = value :: ints
-	override protected def addValueToPool(value: Long): Unit  = uints = value :: uints
-	override protected def addValueToPool(value: Double): Unit  = doubles = value :: doubles
-	override protected def addValueToPool(value: Symbol): Unit  = strings = value :: strings
-	override protected def addValueToPool(value: AbcNamespace): Unit  = namespaces = value :: namespaces
-	override protected def addValueToPool(value: AbcNSSet): Unit  = nssets = value :: nssets
-	override protected def addValueToPool(value: AbcName): Unit = names = value :: names
+	private def namesByFrequency = {
+		val typenames = names.recent filter { _.isInstanceOf[AbcTypename] }
+		(names.sorted filterNot { _.isInstanceOf[AbcTypename] }) ::: typenames
+	}
+
+	private def namesBySize = {
+		val result = ListBuffer.empty[AbcName]
+		val emitted = new JHashSet[AbcName]()
+
+		def emit(name: AbcName): Unit = {
+			if((names contains name) && !(emitted contains name)) {
+				name match {
+					case AbcTypename(qname, parameters) => {
+						emit(qname)
+						parameters foreach emit
+					}
+					case _ =>
+				}
+
+				emitted add name
+				result += name
+			}
+		}
+
+		names.sorted foreach emit
+		result.toList
+	}
+
+	override protected def addValueToPool(value: Int): Unit  = ints += value
+	override protected def addValueToPool(value: Long): Unit  = uints += value
+	override protected def addValueToPool(value: Double): Unit  = doubles += JDouble.doubleToLongBits(value)
+	override protected def addValueToPool(value: Symbol): Unit  = strings += value
+	override protected def addValueToPool(value: AbcNamespace): Unit  = namespaces += value
+	override protected def addValueToPool(value: AbcNSSet): Unit  = nssets += value
+	override protected def addValueToPool(value: AbcName): Unit = names += value
+}
+
+/**
+ * Counts how often each value is added and remembers when it has been
+ * added last.
+ */
+private final class Occurrences[T] {
+	private final class Occurrence(val value: T, var count: Int, var last: Int)
+
+	private val map = new JHashMap[T, Occurrence]()
+	private var sequence = 0
+
+	def +=(value: T) = {
+		val occurrence = map get value
+
+		if(null == occurrence) {
+			map.put(value, new Occurrence(value, 1, sequence))
+		} else {
+			occurrence.count += 1
+			occurrence.last = sequence
+		}
+
+		sequence += 1
+	}
+
+	def contains(value: T) = map containsKey value
+
+	/**
+	 * The values by number of occurrences and last occurrence, descending.
+	 */
+	def sorted = sortedBy(new JComparator[Occurrence] {
+		override def compare(a: Occurrence, b: Occurrence) = {
+			if(a.count != b.count) {
+				if(a.count > b.count) -1 else 1
+			} else {
+				b.last - a.last
+			}
+		}
+	})
+
+	/**
+	 * The values by last occurrence, descending.
+	 */
+	def recent = sortedBy(new JComparator[Occurrence] {
+		override def compare(a: Occurrence, b: Occurrence) = b.last - a.last
+	})
+
+	private def sortedBy(comparator: JComparator[Occurrence]) = {
+		val occurrences = map.values.toArray(new Array[Occurrence](map.size))
+		JArrays.sort(occurrences, comparator)
+		(occurrences map { _.value }).toList
+	}
+}
+
+/**
+ * Counts occurrences of primitive values in an open addressing table.
+ * Doubles are added by their bit pattern.
+ */
+private final class PrimitiveOccurrences {
+	private var keys = new Array[Long](0x40)
+	private var counts = new Array[Int](0x40)
+	private var lasts = new Array[Int](0x40)
+	private var size = 0
+	private var sequence = 0
+
+	def +=(value: Long) = {
+		if((size << 1) >= keys.length) {
+			grow()
+		}
+
+		val slot = slotOf(value)
+
+		if(0 == counts(slot)) {
+			keys(slot) = value
+			size += 1
+		}
+
+		counts(slot) += 1
+		lasts(slot) = sequence
+		sequence += 1
+	}
+
+	/**
+	 * The values by number of occurrences and last occurrence, descending.
+	 */
+	def sorted: Array[Long] = {
+		val slots = new Array[JInteger](size)
+		var i = 0
+		var j = 0
+
+		while(i < keys.length) {
+			if(0 != counts(i)) {
+				slots(j) = JInteger valueOf i
+				j += 1
+			}
+
+			i += 1
+		}
+
+		JArrays.sort(slots, new JComparator[JInteger] {
+			override def compare(a: JInteger, b: JInteger) = {
+				val countA = counts(a.intValue)
+				val countB = counts(b.intValue)
+
+				if(countA != countB) {
+					if(countA > countB) -1 else 1
+				} else {
+					lasts(b.intValue) - lasts(a.intValue)
+				}
+			}
+		})
+
+		slots map { slot => keys(slot.intValue) }
+	}
+
+	private def slotOf(value: Long) = {
+		val mask = keys.length - 1
+		val hash = (value ^ (value >>> 0x20)).toInt * 0x9e3779b9
+		var slot = (hash ^ (hash >>> 0x10)) & mask
+
+		while(0 != counts(slot) && keys(slot) != value) {
+			slot = (slot + 1) & mask
+		}
+
+		slot
+	}
+
+	private def grow() = {
+		val oldKeys = keys
+		val oldCounts = counts
+		val oldLasts = lasts
+
+		keys = new Array[Long](oldKeys.length << 1)
+		counts = new Array[Int](oldKeys.length << 1)
+		lasts = new Array[Int](oldKeys.length << 1)
+
+		var i = 0
+
+		while(i < oldKeys.length) {
+			if(0 != oldCounts(i)) {
+				val slot = slotOf(oldKeys(i))
+				keys(slot) = oldKeys(i)
+				counts(slot) = oldCounts(i)
+				lasts(slot) = oldLasts(i)
+			}
+
+			i += 1
+		}
+	}
 }
@@ -21,22 +21,69 @@
 package apparat.abc.analysis
 
 import apparat.abc._
+import apparat.actors.Futures._
 import apparat.log.SimpleLog
+import collection.mutable.{ArrayBuffer, HashMap}
+import java.util.{Arrays => JArrays}
 
 /**
+ * Methods are grouped by a fingerprint of everything <code>methodsEqual</code>
+ * compares. Only methods with the same fingerprint are compared and the
+ * groups are checked in parallel.
+ *
  * @author Joa Ebert
  */
 object IdenticalMethodsFinder extends (Abc => Map[AbcMethod, AbcMethod]) with SimpleLog {
+	private val MethodsPerTask = 0x400
+
 	override def apply(abc: Abc) = {
 		if(abc.bytecodeAvailable) {
 			log.warning("Only raw bytecode will be checked for identity.")
 		}
 
-		val methods = abc.methods
-		val n = methods.length
+		val methods = abc.methods filter { method => null != method && !method.anonymous }
+		val fingerprints = new Array[Int](methods.length)
+
+		val hashTasks = for(from <- 0 until methods.length by MethodsPerTask) yield future {
+			val until = math.min(methods.length, from + MethodsPerTask)
+			var i = from
+
+			while(i < until) {
+				fingerprints(i) = fingerprintOf(methods(i))
+				i += 1
+			}
+		}
+
+		hashTasks foreach { _() }
+
+		//
+		// Buckets keep the order of the methods so each method is mapped
+		// to the first identical method like in a pairwise comparison.
+		//
+
+		val buckets = HashMap.empty[Int, ArrayBuffer[AbcMethod]]
+
+		for(i <- 0 until methods.length) {
+			buckets.getOrElseUpdate(fingerprints(i), ArrayBuffer.empty[AbcMethod]) += methods(i)
+		}
+
+		val candidates = (buckets.valuesIterator filter { _.length > 1 }).toArray
+		val tasks = new ArrayBuffer[() => List[(AbcMethod, AbcMethod)]]()
+		var from = 0
+
+		while(from < candidates.length) {
+			var until = from
+			var size = 0
+
+			while(until < candidates.length && size < MethodsPerTask) {
+				size += candidates(until).length
+				until += 1
+			}
 
-		var i = 0
-		var j = 0
+			val slice = candidates.slice(from, until)
+			tasks += future { slice.toList flatMap identicalIn }
+			from = until
+		}
 
 		//
 		// The mapping source -> target.
@@ -45,25 +92,55 @@ object IdenticalMethodsFinder extends (Abc => Map[AbcMethod, AbcMethod]) with Si
 		// a given target.
 		//
 
-		var map = Map.empty[AbcMethod, AbcMethod]
-
-		while(i < n) {
-			if(!(map contains methods(i))) {
-				j = i + 1
+		(tasks flatMap { _() }).toMap
+	}
 
-				while(j < n) {
-					if(methodsEqual(methods(i), methods(j))) {
-						map += methods(j) -> methods(i)
-					}
+	private def identicalIn(bucket: ArrayBuffer[AbcMethod]) = {
+		val targets = ArrayBuffer.empty[AbcMethod]
+		var result = List.empty[(AbcMethod, AbcMethod)]
 
-					j += 1
-				}
+		for(method <- bucket) {
+			targets find { methodsEqual(_, method) } match {
+				case Some(target) => result = (method -> target) :: result
+				case None => targets += method
 			}
+		}
+
+		result
+	}
+
+	private def fingerprintOf(method: AbcMethod) = {
+		var hash = method.returnType.## * 31 + method.name.##
+
+		hash = hash * 31 + flagsOf(method)
+
+		for(parameter <- method.parameters) {
+			hash = hash * 31 + (if(null == parameter) 0 else {
+				(((parameter.typeName.## * 31 + parameter.name.##) * 31 + parameter.optional.##) * 31 +
+					parameter.optionalType.##) * 31 + parameter.optionalVal.##
+			})
+		}
 
-			i += 1
+		method.body match {
+			case Some(body) => {
+				hash = hash * 31 + body.maxStack
+				hash = hash * 31 + body.localCount
+				hash = hash * 31 + body.initScopeDepth
+				hash = hash * 31 + body.maxScopeDepth
+				hash = hash * 31 + body.traits.length
+				hash = hash * 31 + body.exceptions.length
+				hash * 31 + JArrays.hashCode(body.code)
+			}
+			case _ => hash
 		}
+	}
+
+	private def flagsOf(method: AbcMethod) = {
+		val flags = List(method.needsArguments, method.needsActivation, method.needsRest,
+			method.hasOptionalParameters, method.ignoreRest, method.isNative, method.setsDXNS,
+			method.hasParameterNames)
 
-		map
+		flags.foldLeft(method.parameters.length) { (result, flag) => (result << 1) | (if(flag) 1 else 0) }
 	}
 
 	private def methodsEqual(a: AbcMethod, b: AbcMethod): Boolean = {
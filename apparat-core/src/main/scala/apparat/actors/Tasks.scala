@@ -0,0 +1,56 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.actors
+
+import java.util.concurrent.{Callable => JCallable, ExecutionException => JExecutionException}
+import scala.concurrent.forkjoin.ForkJoinPool
+
+/**
+ * Runs independent tasks on a fork-join pool.
+ */
+object Tasks {
+	/**
+	 * Creates a pool unless threads are disabled. The caller has to shut
+	 * it down.
+	 */
+	def newPool(): Option[ForkJoinPool] = if(Actor.threadsEnabled) Some(new ForkJoinPool()) else None
+
+	/**
+	 * Applies <code>body</code> to all <code>values</code> in parallel and
+	 * returns the results in order. The first exception of a task is rethrown.
+	 */
+	def map[A, B](pool: Option[ForkJoinPool], values: List[A])(body: A => B): List[B] = pool match {
+		case Some(forkJoinPool) if values.lengthCompare(1) > 0 => {
+			val tasks = for(value <- values) yield forkJoinPool submit new JCallable[B] {
+				override def call() = body(value)
+			}
+
+			try {
+				tasks map { _.get() }
+			} catch {
+				case executionException: JExecutionException => throw executionException.getCause
+			}
+		}
+		case _ => values map body
+	}
+
+	def foreach[A](pool: Option[ForkJoinPool], values: List[A])(body: A => Unit): Unit = map(pool, values)(body)
+}
@@ -39,7 +39,96 @@ object Bytecode {
 	def bytecode(body: => List[AbstractOp]) = new Bytecode(body, new MarkerManager(), new Array(0), None)
 }
 
-class Bytecode(var ops: List[AbstractOp], val markers: MarkerManager, var exceptions: Array[BytecodeExceptionHandler], var body: Option[AbcMethodBody]) extends Dumpable {
+/**
+ * The operations are kept either as a list or as an <code>OpStore</code>
+ * and converted lazily. Reading <code>ops</code> after a series of
+ * replacements costs a single pass over the method.
+ *
+ * Any number of threads may read the operations concurrently but only
+ * while no thread modifies them.
+ */
+class Bytecode(initialOps: List[AbstractOp], val markers: MarkerManager, initialExceptions: Array[BytecodeExceptionHandler], var body: Option[AbcMethodBody]) extends Dumpable {
+	@volatile private var list: List[AbstractOp] = initialOps
+	private var store: OpStore = null
+	private var handlers = initialExceptions
+	private var modifications = 0
+	private var firstModified = Int.MaxValue
+
+	/**
+	 * The number of modifications of the operations or exception handlers.
+	 */
+	def modCount = modifications
+
+	/**
+	 * The index of the first operation which has been modified since the
+	 * last call of <code>resetModifiedFrom()</code>. Every operation in
+	 * front of it is still the same.
+	 *
+	 * @return The index of the first modified operation; <code>Int.MaxValue</code> if there is none.
+	 */
+	def modifiedFrom: Int = {
+		ops
+		firstModified
+	}
+
+	def resetModifiedFrom(): Unit = {
+		ops
+		firstModified = Int.MaxValue
+	}
+
+	def exceptions = handlers
+
+	def exceptions_=(value: Array[BytecodeExceptionHandler]): Unit = {
+		handlers = value
+		firstModified = 0
+		modifications += 1
+	}
+
+	def ops: List[AbstractOp] = {
+		val result = list
+
+		if(null == result) {
+			synchronized {
+				if(null == list) {
+					firstModified = math.min(firstModified, store.firstTouched())
+					list = store.toList
+				}
+
+				list
+			}
+		} else {
+			result
+		}
+	}
+
+	def ops_=(value: List[AbstractOp]): Unit = {
+		var previous = ops
+		var current = value
+		var index = 0
+
+		while(previous.nonEmpty && current.nonEmpty && (previous.head eq current.head)) {
+			previous = previous.tail
+			current = current.tail
+			index += 1
+		}
+
+		if(previous.nonEmpty || current.nonEmpty) {
+			firstModified = math.min(firstModified, index)
+		}
+
+		list = value
+		store = null
+		modifications += 1
+	}
+
+	private def opStore = {
+		if(null == store) {
+			store = new OpStore(list)
+		}
+
+		store
+	}
+
 	override def dump(writer: IndentingPrintWriter) = BytecodeDump.`type` match {
 		case BytecodeDumpTypeDefault => new BytecodeDump(ops, markers, exceptions, body) dump writer
 		case BytecodeDumpTypeCFG => BytecodeControlFlowGraphBuilder(this).dotExport to writer
@@ -112,6 +201,7 @@ class Bytecode(var ops: List[AbstractOp], val markers: MarkerManager, var except
 				chain(unprocessed) match {
 					case Success(value, remaining) => {
 						val replacement = body(value)
+						val removed = consumed(unprocessed, remaining)
 
 						processed :::= replacement.reverse
 						unprocessed = remaining
@@ -121,9 +211,9 @@ class Bytecode(var ops: List[AbstractOp], val markers: MarkerManager, var except
 								unprocessed = List(Nop())
 							}
 
-							markers.patchMissing(processed ::: unprocessed, exceptions, unprocessed.head)
+							markers.patchRemoved(removed, replacement, unprocessed.head)
 						} else {
-							markers.patchMissing(processed ::: unprocessed, exceptions, replacement.head)
+							markers.patchRemoved(removed, replacement, replacement.head)
 						}
 
 						modified = true
@@ -135,11 +225,26 @@ class Bytecode(var ops: List[AbstractOp], val markers: MarkerManager, var except
 				}
 			}
 
-			ops = if(0 == fromIndex) { processed.reverse } else { (ops take fromIndex) ::: processed.reverse}
+			if(modified) {
+				ops = if(0 == fromIndex) { processed.reverse } else { (ops take fromIndex) ::: processed.reverse}
+			}
+
 			modified
 		}
 	}
 
+	private def consumed(list: List[AbstractOp], remaining: List[AbstractOp]) = {
+		var result = List.empty[AbstractOp]
+		var current = list
+
+		while(current.nonEmpty && !(current eq remaining)) {
+			result = current.head :: result
+			current = current.tail
+		}
+
+		result
+	}
+
 	def replaceAll[A](chain: BytecodeChain[A])(rule: A => List[AbstractOp]): Boolean = {
 		replace(chain)(rule) match {
 			case true => replaceAll(chain)(rule) || true
@@ -152,16 +257,10 @@ class Bytecode(var ops: List[AbstractOp], val markers: MarkerManager, var except
 	def replace(existing: AbstractOp, replacement: AbstractOp): Unit = replace(existing, replacement :: Nil)
 
 	def replace(existing: AbstractOp, replacement: List[AbstractOp]): Unit = {
-		if(replacement.nonEmpty) {
-			val index = ops indexOf existing
-			if(-1 != index) {
-				markers.forwardMarker(existing, replacement.head)
-				ops = ((ops take index) ::: replacement) ::: (ops drop (index + 1))
-//				ops = ops map {
-//					case e if e == existing => replacement
-//					case other => other
-//				}
-			}
+		if(replacement.nonEmpty && opStore.replace(existing, replacement)) {
+			markers.forwardMarker(existing, replacement.head)
+			list = null
+			modifications += 1
 		}
 	}
 
@@ -20,18 +20,19 @@
  */
 package apparat.bytecode
 
-import annotation.tailrec
-import collection.immutable.{TreeMap, SortedMap}
-import collection.mutable.ListBuffer
-import java.io.{ByteArrayInputStream => JByteArrayInputStream}
+import java.nio.{ByteBuffer => JByteBuffer}
 import operations._
-import apparat.abc.{AbcMethodBody, AbcInputStream, AbcExceptionHandler, Abc}
+import apparat.abc.{AbcMethodBody, AbcExceptionHandler, Abc}
 
 object BytecodeDecoder {
-	def apply(bytecode: Array[Byte], abcExceptions: Array[AbcExceptionHandler], body: AbcMethodBody)(implicit abc: Abc) = {
-		val input = new AbcInputStream(new JByteArrayInputStream(bytecode))
+	def apply(bytecode: Array[Byte], abcExceptions: Array[AbcExceptionHandler], body: AbcMethodBody)(implicit abc: Abc): Bytecode = {
+		val input = JByteBuffer wrap bytecode
+		val length = bytecode.length
 		val cpool = abc.cpool
 		val markers = new MarkerManager()
+
+		markers reserve length
+
 		val exceptions = abcExceptions map {
 			handler => new BytecodeExceptionHandler(
 				markers.putMarkerAt(handler.from),
@@ -40,11 +41,15 @@ object BytecodeDecoder {
 				handler.typeName, handler.varName)
 		}
 
-		@inline def u08 = input.readU08()
-		@inline def s08 = input.readS08()
-		@inline def s24 = input.readS24()
-		@inline def u30 = input.readU30()
-		@inline def s30 = input.readS30()
+		@inline def u08 = input.get() & 0xff
+		@inline def s08 = input.get().asInstanceOf[Int]
+		@inline def s24 = {
+			val b0 = u08
+			val b1 = u08
+			((u08 << 0x18) | (b1 << 0x10) | (b0 << 0x08)) >> 0x08
+		}
+		@inline def u30 = decodeInt(input) & 0x3fffffff
+		@inline def s30 = (decodeInt(input) << 0x02) >> 0x02
 		@inline def name = cpool.names(u30)
 		@inline def string = cpool.strings(u30)
 		@inline def numArguments = u30
@@ -52,7 +57,7 @@ object BytecodeDecoder {
 		@inline def slot = u30
 		@inline def property = name
 		@inline def marker(implicit position: Int) = markers putMarkerAt (position + 0x04 + s24)
-		@inline def readOp(implicit position: Int): AbstractOp = input.readU08() match {
+		@inline def readOp(implicit position: Int): AbstractOp = u08 match {
 			case Op.add => Add()
 			case Op.add_i => AddInt()
 			case Op.add_p => error("add_p")
@@ -238,22 +243,52 @@ object BytecodeDecoder {
 			case x => error("Unknown opcode " + x + ".")
 		}
 
-		@tailrec def build(list: List[AbstractOp], map: SortedMap[Int, AbstractOp]): (List[AbstractOp], SortedMap[Int, AbstractOp]) = input.available match {
-			case 0 => (list, map)
-			case _ => {
-				val pos = input.position
-				val op = readOp(pos)
+		var ops = new Array[AbstractOp](math.max(0x10, length >> 1))
+		var positions = new Array[Int](ops.length)
+		var numOps = 0
 
-				build(op :: list, map + (pos -> op))
+		while(input.hasRemaining) {
+			if(numOps == ops.length) {
+				ops = java.util.Arrays.copyOf(ops, numOps << 1)
+				positions = java.util.Arrays.copyOf(positions, numOps << 1)
 			}
-		}
 
-		try {
-			val (ops, map) = build(Nil, TreeMap())
-			new Bytecode(ops.reverse, markers solve map, exceptions, Some(body))
+			val position = input.position()
+			positions(numOps) = position
+			ops(numOps) = readOp(position)
+			numOps += 1
 		}
-		finally {
-			try { input.close() } catch { case _ => {} }
+
+		markers solve (positions, ops, numOps)
+
+		var list = List.empty[AbstractOp]
+		var i = numOps
+
+		while(i > 0) {
+			i -= 1
+			list = ops(i) :: list
 		}
+
+		new Bytecode(list, markers, exceptions, Some(body))
+	}
+
+	private def decodeInt(input: JByteBuffer): Int = {
+		var result = input.get() & 0xff
+
+		if(0 == (result & 0x00000080)) return result
+
+		result = result & 0x0000007f | (input.get() & 0xff) << 0x07
+
+		if(0 == (result & 0x00004000)) return result
+
+		result = result & 0x00003fff | (input.get() & 0xff) << 0x0e
+
+		if(0 == (result & 0x00200000)) return result
+
+		result = result & 0x001fffff | (input.get() & 0xff) << 0x15
+
+		if(0 == (result & 0x10000000)) return result
+
+		result & 0x0fffffff | (input.get() & 0xff) << 0x1c
 	}
 }
@@ -21,16 +21,26 @@
 package apparat.bytecode
 
 import apparat.abc.{Abc, AbcExceptionHandler, AbcName, AbcOutputStream, AbcOutputUtil}
-import collection.immutable.TreeMap
-import java.io.{ByteArrayOutputStream => JByteArrayOutputStream}
+import apparat.utils.ByteArrayOutput
+import java.util.{Arrays => JArrays}
 import operations._
 
 object BytecodeEncoder {
 	def apply(bytecode: Bytecode)(implicit abc: Abc) = {
-		val byteArrayOutputStream = new JByteArrayOutputStream()
-		val output = new AbcOutputStream(byteArrayOutputStream)
+		//
+		// An unmodified method has the size of its original code. In that
+		// case the buffer is filled exactly and returned without a copy.
+		//
+
+		val byteArrayOutput = new ByteArrayOutput(bytecode.body match {
+			case Some(body) => body.code.length
+			case None => bytecode.ops.length << 1
+		})
+		val output = new AbcOutputStream(byteArrayOutput)
 		val cpool = abc.cpool
-		var patches = TreeMap[Int, AbstractOp]()
+		var patchPositions = new Array[Int](0x10)
+		var patchOps = new Array[AbstractOp](0x10)
+		var numPatches = 0
 		val markers = bytecode.markers
 
 		@inline def u08(value: Int) = output writeU08 value
@@ -42,7 +52,14 @@ object BytecodeEncoder {
 		@inline def string(value: Symbol) = u30(cpool indexOf value)
 		@inline def position = output.position
 		@inline def patch(op: AbstractOp) = {
-			patches = patches + ((position - 1) -> op)
+			if(numPatches == patchOps.length) {
+				patchPositions = JArrays.copyOf(patchPositions, numPatches << 1)
+				patchOps = JArrays.copyOf(patchOps, numPatches << 1)
+			}
+
+			patchPositions(numPatches) = position - 1
+			patchOps(numPatches) = op
+			numPatches += 1
 			s24(0)
 		}
 		@inline def writeOp(op: AbstractOp) = {
@@ -203,10 +220,18 @@ object BytecodeEncoder {
 
 			output.close()
 
-			val buffer = byteArrayOutputStream.toByteArray
+			//
+			// Branch offsets are known once all operations are written.
+			// They are patched into the buffer in place.
+			//
 
-			for((position, op) <- patches) {
-				op match {
+			val buffer = byteArrayOutput.array
+			var patchIndex = 0
+
+			while(patchIndex < numPatches) {
+				val position = patchPositions(patchIndex)
+
+				patchOps(patchIndex) match {
 					case LookupSwitch(defaultCase, cases) => {
 						val offset = position + 4 + AbcOutputUtil.lengthOf(cases.length - 1)
 
@@ -218,6 +243,8 @@ object BytecodeEncoder {
 					case opWithMarker: OpWithMarker => AbcOutputUtil.writeS24(buffer, position + 1, opWithMarker.marker.position - (position + 4))
 					case other => error("Unexpected operation " + other)
 				}
+
+				patchIndex += 1
 			}
 
 			val exceptions = bytecode.exceptions map {
@@ -230,7 +257,7 @@ object BytecodeEncoder {
 				}
 			}
 
-			(buffer, exceptions)
+			(byteArrayOutput.toByteArray, exceptions)
 		}
 		finally {
 			try { output.close() } catch { case _ =>  }
@@ -22,12 +22,30 @@ package apparat.bytecode
 
 import collection.mutable.HashMap
 import operations.AbstractOp
-import collection.immutable.{SortedMap, TreeMap}
+import java.util.{Arrays => JArrays, IdentityHashMap => JIdentityHashMap}
 
 class MarkerManager {
 	private var numMarkers = 0
-	private var markers = HashMap[AbstractOp, Marker]()
-	private var unresolved = TreeMap[Int, Marker]()
+
+	//
+	// Operations are equal only if they are the same instance so the
+	// index does not need to compute the structural hash code.
+	//
+
+	private val markers = new HashMap[AbstractOp, Marker] {
+		override protected def elemHashCode(key: AbstractOp) = System.identityHashCode(key)
+	}
+
+	//
+	// Markers which are read from bytecode are looked up by their position
+	// in the code. Positions outside of the code are possible for broken
+	// files and will end up in the overflow list.
+	//
+
+	private var byPosition = new Array[Marker](0)
+	private var overflow = List.empty[Marker]
+	private var unresolved = new Array[Int](0x10)
+	private var numUnresolved = 0
 
 	def apply(op: AbstractOp) = getMarkerFor(op)
 
@@ -42,15 +60,36 @@ class MarkerManager {
 		}
 	}
 	def patchMissing(ops: List[AbstractOp], exceptions: Array[BytecodeExceptionHandler], op: AbstractOp) = {
+		val existing = new JIdentityHashMap[AbstractOp, AbstractOp]()
+
+		for(x <- ops) {
+			existing.put(x, x)
+		}
+
+		patch(markers.keys filterNot { existing containsKey _ }, op)
+	}
+
+	/**
+	 * Moves the markers of all <code>removed</code> operations which are not
+	 * part of <code>replacement</code> to <code>op</code>.
+	 *
+	 * Unlike <code>patchMissing</code> only the given operations are visited.
+	 */
+	def patchRemoved(removed: List[AbstractOp], replacement: List[AbstractOp], op: AbstractOp) = {
+		patch(removed filter {
+			x => markers.contains(x) && !(replacement exists { _ eq x })
+		}, op)
+	}
+
+	private def patch(missing: Iterable[AbstractOp], op: AbstractOp) = {
 		var toRemove = List.empty[AbstractOp]
 		var toPatch = List.empty[Marker]
 
-		for((markedOp, marker) <- markers) {
-			if(!(ops exists (_ == markedOp))) {
-				marker.op = Some(op)
-				toPatch = marker :: toPatch
-				toRemove = markedOp :: toRemove
-			}
+		for(markedOp <- missing) {
+			val marker = markers(markedOp)
+			marker.op = Some(op)
+			toPatch = marker :: toPatch
+			toRemove = markedOp :: toRemove
 		}
 
 		if(toPatch.nonEmpty) {
@@ -105,41 +144,86 @@ class MarkerManager {
 		marker
 	}
 
-	protected[bytecode] def hasMarkerAt(position: Int) = unresolved get position match {
-		case Some(_) => true
-		case None => false
+	protected[bytecode] def reserve(length: Int) = {
+		byPosition = new Array[Marker](length + 1)
 	}
 
-	protected[bytecode] def getMarkerAt(position: Int) = unresolved get position
+	protected[bytecode] def hasMarkerAt(position: Int) = getMarkerAt(position).isDefined
 
-	protected[bytecode] def putMarkerAt(position: Int) = {
-		if(hasMarkerAt(position)) {
-			getMarkerAt(position).getOrElse(error("Internal error."))
+	protected[bytecode] def getMarkerAt(position: Int) = {
+		if(position >= 0 && position < byPosition.length) {
+			Option(byPosition(position))
 		} else {
-			val marker = new Marker(numMarkers)
-			marker.position = position
-			unresolved = unresolved + (position -> marker)
-			numMarkers += 1
-			marker
+			overflow find { _.position == position }
 		}
 	}
 
-	protected[bytecode] def solve(map: SortedMap[Int, AbstractOp]) = {
-		var previous: Option[Int] = None
-		for((position, op) <- map) {
-			unresolved range (0, position + 1) lastOption match {
-				case Some((markerPosition, marker)) => if(!previous.isDefined || markerPosition > previous.get) {
-					if(marker.op.isDefined) error("Illegal marker at " + markerPosition + ".")
-					marker.op = Some(op)
-					markers += op -> marker
-				}
-				case None => {}
+	protected[bytecode] def putMarkerAt(position: Int) = getMarkerAt(position) getOrElse {
+		val marker = new Marker(numMarkers)
+		marker.position = position
+
+		if(position >= 0 && position < byPosition.length) {
+			byPosition(position) = marker
+		} else {
+			overflow = marker :: overflow
+		}
+
+		if(numUnresolved == unresolved.length) {
+			unresolved = JArrays.copyOf(unresolved, numUnresolved << 1)
+		}
+
+		unresolved(numUnresolved) = position
+		numUnresolved += 1
+		numMarkers += 1
+		marker
+	}
+
+	/**
+	 * Attaches the markers placed with <code>putMarkerAt</code> to the
+	 * operations. A marker belongs to the first operation which starts at
+	 * or after its position.
+	 *
+	 * @param positions The ascending start positions of the operations.
+	 * @param ops The operations.
+	 * @param numOps The number of operations.
+	 */
+	protected[bytecode] def solve(positions: Array[Int], ops: Array[AbstractOp], numOps: Int) = {
+		JArrays.sort(unresolved, 0, numUnresolved)
+
+		var previous = -1
+		var i = 0
+		var j = 0
+
+		while(j < numUnresolved && unresolved(j) < 0) {
+			j += 1
+		}
+
+		val first = j
+
+		while(i < numOps) {
+			val position = positions(i)
+
+			while(j < numUnresolved && unresolved(j) <= position) {
+				j += 1
+			}
+
+			if(j > first && unresolved(j - 1) > previous) {
+				val markerPosition = unresolved(j - 1)
+				val marker = getMarkerAt(markerPosition) getOrElse error("Internal error.")
+				val op = ops(i)
+
+				if(marker.op.isDefined) error("Illegal marker at " + markerPosition + ".")
+				marker.op = Some(op)
+				markers += op -> marker
 			}
 
-			previous = Some(position)
+			previous = position
+			i += 1
 		}
 
-		unresolved = TreeMap.empty
+		byPosition = new Array[Marker](0)
+		overflow = Nil
+		numUnresolved = 0
 		this
 	}
 }
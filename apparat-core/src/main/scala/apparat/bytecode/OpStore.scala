@@ -0,0 +1,166 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.bytecode
+
+import operations.AbstractOp
+import java.util.{Arrays => JArrays, IdentityHashMap => JIdentityHashMap}
+
+/**
+ * A doubly-linked list of operations stored in arrays. Every operation
+ * keeps its node until it is replaced so lookups and replacements take
+ * constant time regardless of the length of the method.
+ */
+private[bytecode] final class OpStore(initial: List[AbstractOp]) {
+	private var ops = new Array[AbstractOp](math.max(16, initial.length << 1))
+	private var next = new Array[Int](ops.length)
+	private var prev = new Array[Int](ops.length)
+	private var touched = new Array[Boolean](ops.length)
+	private var numNodes = 0
+	private var head = -1
+	private var tail = -1
+	private val index = new JIdentityHashMap[AbstractOp, Int]()
+
+	initial foreach append
+
+	private def allocate(op: AbstractOp) = {
+		if(numNodes == ops.length) {
+			val newLength = ops.length << 1
+			ops = copyOf(ops, newLength)
+			next = copyOf(next, newLength)
+			prev = copyOf(prev, newLength)
+			touched = copyOf(touched, newLength)
+		}
+
+		val node = numNodes
+		ops(node) = op
+		numNodes += 1
+
+		if(!index.containsKey(op)) {
+			index.put(op, node)
+		}
+
+		node
+	}
+
+	private def copyOf[A: ClassManifest](array: Array[A], length: Int) = {
+		val result = new Array[A](length)
+		Array.copy(array, 0, result, 0, array.length)
+		result
+	}
+
+	private def append(op: AbstractOp) = {
+		val node = allocate(op)
+		next(node) = -1
+		prev(node) = tail
+
+		if(-1 == tail) {
+			head = node
+		} else {
+			next(tail) = node
+		}
+
+		tail = node
+	}
+
+	private def insertAfter(node: Int, op: AbstractOp) = {
+		val inserted = allocate(op)
+		val successor = next(node)
+
+		prev(inserted) = node
+		next(inserted) = successor
+		next(node) = inserted
+
+		if(-1 == successor) {
+			tail = inserted
+		} else {
+			prev(successor) = inserted
+		}
+
+		inserted
+	}
+
+	def contains(op: AbstractOp) = index containsKey op
+
+	/**
+	 * Replaces <code>existing</code> with a non-empty list of operations.
+	 *
+	 * @return <code>true</code> if <code>existing</code> has been found; <code>false</code> otherwise.
+	 */
+	def replace(existing: AbstractOp, replacement: List[AbstractOp]): Boolean = {
+		if(index containsKey existing) {
+			val node = index remove existing
+
+			ops(node) = replacement.head
+			touched(node) = true
+
+			if(!index.containsKey(replacement.head)) {
+				index.put(replacement.head, node)
+			}
+
+			var last = node
+
+			for(op <- replacement.tail) {
+				last = insertAfter(last, op)
+				touched(last) = true
+			}
+
+			true
+		} else {
+			false
+		}
+	}
+
+	/**
+	 * Returns the index of the first operation which has been replaced or
+	 * inserted since the last call and forgets about all of them.
+	 *
+	 * @return The index of the first modified operation; <code>Int.MaxValue</code> if there is none.
+	 */
+	def firstTouched(): Int = {
+		var result = Int.MaxValue
+		var node = head
+		var i = 0
+
+		while(-1 != node && Int.MaxValue == result) {
+			if(touched(node)) {
+				result = i
+			}
+
+			node = next(node)
+			i += 1
+		}
+
+		JArrays.fill(touched, 0, numNodes, false)
+		result
+	}
+
+	def toList = {
+		var result = List.empty[AbstractOp]
+		var node = tail
+
+		while(-1 != node) {
+			result = ops(node) :: result
+			node = prev(node)
+		}
+
+		result
+	}
+}
@@ -35,7 +35,7 @@ class InlineExpansion(abcs: List[Abc]) extends SimpleLog {
 	lazy val voidName = AbcQName('void, nsGlobal)
 	lazy val uintName = AbcQName('uint, nsGlobal)
 	lazy val apparatMacro = AbcQName('Inlined, AbcNamespace(AbcNamespaceKind.Package, Symbol("apparat.inline")))
-	lazy val macros: Map[AbcName, (AbcNominalType, Abc)] = {
+	val macros: Map[AbcName, (AbcNominalType, Abc)] = {
 		Map((for(abc <- abcs; nominal <- abc.types if ((nominal.inst.base getOrElse AbcConstantPool.EMPTY_NAME) == apparatMacro) && !nominal.inst.isInterface) yield (nominal.inst.name -> (nominal,abc))):_*)
 	}
 
@@ -65,8 +65,18 @@ class InlineExpansion(abcs: List[Abc]) extends SimpleLog {
 		case _ => error("Unexpected "+op+".")
 	}
 
-	@tailrec final def expand(bytecode: Bytecode, haveBeenModified:Boolean=false): Boolean = {
+	final def expand(bytecode: Bytecode): Boolean = expand(bytecode, 0)
+
+	/**
+	 * Expands all inlined calls starting at the operation <code>from</code>.
+	 * The operations in front of it must not contain any inlined call. A
+	 * macro reference in front of it is still removed with its call.
+	 */
+	final def expand(bytecode: Bytecode, from: Int): Boolean = expand(bytecode, from, false)
+
+	@tailrec private def expand(bytecode: Bytecode, from: Int, haveBeenModified: Boolean): Boolean = {
 		var modified = false
+		var firstModified = Int.MaxValue
 		var balance = 0
 		var removes = List.empty[AbstractOp]
 		var removePop = false
@@ -326,21 +336,25 @@ class InlineExpansion(abcs: List[Abc]) extends SimpleLog {
 				removePop = false
 			}
 			case GetLex(name) if macros contains name => {
+				if(removes.isEmpty) {
+					firstModified = index
+				}
+
 				removes = op :: removes
 				macroStack = macros(name) :: macroStack
 				balance += 1
 			}
-			case CallPropVoid(property, numArguments) if balance > 0 => {
+			case CallPropVoid(property, numArguments) if balance > 0 && index >= from => {
 				if(insert(op, property, numArguments)) {
 					modified = true
 				}
 			}
-			case CallProperty(property, numArguments) if balance > 0 => {
+			case CallProperty(property, numArguments) if balance > 0 && index >= from => {
 				if(insert(op, property, numArguments)) {
 					modified = true
 				}
 			}
-			case GetProperty(property) if balance > 0 => {
+			case GetProperty(property) if balance > 0 && index >= from => {
 				if (insert(op, property, 0)) {
 					modified = true
 				}
@@ -362,7 +376,12 @@ class InlineExpansion(abcs: List[Abc]) extends SimpleLog {
 				case None => log.warning("Bytecode body missing. Cannot adjust stack/locals.")
 			}
 
-			expand(bytecode, true)
+			//
+			// Every inlined call follows a removed macro reference so
+			// nothing changed in front of the first one.
+			//
+
+			expand(bytecode, firstModified, true)
 		} else {
 			haveBeenModified
 		}
@@ -35,7 +35,7 @@ class MacroExpansion(abcs: List[Abc]) extends SimpleLog {
 	lazy val byRef = AbcQName('__byRef, nsInline)
 	lazy val apparatMacro = AbcQName('Macro, nsInline)
 	lazy val voidName = AbcQName('void, AbcNamespace(AbcNamespaceKind.Package, Symbol("")))
-	lazy val macros: Map[AbcName, (AbcNominalType, Abc)] = {
+	val macros: Map[AbcName, (AbcNominalType, Abc)] = {
 		Map((for(abc <- abcs; nominal <- abc.types if ((nominal.inst.base getOrElse AbcConstantPool.EMPTY_NAME) == apparatMacro) && !nominal.inst.isInterface) yield (nominal.inst.name -> (nominal, abc))):_*)
 	}
 
@@ -66,8 +66,17 @@ class MacroExpansion(abcs: List[Abc]) extends SimpleLog {
 		case _ => error("Unexpected "+op+".")
 	}
 
-	@tailrec final def expand(bytecode: Bytecode, haveBeenModified:Boolean=false): Boolean = {
+	final def expand(bytecode: Bytecode): Boolean = expand(bytecode, 0)
+
+	/**
+	 * Expands all macros starting at the operation <code>from</code>. The
+	 * operations in front of it must not contain any macro.
+	 */
+	final def expand(bytecode: Bytecode, from: Int): Boolean = expand(bytecode, from, false)
+
+	@tailrec private def expand(bytecode: Bytecode, from: Int, haveBeenModified: Boolean): Boolean = {
 		var modified = false
+		var firstModified = Int.MaxValue
 		var balance = 0
 		var byRefBalance = 0
 		var byRefParameters = List.empty[AbstractOp]
@@ -425,7 +434,7 @@ class MacroExpansion(abcs: List[Abc]) extends SimpleLog {
 				case None => false
 			}
 		}
-		val ops = bytecode.ops.view
+		val ops = (bytecode.ops drop from).view
 
 		for((op, index) <- ops.zipWithIndex) op match {
 			case Pop() if removePop && byRefBalance==0 => {
@@ -433,6 +442,10 @@ class MacroExpansion(abcs: List[Abc]) extends SimpleLog {
 				removePop = false
 			}
 			case GetLex(name) if macros.contains(name)  && byRefBalance==0 => {
+				if(removes.isEmpty) {
+					firstModified = from + index
+				}
+
 				removes = op :: removes
 				macroStack = macros(name) :: macroStack
 				balance += 1
@@ -500,7 +513,12 @@ class MacroExpansion(abcs: List[Abc]) extends SimpleLog {
 				case None => log.warning("Bytecode body missing. Cannot adjust stack/locals.")
 			}
 
-			expand(bytecode, true)
+			//
+			// Every macro starts with its removed reference so nothing
+			// changed in front of the first one.
+			//
+
+			expand(bytecode, firstModified, true)
 		} else {
 			haveBeenModified
 		}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.bytecode.optimization
+
+import apparat.bytecode.Bytecode
+import apparat.log.SimpleLog
+import java.util.concurrent.atomic.{AtomicLong => JAtomicLong}
+
+/**
+ * A named transformation which returns whether or not it modified the
+ * bytecode. A pass keeps statistics over all methods it has seen.
+ *
+ * An incremental pass also receives the index of the first operation
+ * which changed since it last ran. Everything in front of that index is
+ * what the pass has already seen without finding anything.
+ */
+final class RewritePass private (val name: String, transform: (Bytecode, Int) => Boolean) {
+	private val numRuns = new JAtomicLong()
+	private val numHits = new JAtomicLong()
+	private val numSkips = new JAtomicLong()
+	private val nanoTime = new JAtomicLong()
+
+	def this(name: String, transform: Bytecode => Boolean) = this(name, (bytecode: Bytecode, from: Int) => transform(bytecode))
+
+	def apply(bytecode: Bytecode): Boolean = apply(bytecode, 0)
+
+	def apply(bytecode: Bytecode, from: Int): Boolean = {
+		val t0 = System.nanoTime()
+		val modified = transform(bytecode, from)
+
+		nanoTime addAndGet (System.nanoTime() - t0)
+		numRuns.incrementAndGet()
+
+		if(modified) {
+			numHits.incrementAndGet()
+		}
+
+		modified
+	}
+
+	private[optimization] def skip() = numSkips.incrementAndGet()
+
+	def runs = numRuns.get
+
+	def hits = numHits.get
+
+	def skips = numSkips.get
+
+	def time = nanoTime.get / 1000000L
+
+	override def toString = "%s: %d hits in %d runs, %d skipped, %dms".format(name, hits, runs, skips, time)
+}
+
+object RewritePass {
+	/**
+	 * Creates a pass which only has to look at the operations starting
+	 * at the index it is given.
+	 */
+	def incremental(name: String)(transform: (Bytecode, Int) => Boolean) = new RewritePass(name, transform)
+}
+
+/**
+ * Applies a list of passes until none of them modifies the bytecode.
+ *
+ * The passes run in rounds and in the given order just like a loop over
+ * all of them. A pass which did not modify the bytecode is not run again
+ * until another pass modified it since it would not find anything new.
+ * When it runs again it starts at the first operation modified since.
+ */
+object RewriteDriver extends SimpleLog {
+	val DefaultMaxRounds = 32
+
+	/**
+	 * @param name The name of the method for diagnostics.
+	 * @param bytecode The bytecode to transform.
+	 * @param passes The passes to apply.
+	 * @return The passes which modified the bytecode.
+	 */
+	def apply(name: => String, bytecode: Bytecode, passes: List[RewritePass]): List[RewritePass] = {
+		apply(name, bytecode, passes, DefaultMaxRounds)
+	}
+
+	def apply(name: => String, bytecode: Bytecode, passes: List[RewritePass], maxRounds: Int): List[RewritePass] = {
+		val worklist = passes.toArray
+
+		//
+		// The index each pass has to start at. Int.MaxValue marks a pass
+		// which has seen the current bytecode already.
+		//
+
+		val dirty = new Array[Int](worklist.length)
+		var result = List.empty[RewritePass]
+		var counter = maxRounds - 1
+		var done = false
+
+		while(!done) {
+			var modified = false
+			var i = 0
+
+			while(i < worklist.length) {
+				val pass = worklist(i)
+				val from = dirty(i)
+
+				if(Int.MaxValue != from) {
+					bytecode.resetModifiedFrom()
+					dirty(i) = Int.MaxValue
+
+					if(pass(bytecode, from)) {
+						//
+						// A pass may report a modification which is not
+						// visible in the operations like a new local count.
+						//
+
+						val modifiedFrom = if(Int.MaxValue == bytecode.modifiedFrom) 0 else bytecode.modifiedFrom
+
+						modified = true
+
+						for(j <- 0 until dirty.length) {
+							dirty(j) = math.min(dirty(j), modifiedFrom)
+						}
+
+						if(!(result contains pass)) {
+							result = pass :: result
+						}
+					}
+				} else {
+					pass.skip()
+				}
+
+				i += 1
+			}
+
+			if(modified && counter > 0) {
+				counter -= 1
+			} else {
+				if(counter <= 0) {
+					log.warning("Too many optimisation for " + name)
+				}
+
+				done = true
+			}
+		}
+
+		result.reverse
+	}
+}
@@ -30,21 +30,25 @@ import java.io.{
 	ByteArrayInputStream => JByteArrayInputStream,
 	ByteArrayOutputStream => JByteArrayOutputStream,
 	InputStream => JInputStream,
-	OutputStream => JOutputStream
+	OutputStream => JOutputStream,
+	RandomAccessFile => JRandomAccessFile
 }
+import java.nio.channels.FileChannel.MapMode
 import java.util.zip.{Inflater => JInflater}
 import scala.annotation.tailrec
-import apparat.utils.{Dumpable, Deflate, IndentingPrintWriter}
+import apparat.utils.{Dumpable, Deflate, IndentingPrintWriter, IO}
 import apparat.lzma.LZMA
 
 object Swf {
-	def fromFile(file: JFile): Swf = {
+	def fromFile(file: JFile): Swf = fromFile(file, SwfTags.defaultTagFactory)
+
+	def fromFile(file: JFile, tagFactory: SwfTags.TagFactory): Swf = {
 		val name = file.getName.toLowerCase
 
 		if(name endsWith ".swc") {
-			fromSwc(Swc fromFile file)
+			fromSwc(Swc fromFile file, tagFactory)
 		} else if(name endsWith ".swf") {
-			val swf = new Swf
+			val swf = new Swf(tagFactory)
 			swf read file
 			swf
 		} else {
@@ -53,11 +57,11 @@ object Swf {
 					val b0 = input.read()
 
 					if(('F' == b0 || 'C' == b0) && 'W' == input.read() && 'S' == input.read()) {
-						val swf = new Swf
+						val swf = new Swf(tagFactory)
 						swf read file
 						swf
 					} else if ('P' == b0 && 'K' == input.read()) {
-						fromSwc(Swc fromFile file)
+						fromSwc(Swc fromFile file, tagFactory)
 					} else {
 						error("Unknown file "+file.getAbsolutePath+".")
 					}
@@ -68,20 +72,36 @@ object Swf {
 
 	def fromFile(pathname: String): Swf = fromFile(new JFile(pathname))
 
-	def fromSwc(swc: Swc) = {
-		val swf = new Swf
+	def fromFile(pathname: String, tagFactory: SwfTags.TagFactory): Swf = fromFile(new JFile(pathname), tagFactory)
+
+	def fromSwc(swc: Swc, tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) = {
+		val swf = new Swf(tagFactory)
 		swf read swc
 		swf
 	}
 
-	def fromInputStream(input: JInputStream, length: Long) = {
-		val swf = new Swf
+	/**
+	 * Reads a SWF by mapping the file into memory.
+	 *
+	 * @see Swf#map
+	 */
+	def fromMappedFile(file: JFile, tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) = {
+		val swf = new Swf(tagFactory)
+		swf map file
+		swf
+	}
+
+	def fromInputStream(input: JInputStream, length: Long, tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) = {
+		val swf = new Swf(tagFactory)
 		swf.read(input, length)
 		swf
 	}
 }
 
-final class Swf extends Dumpable with SwfTagMapping {
+/**
+ * @param tagFactory The factory for tags which are read by this SWF.
+ */
+final class Swf(val tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) extends Dumpable with SwfTagMapping {
 	var compressed: Boolean = true
 	var version: Int = 10
 	var frameSize: Rect = new Rect(0, 20000, 0, 20000)
@@ -89,6 +109,8 @@ final class Swf extends Dumpable with SwfTagMapping {
 	var frameCount: Int = 1
 	var tags: List[SwfTag] = Nil
 
+	private var mappedFile: Option[JFile] = None
+
 	def width = frameSize._2 / 20
 	def height = frameSize._4 / 20
 
@@ -98,9 +120,46 @@ final class Swf extends Dumpable with SwfTagMapping {
 
 	def read(pathname: String): Unit = read(new JFile(pathname))
 
-	def read(input: JInputStream, inputLength: Long): Unit = using(new SwfInputStream(input))(read(_, inputLength))
+	/**
+	 * Reads a SWF by mapping the file into memory. The bodies of unknown
+	 * tags are views of the mapping and are only copied when accessed.
+	 * Writing the SWF back to the same file copies them first and replaces
+	 * the file once it has been written completely. The mapping itself is
+	 * only released when it is collected, so Windows may still refuse to
+	 * replace the file; read it with <code>read</code> instead if it is
+	 * going to be overwritten.
+	 *
+	 * Compressed SWF files are inflated into the heap like before.
+	 */
+	def map(file: JFile): Unit = {
+		val buffer = using(new JRandomAccessFile(file, "r")) {
+			_.getChannel.map(MapMode.READ_ONLY, 0, file.length)
+		}
+
+		read(SwfInputStream(buffer, tagFactory), file.length)
+		mappedFile = if(compressed) None else Some(file.getCanonicalFile)
+	}
+
+	/**
+	 * Copies all tag bodies which are views of their input into the heap.
+	 */
+	def materialize(): Unit = {
+		tags foreach {
+			case genericTag: GenericTag => genericTag.materialize()
+			case _ =>
+		}
+		mappedFile = None
+	}
 
-	def read(data: Array[Byte]): Unit = using(new JByteArrayInputStream(data))(read(_, data.length))
+	/**
+	 * Whether or not writing to the given file would overwrite the file
+	 * backing this SWF.
+	 */
+	def isMappedTo(file: JFile) = mappedFile exists { _ == file.getCanonicalFile }
+
+	def read(input: JInputStream, inputLength: Long): Unit = using(new SwfInputStream(input, tagFactory))(read(_, inputLength))
+
+	def read(data: Array[Byte]): Unit = using(SwfInputStream(data, tagFactory))(read(_, data.length))
 
 	def read(swc: Swc): Unit = {
 		swc.library match {
@@ -110,6 +169,8 @@ final class Swf extends Dumpable with SwfTagMapping {
 	}
 
 	def read(input: SwfInputStream, inputLength: Long): Unit = {
+		mappedFile = None
+
 		(input.readUI08(), input.readUI08(), input.readUI08()) match {
 			case (x, 'W', 'S') => compressed = x match {
 				case 'C' => true
@@ -161,7 +222,14 @@ final class Swf extends Dumpable with SwfTagMapping {
 		loop(input.readTAG(), List.empty).reverse
 	}
 
-	def write(file: JFile): Unit = using(new JFileOutputStream(file))(write _)
+	def write(file: JFile): Unit = {
+		if(isMappedTo(file)) {
+			materialize()
+			IO.replace(file)(write _)
+		} else {
+			using(new JFileOutputStream(file))(write _)
+		}
+	}
 
 	def write(pathname: String): Unit = write(new JFile(pathname))
 
@@ -183,63 +251,108 @@ final class Swf extends Dumpable with SwfTagMapping {
 	}
 
 	def write(output: SwfOutputStream): Unit = {
-		val byteArrayOutputStream = new JByteArrayOutputStream(0x08 + (tags.length << 0x03))
-		val buffer = new SwfOutputStream(byteArrayOutputStream)
-
-		try {
+		//
+		// The uncompressed length has to be written before the body. Only
+		// tags of unknown length are serialized up front. All other tags are
+		// written straight into the (deflating) output.
+		//
+
+		val header = {
+			val byteArrayOutputStream = new JByteArrayOutputStream(0x10)
+			val buffer = new SwfOutputStream(byteArrayOutputStream)
 			buffer.writeRECT(frameSize)
 			buffer.writeFIXED8(frameRate)
 			buffer.writeUI16(frameCount)
 			buffer.flush()
+			byteArrayOutputStream.toByteArray
+		}
 
-			tags foreach { buffer writeTAG _ }
-			buffer.flush()
-
-			val bytes = byteArrayOutputStream.toByteArray
+		val bodies = tags map {
+			case knownLength: KnownLengthTag => None
+			case other => Some(SwfOutputStream bodyOf other)
+		}
 
-			buffer.close()
+		val length = (tags zip bodies).foldLeft(8L + header.length) {
+			(sum, tagAndBody) => tagAndBody match {
+				case (tag, Some(body)) => sum + SwfOutputStream.lengthOf(tag.kind, body.length)
+				case (tag: KnownLengthTag, None) => sum + SwfOutputStream.lengthOf(tag.kind, tag.length)
+				case _ => error("Internal error.")
+			}
+		}
 
-			output.write(Array[Byte](if (compressed) 'C' else 'F', 'W', 'S'))
-			output.writeUI08(version)
-			output.writeUI32(8 + bytes.length)
+		def writeBody(body: SwfOutputStream) = {
+			body write header
 
-			if (compressed) {
-				Deflate.compress(bytes, output)
-			} else {
-				output write bytes
+			for((tag, tagBody) <- tags zip bodies) {
+				tagBody match {
+					case Some(bytes) => {
+						body.writeRECORDHEADER(new Recordheader(tag.kind, bytes.length))
+						body write bytes
+					}
+					case None => body writeTAG tag
+				}
 			}
 
+			body.flush()
+		}
+
+		output.write(Array[Byte](if (compressed) 'C' else 'F', 'W', 'S'))
+		output.writeUI08(version)
+		output.writeUI32(length)
+
+		if (compressed) {
 			output.flush()
-		} finally {
-			if (null != buffer) {
-				try {
-					buffer.close()
-				} catch {
-					case _ =>
-				}
-			}
+			Deflate.compress(output) { deflaterOutput => writeBody(new SwfOutputStream(deflaterOutput)) }
+		} else {
+			writeBody(output)
 		}
+
+		output.flush()
 	}
 
+	/**
+	 * Returns a SwfInputStream for the compressed body of a SWF. The input
+	 * is inflated in chunks so only the uncompressed body is kept in memory.
+	 *
+	 * @param inputLength The length of the SWF file; it is only used for validation.
+	 * @param uncompressedLength The uncompressed length from the SWF header.
+	 */
 	def uncompress(inputLength: Long, uncompressedLength: Long)(implicit input: JInputStream) = {
-		val totalBytes = (inputLength - 8).asInstanceOf[Int]//magic 8 is static part of header length
 		val inflater = new JInflater()
-		val bufferIn = new Array[Byte](totalBytes)
-		val bufferOut = new Array[Byte]((uncompressedLength - 8).asInstanceOf[Int])
+		val bufferIn = new Array[Byte](0x8000)
+		val bufferOut = new Array[Byte]((uncompressedLength - 8).asInstanceOf[Int])//magic 8 is static part of header length
+		var offset = 0
+
+		assert(inputLength > 8)
+
+		try {
+			while (offset < bufferOut.length && !inflater.finished()) {
+				if (inflater.needsInput) {
+					val bytesRead = input read bufferIn
 
-		readBytes(totalBytes, bufferIn)
+					if (bytesRead < 0) {
+						error("Need more input.")
+					}
+
+					inflater.setInput(bufferIn, 0, bytesRead)
+				}
 
-		inflater setInput (bufferIn)
+				val bytesInflated = inflater.inflate(bufferOut, offset, bufferOut.length - offset)
 
-		var offset = -1
-		while (0 != offset && !inflater.finished()) {
-			offset = inflater inflate bufferOut
-			if (0 == offset && inflater.needsInput) {
-				error("Need more input.")
+				if (0 == bytesInflated && inflater.needsDictionary) {
+					error("Preset dictionaries are not supported.")
+				}
+
+				offset += bytesInflated
 			}
+		} finally {
+			inflater.end()
 		}
 
-		new SwfInputStream(new JByteArrayInputStream(bufferOut))
+		SwfInputStream(bufferOut, input match {
+			case swfInput: SwfInputStream => swfInput.tagFactory
+			case _ => tagFactory
+		})
 	}
 
 	def toByteArray = {
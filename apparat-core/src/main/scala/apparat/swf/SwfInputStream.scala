@@ -21,16 +21,37 @@
 package apparat.swf
 
 import java.io.{InputStream => JInputStream}
-import scala.annotation.tailrec
+import java.nio.{ByteBuffer => JByteBuffer, ByteOrder => JByteOrder}
+import apparat.utils.IO
 
-class SwfInputStream(val input: JInputStream) extends JInputStream {
+object SwfInputStream {
+	/**
+	 * Creates a SwfInputStream reading directly from a ByteBuffer. The
+	 * buffer may be a heap, direct or memory-mapped buffer. Reading starts
+	 * at the current position of the buffer.
+	 */
+	def apply(buffer: JByteBuffer): SwfInputStream = apply(buffer, SwfTags.defaultTagFactory)
+
+	def apply(buffer: JByteBuffer, tagFactory: SwfTags.TagFactory): SwfInputStream = new SwfBufferInputStream(buffer, tagFactory)
+
+	def apply(bytes: Array[Byte]): SwfInputStream = apply(JByteBuffer wrap bytes)
+
+	def apply(bytes: Array[Byte], tagFactory: SwfTags.TagFactory): SwfInputStream = apply(JByteBuffer wrap bytes, tagFactory)
+}
+
+class SwfInputStream(val input: JInputStream, val tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) extends JInputStream {
 	private var bitBuffer: Int = 0
 	private var bitIndex: Int = 0
+	private var stringBuffer = new Array[Byte](0x20)
 
 	@inline private def aligned[@specialized A](body: => A): A = {
+		align()
+		body
+	}
+
+	@inline protected final def align(): Unit = {
 		bitBuffer = 0
 		bitIndex = 0
-		body
 	}
 
 	@inline private def signed(mask: Int, r: Int) = {
@@ -43,29 +64,6 @@ class SwfInputStream(val input: JInputStream) extends JInputStream {
 		else r.asInstanceOf[Int]
 	}
 
-	private def readBits() = {
-		bitBuffer = read()
-		bitIndex = 8
-	}
-
-	private def isBitTrue() = {
-		if (0 == bitIndex) readBits()
-		0 != (bitBuffer & (1 << (bitIndex - 1)))
-	}
-
-	private def bitAt(index: Int) = isBitTrue match {
-		case true => {
-			nextBit()
-			1 << index
-		}
-		case false => {
-			nextBit()
-			0
-		}
-	}
-
-	private def nextBit() = bitIndex = bitIndex - 1
-
 	def readFIXED() = {
 		val a = readUI16() / 65535.0f
 		readUI16() + a
@@ -88,25 +86,55 @@ class SwfInputStream(val input: JInputStream) extends JInputStream {
 
 	def readRGB() = new RGB(readUI08(), readUI08(), readUI08())
 
-	def readSTRING(): String = {
-		@tailrec def loop(seq: List[Byte]): List[Byte] = readUI08() match {
-			case 0 => seq
-			case y => loop(y.asInstanceOf[Byte] :: seq)
+	def readSTRING(): String = aligned {
+		var buffer = stringBuffer
+		var length = 0
+		var value = read()
+
+		while(value > 0) {
+			if(length == buffer.length) {
+				val newBuffer = new Array[Byte](length << 1)
+				System.arraycopy(buffer, 0, newBuffer, 0, length)
+				buffer = newBuffer
+				stringBuffer = newBuffer
+			}
+
+			buffer(length) = value.asInstanceOf[Byte]
+			length += 1
+			value = read()
 		}
 
-		new String(loop(Nil).reverse.toArray, "UTF8")
+		new String(buffer, 0, length, "UTF8")
 	}
 
 	def readTAG(): SwfTag = {
 		val h = readRECORDHEADER()
-		val t = SwfTags create h.kind
+		val t = tagFactory(h.kind) getOrElse new GenericTag(h.kind)
 		t.read(h)(this)
 		t
 	}
 
-	//List.tabulate(n) { i => bitAt(n - 1 - i) } reduceLeft { _ | _ }
-	//or: while(n > -1) { result |= bitAt(n); n -= 1 }
-	def readUB(n: Int) = ((n - 1) to 0 by -1) map bitAt reduceLeft (_ | _)
+	def readUB(n: Int): Int = {
+		var result = 0
+		var i = n - 1
+
+		while(i >= 0) {
+			if(0 == bitIndex) {
+				bitBuffer = read()
+				bitIndex = 8
+			}
+
+			bitIndex -= 1
+
+			if(0 != (bitBuffer & (1 << bitIndex))) {
+				result |= 1 << i
+			}
+
+			i -= 1
+		}
+
+		result
+	}
 
 	def readUI08() = aligned { read() }
 
@@ -122,7 +150,7 @@ class SwfInputStream(val input: JInputStream) extends JInputStream {
 
 	def readUI32(): Long = aligned {
 		val b0 = readUI24()
-		(read() << 0x18) | b0
+		(read().asInstanceOf[Long] << 0x18) | b0
 	}
 
 	def readUI64(): BigInt = aligned {
@@ -141,6 +169,17 @@ class SwfInputStream(val input: JInputStream) extends JInputStream {
 
 	def readSI32() = signed(0x80000000L, readUI32())
 
+	/**
+	 * Reads the next <code>length</code> bytes into a new array.
+	 */
+	def readBytes(length: Int): Array[Byte] = aligned { IO.read(length)(this) }
+
+	/**
+	 * Returns a view of the next <code>length</code> bytes and skips them.
+	 * Stream based implementations have to copy the bytes.
+	 */
+	def slice(length: Int): JByteBuffer = JByteBuffer wrap readBytes(length)
+
 	override def available() = input.available
 
 	override def close() = input.close()
@@ -155,3 +194,67 @@ class SwfInputStream(val input: JInputStream) extends JInputStream {
 
 	override def skip(n: Long) = input skip n
 }
+
+/**
+ * A SwfInputStream reading from a ByteBuffer. Multi-byte values are read
+ * with a single access to the buffer and slices share the memory of the
+ * underlying buffer.
+ */
+final class SwfBufferInputStream(source: JByteBuffer, tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) extends SwfInputStream(null, tagFactory) {
+	private val buffer = source.slice().order(JByteOrder.LITTLE_ENDIAN)
+
+	def position = buffer.position()
+
+	override def readUI16() = {
+		align()
+		buffer.getShort() & 0xffff
+	}
+
+	override def readUI32(): Long = {
+		align()
+		buffer.getInt() & 0xffffffffL
+	}
+
+	override def readBytes(length: Int): Array[Byte] = {
+		align()
+		val result = new Array[Byte](length)
+		buffer get result
+		result
+	}
+
+	override def slice(length: Int): JByteBuffer = {
+		align()
+		val result = buffer.slice()
+		result limit length
+		buffer position (buffer.position() + length)
+		result
+	}
+
+	override def available() = buffer.remaining
+
+	override def close() = {}
+
+	override def read() = if(buffer.hasRemaining) buffer.get() & 0xff else -1
+
+	override def read(b: Array[Byte]) = read(b, 0, b.length)
+
+	override def read(b: Array[Byte], off: Int, len: Int) = {
+		if(0 == len) {
+			0
+		} else if(!buffer.hasRemaining) {
+			-1
+		} else {
+			val n = math.min(len, buffer.remaining)
+			buffer.get(b, off, n)
+			n
+		}
+	}
+
+	override def reset() = throw new java.io.IOException("Reset not supported.")
+
+	override def skip(n: Long): Long = {
+		val k = math.min(n, buffer.remaining.asInstanceOf[Long]).asInstanceOf[Int]
+		buffer position (buffer.position() + k)
+		k
+	}
+}
@@ -24,9 +24,37 @@ import java.io.{
 OutputStream => JOutputStream,
 ByteArrayOutputStream => JByteArrayOutputStream
 }
+import java.nio.{ByteBuffer => JByteBuffer}
 
 import scala.math.{max, min}
 
+object SwfOutputStream {
+	/**
+	 * Serializes the body of a tag without its record header.
+	 */
+	def bodyOf(tag: SwfTag): Array[Byte] = {
+		val byteArrayOutputStream = new JByteArrayOutputStream()
+		val buffer = new SwfOutputStream(byteArrayOutputStream)
+
+		try {
+			tag write buffer
+			buffer.flush()
+			byteArrayOutputStream.toByteArray
+		} finally {
+			try {
+				buffer.close()
+			} catch {
+				case _ =>
+			}
+		}
+	}
+
+	/**
+	 * The number of bytes a tag occupies including its record header.
+	 */
+	def lengthOf(kind: Int, length: Int) = (if(length >= 0x3f || SwfTags.isLongTag(kind)) 6 else 2) + length
+}
+
 class SwfOutputStream(val output: JOutputStream) extends JOutputStream {
 	private var bitBuffer: Int = 0
 	private var bitIndex: Int = 0
@@ -109,25 +137,9 @@ class SwfOutputStream(val output: JOutputStream) extends JOutputStream {
 				value write this
 			}
 			case _ => {
-				val byteArrayOutputStream = new JByteArrayOutputStream()
-				val buffer = new SwfOutputStream(byteArrayOutputStream)
-
-				try {
-					value write buffer
-					buffer.flush()
-
-					val bytes = byteArrayOutputStream.toByteArray;
-					buffer.close()
-
-					writeRECORDHEADER(new Recordheader(value.kind, bytes.length))
-					write(bytes)
-				} finally {
-					try {
-						buffer.close()
-					} catch {
-						case _ =>
-					}
-				}
+				val bytes = SwfOutputStream bodyOf value
+				writeRECORDHEADER(new Recordheader(value.kind, bytes.length))
+				write(bytes)
 			}
 		}
 	}
@@ -183,6 +195,24 @@ class SwfOutputStream(val output: JOutputStream) extends JOutputStream {
 
 	def writeUI64(value: BigInt): Unit = aligned { write(value.toByteArray.reverse) }
 
+	/**
+	 * Writes the remaining bytes of a buffer without changing its position.
+	 */
+	def write(value: JByteBuffer): Unit = aligned {
+		if(value.hasArray) {
+			output.write(value.array, value.arrayOffset + value.position(), value.remaining)
+		} else {
+			val source = value.duplicate()
+			val buffer = new Array[Byte](min(0x2000, source.remaining))
+
+			while(source.hasRemaining) {
+				val n = min(buffer.length, source.remaining)
+				source.get(buffer, 0, n)
+				output.write(buffer, 0, n)
+			}
+		}
+	}
+
 	override def close() = {
 		flush()
 		output.close()
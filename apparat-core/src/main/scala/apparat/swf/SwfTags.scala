@@ -21,6 +21,9 @@
 package apparat.swf
 
 import apparat.utils._
+import java.io.{ByteArrayInputStream => JByteArrayInputStream}
+import java.nio.{ByteBuffer => JByteBuffer}
+import java.util.{Arrays => JArrays}
 
 object SwfTags {
 	val End = 0
@@ -162,7 +165,14 @@ object SwfTags {
 		case _ => "(Unknown " + kind + ")"
 	}
 
-	val defaultTagFactory = (kind: Int) => kind match {
+	/**
+	 * Creates the tag for a kind or returns <code>None</code> to keep the
+	 * tag as a GenericTag. Readers take the factory as a parameter so
+	 * concurrent tools may parse different sets of tags.
+	 */
+	type TagFactory = Int => Option[SwfTag]
+
+	val defaultTagFactory: TagFactory = (kind: Int) => kind match {
 		case FileAttributes => Some(new FileAttributes)
 		case Metadata => Some(new Metadata)
 		case ScriptLimits => Some(new ScriptLimits)
@@ -182,10 +192,6 @@ object SwfTags {
 		case _ => None
 	}
 
-	var tagFactory: (Int => Option[SwfTag]) = defaultTagFactory
-
-	protected[swf] def create(kind: Int): SwfTag = tagFactory(kind) getOrElse new GenericTag(kind)
-
 	def isLongTag(kind: Int) = kind match {
 		case
 		  DefineBits
@@ -233,21 +239,53 @@ abstract class SwfTag(val kind: Int) {
 	def map[T](f: this.type => T) = f(this)
 }
 
+/**
+ * A tag which is not parsed. The body is kept as a view of the input and
+ * only copied into an array when <code>data</code> is accessed. When the
+ * input is a memory-mapped file no copy is made until then.
+ */
 class GenericTag(override val kind: Int) extends SwfTag(kind) with KnownLengthTag {
-	private var data: Option[Array[Byte]] = None
+	private var body: Option[JByteBuffer] = None
 	private var header: Option[Recordheader] = None
 
-	override def length = data match {
-		case Some(x) => x.length
+	override def length = body match {
+		case Some(x) => x.remaining
 		case None => 0
 	}
 
+	def data: Array[Byte] = body match {
+		case Some(x) if x.hasArray && 0 == x.arrayOffset && 0 == x.position() && x.array.length == x.remaining => x.array
+		case Some(x) => {
+			val result = new Array[Byte](x.remaining)
+			x.duplicate() get result
+			body = Some(JByteBuffer wrap result)
+			result
+		}
+		case None => new Array[Byte](0)
+	}
+
+	def data_=(value: Array[Byte]) = body = Some(JByteBuffer wrap value)
+
+	/**
+	 * Whether or not the body of this tag is a view of its input.
+	 */
+	def isLazy = body match {
+		case Some(x) => x.isDirect || !(x.hasArray && x.array.length == x.remaining)
+		case None => false
+	}
+
+	/**
+	 * Copies the body of this tag into the heap so it no longer depends
+	 * on its input.
+	 */
+	def materialize(): Unit = if(isLazy) data
+
 	override def read(header: Recordheader)(implicit input: SwfInputStream) = {
 		this.header = Some(header)
-		data = Some(IO read header.length)
+		body = Some(input slice header.length)
 	}
 
-	override def write(implicit output: SwfOutputStream) = data match {
+	override def write(implicit output: SwfOutputStream) = body match {
 		case Some(x) => output write x
 		case None =>
 	}
@@ -424,25 +462,55 @@ class SymbolClass extends SwfTag(SwfTags.SymbolClass) {
 	}
 }
 
-class DoABC extends SwfTag(SwfTags.DoABC) {
+class DoABC extends SwfTag(SwfTags.DoABC) with KnownLengthTag {
 	var flags = 0L
 	var name = ""
-	var abcData = new Array[Byte](0)
+
+	//
+	// The ABC may occupy only a prefix of its buffer when it has been
+	// written by Abc so it is not copied again before the SWF is written.
+	//
+
+	private var data = new Array[Byte](0)
+	private var dataLength = 0
+
+	override def length = 5 + name.getBytes("UTF8").length + dataLength
+
+	def abcData = {
+		if(data.length != dataLength) {
+			data = JArrays.copyOf(data, dataLength)
+		}
+
+		data
+	}
+
+	def abcData_=(value: Array[Byte]) = setAbcData(value, value.length)
+
+	/**
+	 * Uses the first <code>length</code> bytes of <code>value</code> as
+	 * the ABC without copying them.
+	 */
+	def setAbcData(value: Array[Byte], length: Int) = {
+		data = value
+		dataLength = length
+	}
+
+	def abcInputStream = new JByteArrayInputStream(data, 0, dataLength)
 
 	override def read(header: Recordheader)(implicit input: SwfInputStream) = {
 		if (header.kind == SwfTags.DoABC1) {
-			abcData = IO read (header.length)
+			abcData = input readBytes (header.length)
 		} else {
 			flags = input readUI32 ()
 			name = input readSTRING ()
-			abcData = IO read (header.length - name.length - 5)
+			abcData = input readBytes (header.length - name.length - 5)
 		}
 	}
 
 	override def write(implicit output: SwfOutputStream) = {
 		output writeUI32 flags
 		output writeSTRING name
-		output write abcData
+		output write (data, 0, dataLength)
 	}
 
 	override def toString = {
@@ -461,7 +529,7 @@ class DefineBitsJPEG2 extends SwfTag(SwfTags.DefineBitsJPEG2) with KnownLengthTa
 
 	override def read(header: Recordheader)(implicit input: SwfInputStream) = {
 		super.read(header)
-		imageData = IO read (header.length - 2)
+		imageData = input readBytes (header.length - 2)
 	}
 
 	override def write(implicit output: SwfOutputStream) = {
@@ -482,8 +550,8 @@ class DefineBitsJPEG3 extends SwfTag(SwfTags.DefineBitsJPEG3) with KnownLengthTa
 		super.read(header)
 		val imageLength = input.readUI32().asInstanceOf[Int]
 		val alphaLength = header.length - imageLength - 6
-		imageData = IO read imageLength
-		alphaData = IO read alphaLength
+		imageData = input readBytes imageLength
+		alphaData = input readBytes alphaLength
 	}
 
 	override def write(implicit output: SwfOutputStream) = {
@@ -508,8 +576,8 @@ class DefineBitsJPEG4 extends SwfTag(SwfTags.DefineBitsJPEG4) with KnownLengthTa
 		val imageLength = input.readUI32().asInstanceOf[Int]
 		val alphaLength = header.length - imageLength - 8
 		deblock = input.readFIXED8()
-		imageData = IO read imageLength
-		alphaData = IO read alphaLength
+		imageData = input readBytes imageLength
+		alphaData = input readBytes alphaLength
 	}
 
 	override def write(implicit output: SwfOutputStream) = {
@@ -539,7 +607,7 @@ class DefineBitsLossless2 extends SwfTag(SwfTags.DefineBitsLossless2) with Known
 		bitmapWidth = input.readUI16()
 		bitmapHeight = input.readUI16()
 
-		zlibBitmapData = IO read (bitmapFormat match {
+		zlibBitmapData = input readBytes (bitmapFormat match {
 			case 3 => {bitmapColorTableSize = input.readUI08(); header.length - 8}
 			case _ => header.length - 7
 		})
@@ -566,7 +634,7 @@ class DefineBinaryData extends SwfTag(SwfTags.DefineBinaryData) with KnownLength
 		super.read(header)
 
 		input.readUI32()
-		data = IO.read(header.length - 6)
+		data = input.readBytes(header.length - 6)
 	}
 
 	override def write(implicit output: SwfOutputStream) = {
@@ -55,7 +55,7 @@ object ASMifier {
 		}
 
 		override def run() = {
-			SwfTags.tagFactory = (kind: Int) => kind match {
+			val tagFactory: SwfTags.TagFactory = (kind: Int) => kind match {
 				case SwfTags.DoABC => Some(new DoABC)
 				case SwfTags.DoABC1 => Some(new DoABC)
 				case _ => None
@@ -64,7 +64,7 @@ object ASMifier {
 			if(input.getName.toLowerCase endsWith ".abc") {
 				exportAbcs((Abc fromFile input) :: Nil)
 			} else {
-				val cont = TagContainer fromFile input
+				val cont = TagContainer fromFile (input, tagFactory)
 				exportAbcs(
 					(for{
 						tag <- cont.tags
@@ -59,7 +59,7 @@ object Concrete {
 				}
 			}
 
-			SwfTags.tagFactory = (kind: Int) => kind match {
+			val tagFactory: SwfTags.TagFactory = (kind: Int) => kind match {
 				case SwfTags.DoABC => Some(new DoABC)
 				case SwfTags.DoABC1 => Some(new DoABC)
 				case _ => None
@@ -67,7 +67,7 @@ object Concrete {
 
 			abcs = libraries flatMap {
 				library => {
-					(TagContainer fromFile library).tags collect { case x: DoABC => x } map { Abc fromDoABC _ }
+					(TagContainer fromFile (library, tagFactory)).tags collect { case x: DoABC => x } map { Abc fromDoABC _ }
 				}
 			}
 
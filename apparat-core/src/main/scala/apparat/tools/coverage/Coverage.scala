@@ -63,13 +63,13 @@ object Coverage {
 		}
 
 		override def run() = {
-			SwfTags.tagFactory = (kind: Int) => kind match {
+			val tagFactory: SwfTags.TagFactory = (kind: Int) => kind match {
 				case SwfTags.DoABC => Some(new DoABC)
 				case SwfTags.DoABC1 => Some(new DoABC)
 				case _ => None
 			}
 
-			val cont = TagContainer fromFile input
+			val cont = TagContainer fromFile (input, tagFactory)
 			cont foreachTagSync coverage
 			cont write output
 		}
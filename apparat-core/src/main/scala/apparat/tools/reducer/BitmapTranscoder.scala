@@ -0,0 +1,323 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.tools.reducer
+
+import apparat.actors.Actor
+import apparat.log.SimpleLog
+import apparat.swf._
+import collection.mutable.HashMap
+import java.awt.image.{BufferedImage => JBufferedImage, DataBufferInt => JDataBufferInt}
+import java.io.{ByteArrayOutputStream => JByteArrayOutputStream}
+import java.util.concurrent.{Callable => JCallable, ExecutionException => JExecutionException, Executors => JExecutors, ThreadFactory => JThreadFactory}
+import java.util.concurrent.atomic.{AtomicInteger => JAtomicInteger}
+import java.util.zip.{Deflater => JDeflater, Inflater => JInflater}
+
+object BitmapTranscoder {
+	/**
+	 * Whether or not <code>tag</code> is an ARGB bitmap worth converting.
+	 */
+	def isCandidate(tag: DefineBitsLossless2) = 5 == tag.bitmapFormat && (tag.bitmapWidth * tag.bitmapHeight) > 1024
+}
+
+/**
+ * Replaces <code>DefineBitsLossless2</code> tags by JPEG tags if that makes
+ * them smaller.
+ *
+ * The bitmaps are shared by a fixed number of workers. Each worker has its
+ * own inflater, deflater, encoder and buffers which it reuses for every
+ * bitmap it takes.
+ *
+ * Every bitmap is encoded with <code>quality</code> unless a target PSNR
+ * or a budget is given. In that case the quality of each bitmap is searched
+ * in steps of 0.01 up to <code>quality</code>. The search picks the lowest
+ * quality which reaches <code>psnr</code> and lowers it further until the
+ * JPEG data fits into <code>budget</code> bytes.
+ *
+ * @param psnr The minimum PSNR in dB or 0 for no target.
+ * @param budget The maximum number of JPEG bytes per bitmap or 0 for no budget.
+ */
+class BitmapTranscoder(quality: Float, deblock: Float, psnr: Float, budget: Int, encoderFactory: () => JPEGEncoder, numThreads: Int) extends SimpleLog {
+	def this(quality: Float, deblock: Float, psnr: Float, budget: Int, encoderFactory: () => JPEGEncoder) = this(quality, deblock,
+		psnr, budget, encoderFactory, if(Actor.threadsEnabled) Runtime.getRuntime.availableProcessors else 1)
+
+	def this(quality: Float, deblock: Float, encoderFactory: () => JPEGEncoder) = this(quality, deblock, 0.0f, 0, encoderFactory)
+
+	private val searchQuality = psnr > 0.0f || budget > 0
+
+	def apply(tags: List[SwfTag]): List[SwfTag] = {
+		val result = tags.toArray
+		val candidates = result.indices filter {
+			result(_) match {
+				case tag: DefineBitsLossless2 => BitmapTranscoder isCandidate tag
+				case _ => false
+			}
+		}
+
+		if(candidates.isEmpty) {
+			tags
+		} else {
+			val next = new JAtomicInteger(0)
+
+			def work(): Unit = {
+				val worker = new Worker()
+
+				try {
+					var i = next.getAndIncrement()
+
+					while(i < candidates.length) {
+						val index = candidates(i)
+						result(index) = worker transcode result(index).asInstanceOf[DefineBitsLossless2]
+						i = next.getAndIncrement()
+					}
+				} finally {
+					worker.dispose()
+				}
+			}
+
+			val numWorkers = math.max(1, math.min(numThreads, candidates.length))
+
+			if(1 == numWorkers) {
+				work()
+			} else {
+				val executor = JExecutors.newFixedThreadPool(numWorkers, new JThreadFactory {
+					private val threadId = new JAtomicInteger(0)
+
+					override def newThread(runnable: Runnable) = {
+						val thread = new Thread(runnable, "apparat-bitmap-" + threadId.incrementAndGet())
+						thread setDaemon true
+						thread
+					}
+				})
+
+				try {
+					val tasks = for(i <- 0 until numWorkers) yield executor submit new JCallable[Unit] {
+						override def call() = work()
+					}
+
+					try {
+						tasks foreach { _.get() }
+					} catch {
+						case executionException: JExecutionException => throw executionException.getCause
+					}
+				} finally {
+					executor.shutdownNow()
+				}
+			}
+
+			result.toList
+		}
+	}
+
+	private final class Candidate(val quality: Float, val data: Array[Byte]) {
+		var psnr = Double.NaN
+	}
+
+	private final class Worker {
+		private val inflater = new JInflater()
+		private val deflater = new JDeflater(JDeflater.BEST_COMPRESSION)
+		private val encoder = encoderFactory()
+		private val compressBuffer = new Array[Byte](0x400)
+		private val alphaOutput = new JByteArrayOutputStream()
+		private var lossless = new Array[Byte](0)
+		private var alphaData = new Array[Byte](0)
+
+		def transcode(tag: DefineBitsLossless2): SwfTag = {
+			val width = tag.bitmapWidth
+			val height = tag.bitmapHeight
+			val numPixels = width * height
+
+			if(lossless.length < (numPixels << 2)) {
+				lossless = new Array[Byte](numPixels << 2)
+				alphaData = new Array[Byte](numPixels)
+			}
+
+			inflate(tag.zlibBitmapData, numPixels << 2)
+
+			// fill the raster and the alpha data
+
+			val image = new JBufferedImage(width, height, JBufferedImage.TYPE_INT_ARGB)
+			val pixels = image.getRaster.getDataBuffer.asInstanceOf[JDataBufferInt].getData
+			var needsAlpha = false
+			var i = 0
+
+			while(i < numPixels) {
+				val index = i << 2
+				val alpha = lossless(index)
+
+				if(-1 != alpha) {
+					needsAlpha = true
+				}
+
+				// the colors are premultiplied but the alpha channel is kept separately anyway
+
+				alphaData(i) = alpha
+				pixels(i) = 0xff000000 | ((lossless(index + 1) & 0xff) << 0x10) |
+					((lossless(index + 2) & 0xff) << 0x08) | (lossless(index + 3) & 0xff)
+				i += 1
+			}
+
+			val candidate = if(searchQuality) {
+				search(image, pixels)
+			} else {
+				new Candidate(quality, encoder encode (image, quality))
+			}
+			val imageData = candidate.data
+
+			// create tag
+
+			val newTag: SwfTag with KnownLengthTag with DefineTag = if(needsAlpha) {
+				if(0.0f == deblock) {
+					val dbj3 = new DefineBitsJPEG3()
+					dbj3.alphaData = deflateAlpha(numPixels)
+					dbj3.imageData = imageData
+					dbj3
+				} else {
+					val dbj4 = new DefineBitsJPEG4()
+					dbj4.alphaData = deflateAlpha(numPixels)
+					dbj4.imageData = imageData
+					dbj4.deblock = deblock
+					dbj4
+				}
+			} else {
+				val dbj2 = new DefineBitsJPEG2()
+				dbj2.imageData = imageData
+				dbj2
+			}
+
+			if(newTag.length < tag.length) {
+				if(searchQuality) {
+					log.info("Compressed character %d with quality %.2f (%.2f dB), %d bytes saved.",
+						tag.characterID, candidate.quality, candidate.psnr, tag.length - newTag.length)
+				} else {
+					log.info("Compressed character %d.", tag.characterID)
+				}
+
+				newTag.characterID = tag.characterID
+				newTag
+			} else {
+				tag
+			}
+		}
+
+		def dispose() = {
+			inflater.end()
+			deflater.end()
+			encoder.dispose()
+		}
+
+		/**
+		 * Binary searches the quality. The size and PSNR of a JPEG are
+		 * expected to grow with its quality.
+		 */
+		private def search(image: JBufferedImage, pixels: Array[Int]) = {
+			val candidates = HashMap.empty[Int, Candidate]
+
+			def candidateAt(step: Int) = candidates.getOrElseUpdate(step, {
+				val quality = step / 100.0f
+				new Candidate(quality, encoder encode (image, quality))
+			})
+
+			def psnrAt(step: Int) = {
+				val candidate = candidateAt(step)
+
+				if(candidate.psnr.isNaN) {
+					candidate.psnr = psnrOf(pixels, encoder decode candidate.data)
+				}
+
+				candidate.psnr
+			}
+
+			var low = 0
+			var high = math.round(quality * 100.0f)
+
+			if(psnr > 0.0f) {
+				while(low < high) {
+					val step = (low + high) >>> 1
+					if(psnrAt(step) >= psnr) high = step else low = step + 1
+				}
+			}
+
+			if(budget > 0) {
+				low = 0
+
+				while(low < high) {
+					val step = (low + high + 1) >>> 1
+					if(candidateAt(step).data.length <= budget) low = step else high = step - 1
+				}
+			}
+
+			psnrAt(high)
+			candidateAt(high)
+		}
+
+		private def psnrOf(pixels: Array[Int], decoded: Array[Int]) = {
+			var sum = 0L
+			var i = 0
+
+			while(i < pixels.length) {
+				val a = pixels(i)
+				val b = decoded(i)
+				val red = ((a >> 0x10) & 0xff) - ((b >> 0x10) & 0xff)
+				val green = ((a >> 0x08) & 0xff) - ((b >> 0x08) & 0xff)
+				val blue = (a & 0xff) - (b & 0xff)
+
+				sum += red * red + green * green + blue * blue
+				i += 1
+			}
+
+			if(0L == sum) {
+				Double.PositiveInfinity
+			} else {
+				10.0 * math.log10(255.0 * 255.0 * 3.0 * pixels.length / sum)
+			}
+		}
+
+		private def inflate(data: Array[Byte], length: Int) = {
+			var offset = 0
+
+			inflater.reset()
+			inflater setInput data
+
+			while(offset < length && !inflater.finished) {
+				val numBytesInflated = inflater inflate (lossless, offset, length - offset)
+
+				if(0 == numBytesInflated && (inflater.needsInput || inflater.needsDictionary)) {
+					error("Need more input.")
+				}
+
+				offset += numBytesInflated
+			}
+		}
+
+		private def deflateAlpha(numPixels: Int) = {
+			deflater.reset()
+			deflater setInput (alphaData, 0, numPixels)
+			deflater.finish()
+			alphaOutput.reset()
+
+			while(!deflater.finished) {
+				alphaOutput write (compressBuffer, 0, deflater deflate compressBuffer)
+			}
+
+			alphaOutput.toByteArray
+		}
+	}
+}
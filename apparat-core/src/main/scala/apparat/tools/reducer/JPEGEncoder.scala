@@ -0,0 +1,131 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.tools.reducer
+
+import java.awt.image.{BufferedImage => JBufferedImage}
+import java.io.{ByteArrayInputStream => JByteArrayInputStream, ByteArrayOutputStream => JByteArrayOutputStream}
+import javax.imageio.{IIOImage => JIIOImage, ImageIO => JImageIO, ImageReader => JImageReader, ImageWriteParam => JImageWriteParam}
+import javax.imageio.stream.{MemoryCacheImageInputStream => JMemoryCacheImageInputStream, MemoryCacheImageOutputStream => JMemoryCacheImageOutputStream}
+
+/**
+ * Encodes images for the Reducer. An encoder is used by one thread at a
+ * time and may keep its state from one image to the next.
+ */
+trait JPEGEncoder {
+	/**
+	 * Returns the JPEG data of the RGB channels of <code>image</code>.
+	 *
+	 * @param image The image to encode.
+	 * @param quality The quality from 0.0 to 1.0.
+	 */
+	def encode(image: JBufferedImage, quality: Float): Array[Byte]
+
+	/**
+	 * Returns the RGB pixels of <code>data</code> row by row. This is used
+	 * to measure the error of an encoded image.
+	 */
+	def decode(data: Array[Byte]): Array[Int] = {
+		val image = JImageIO read new JByteArrayInputStream(data)
+		image getRGB (0, 0, image.getWidth, image.getHeight, null, 0, image.getWidth)
+	}
+
+	def dispose(): Unit = {}
+}
+
+object JPEGEncoder {
+	/**
+	 * The factory for the encoder class named by the
+	 * <code>apparat.reducer.jpegEncoder</code> property. The class needs
+	 * a public constructor without parameters. Encoders based on ImageIO
+	 * are created if the property is not set.
+	 */
+	def factory: () => JPEGEncoder = System.getProperty("apparat.reducer.jpegEncoder", "") match {
+		case "" => () => new ImageIOJPEGEncoder()
+		case className => {
+			val encoderClass = Class forName className
+			val constructor = encoderClass.getConstructor()
+			() => constructor.newInstance().asInstanceOf[JPEGEncoder]
+		}
+	}
+}
+
+/**
+ * Encodes images with the JPEG writer of ImageIO. The writer and its
+ * output buffer are reused for every image.
+ *
+ * The raster of the image is written as it is, so the data holds one
+ * component per band and no color conversion. The red, green and blue
+ * bands come first.
+ */
+class ImageIOJPEGEncoder extends JPEGEncoder {
+	private val writer = JImageIO getImageWritersByFormatName ("jpg") next ()
+	private var reader: Option[JImageReader] = None
+	private val output = new JByteArrayOutputStream(0x10000)
+
+	override def encode(image: JBufferedImage, quality: Float) = {
+		val imageOutput = new JMemoryCacheImageOutputStream(output)
+		val writeParam = writer.getDefaultWriteParam()
+
+		output.reset()
+		writer setOutput imageOutput
+		writeParam setCompressionMode JImageWriteParam.MODE_EXPLICIT
+		writeParam setCompressionQuality quality
+		writer write (null, new JIIOImage(image.getRaster, null, null), writeParam)
+		writer.reset()
+		imageOutput.close()
+
+		output.toByteArray
+	}
+
+	override def decode(data: Array[Byte]) = {
+		val input = new JMemoryCacheImageInputStream(new JByteArrayInputStream(data))
+		val reader = this.reader getOrElse {
+			val result = JImageIO getImageReadersByFormatName ("jpg") next ()
+			this.reader = Some(result)
+			result
+		}
+
+		reader setInput input
+
+		val raster = reader readRaster (0, null)
+		val numBands = raster.getNumBands
+		val samples = raster getPixels (0, 0, raster.getWidth, raster.getHeight, null: Array[Int])
+		val result = new Array[Int](raster.getWidth * raster.getHeight)
+		var i = 0
+		var j = 0
+
+		reader.reset()
+		input.close()
+
+		while(i < result.length) {
+			result(i) = 0xff000000 | (samples(j) << 0x10) | (samples(j + 1) << 0x08) | samples(j + 2)
+			i += 1
+			j += numBands
+		}
+
+		result
+	}
+
+	override def dispose() = {
+		writer.dispose()
+		reader foreach { _.dispose() }
+	}
+}
@@ -24,16 +24,9 @@ import apparat.tools._
 import apparat.utils._
 import apparat.swf._
 
-import java.awt.image.{BufferedImage => JBufferedImage}
-import javax.imageio.{IIOImage => JIIOImage}
-import javax.imageio.{ImageIO => JImageIO}
-import javax.imageio.{ImageWriteParam => JImageWriteParam}
-import java.util.zip.{Inflater => JInflater}
-import java.util.zip.{Deflater => JDeflater}
-import apparat.actors.Futures._
 import apparat.abc.Abc
 import apparat.abc.analysis.AbcConstantPoolBuilder
-import java.io.{File => JFile, FileOutputStream => JFileOutputStream, ByteArrayOutputStream => JByteArrayOutputStream, ByteArrayInputStream => JByteArrayInputStream}
+import java.io.{File => JFile, FileOutputStream => JFileOutputStream}
 import apparat.bytecode.optimization.BlockMerge
 
 object Reducer {
@@ -42,14 +35,18 @@ object Reducer {
 	class ReducerTool extends ApparatTool {
 		var deblock = 0.0f
 		var quality = 0.99f
+		var psnr = 0.0f
+		var budget = 0
 		var input: JFile = _
 		var output: JFile = _
 		var mergeABC: Boolean = false
 		var sortCPool: Boolean = false
+		var sortCPoolBySize: Boolean = false
 		var lzma: Boolean = false
 		var matryoshkaType: Int = MatryoshkaType.QUIET
 		var customMatryoshka: Option[JFile] = None
 		var mergeCF: Boolean = false
+		var jpegEncoder: () => JPEGEncoder = JPEGEncoder.factory
 
 		override def name: String = "Reducer"
 
@@ -57,8 +54,11 @@ object Reducer {
   -o [file]	Output file (optional)
   -d [float]	Strength of deblocking filter (optional)
   -q [float]	Quality from 0.0 to 1.0 (optional)
+  -p [float]	Search the lowest quality per image reaching this PSNR in dB (optional)
+  -z [int]	Search a quality per image that needs at most this many bytes (optional)
   -m [true|false] Merge ABC files
   -s [true|false] Sort constant pool (only if -m is specified)
+  -c [true|false] Sort constant pool for size (only if -s is specified)
   -l [true|false] Use LZMA compression
   -t [quiet|preloader|custom] Matryoshka type (default: quiet)
   -f [file]	Custom matryoshka SWF wrapper (required if -t custom)
@@ -70,9 +70,12 @@ object Reducer {
 			input = config.input
 			output = config.output
 			quality = config.quality
+			psnr = config.psnr
+			budget = config.budget
 			deblock = config.deblock
 			mergeABC = config.mergeABC
 			sortCPool = config.sortCPool
+			sortCPoolBySize = config.sortCPoolBySize
 			lzma = config.lzma
 			matryoshkaType = config.matryoshkaType
 			customMatryoshka = config.matryoshka
@@ -80,7 +83,7 @@ object Reducer {
 		}
 
 		override def run() = {
-			SwfTags.tagFactory = (kind: Int) => kind match {
+			val tagFactory: SwfTags.TagFactory = (kind: Int) => kind match {
 				case SwfTags.DefineBitsLossless2 => Some(new DefineBitsLossless2)
 				case SwfTags.FileAttributes => Some(new FileAttributes)
 				case SwfTags.DoABC if mergeABC || mergeCF => Some(new DoABC)
@@ -94,9 +97,10 @@ object Reducer {
 			val source = input
 			val target = output
 			val l0 = source length
-			val cont = TagContainer fromFile source
+			val cont = TagContainer fromFile (source, tagFactory)
 			cont.tags = cont.tags filterNot (tag => tag.kind == SwfTags.Metadata || tag.kind == SwfTags.ProductInfo)
 			cont mapTags reduce
+			cont.tags = new BitmapTranscoder(quality, deblock, psnr, budget, jpegEncoder)(cont.tags)
 
 			if(mergeCF) {
 				log.info("Merging identical control flow ...")
@@ -153,7 +157,7 @@ object Reducer {
 
 									if(sortCPool) {
 										log.info("Rebuilding constant pool ...")
-										b.cpool = AbcConstantPoolBuilder using b
+										b.cpool = AbcConstantPoolBuilder using (b, sortCPoolBySize)
 									}
 
 									b.saveBytecode()
@@ -210,13 +214,6 @@ object Reducer {
 		}
 
 		private def reduce: PartialFunction[SwfTag, SwfTag] = {
-			case dbl2: DefineBitsLossless2 => {
-				if (5 == dbl2.bitmapFormat && (dbl2.bitmapWidth * dbl2.bitmapHeight) > 1024) {
-					lossless2jpg(dbl2)
-				} else {
-					dbl2
-				}
-			}
 			case fileAttributes: FileAttributes => {
 				val result = new FileAttributes()
 
@@ -229,123 +226,5 @@ object Reducer {
 				result
 			}
 		}
-
-		private def lossless2jpg(tag: DefineBitsLossless2) = {
-			val width = tag.bitmapWidth
-			val height = tag.bitmapHeight
-			val inflater = new JInflater();
-			val lossless = new Array[Byte]((width * height) << 2)
-			val alphaData = new Array[Byte](width * height)
-			var needsAlpha = false
-
-			// decompress zlib data
-
-			inflater setInput tag.zlibBitmapData
-
-			var offset = -1
-			while (0 != offset && !inflater.finished) {
-				offset = inflater inflate lossless
-				if (0 == offset && inflater.needsInput) {
-					error("Need more input.")
-				}
-			}
-
-			// create buffered image
-			// fill alpha data
-
-			val buffer = new JBufferedImage(width, height, JBufferedImage.TYPE_INT_ARGB)
-
-			for (y <- 0 until height; x <- 0 until width) {
-				val index = (x << 2) + (y << 2) * width
-				val alpha = lossless(index) & 0xff
-				val red = lossless(index + 1) & 0xff
-				val green = lossless(index + 2) & 0xff
-				val blue = lossless(index + 3) & 0xff
-
-				if (0xff != alpha) {
-					needsAlpha = true
-				}
-
-				// useless to go from premultiplied to normal
-				//
-				//if(alpha > 0 && alpha < 0xff) {
-				//  val alphaMultiplier = 255.0f / alpha
-				//  red = clamp(red * alphaMultiplier)
-				//  green = clamp(green * alphaMultiplier)
-				//  blue = clamp(blue * alphaMultiplier)
-				//}
-
-				alphaData(x + y * width) = lossless(index)
-				buffer.setRGB(x, y, (0xff << 0x18) | (red << 0x10) | (green << 0x08) | blue)
-			}
-
-			// compress alpha data
-
-			val deflater = new JDeflater(JDeflater.BEST_COMPRESSION)
-			deflater setInput alphaData
-			deflater.finish()
-
-			val compressBuffer = new Array[Byte](0x400)
-			var numBytesCompressed = 0
-			val alphaOutput = new JByteArrayOutputStream()
-
-			do {
-				numBytesCompressed = deflater deflate compressBuffer
-				alphaOutput write (compressBuffer, 0, numBytesCompressed)
-			} while (0 != numBytesCompressed)
-
-			alphaOutput.flush()
-			alphaOutput.close()
-
-			// create jpg
-
-			val writer = JImageIO getImageWritersByFormatName ("jpg") next ()
-			val imageOutput = new JByteArrayOutputStream()
-
-			writer setOutput JImageIO.createImageOutputStream(imageOutput)
-
-			val writeParam = writer.getDefaultWriteParam()
-			writeParam setCompressionMode JImageWriteParam.MODE_EXPLICIT
-			writeParam setCompressionQuality quality
-			writer write (null, new JIIOImage(buffer.getData(), null, null), writeParam)
-			imageOutput.flush()
-			imageOutput.close()
-			writer.dispose()
-
-			// create tag
-
-			val newTag: SwfTag with KnownLengthTag with DefineTag = if (needsAlpha) {
-				if (0.0f == deblock) {
-					val dbj3 = new DefineBitsJPEG3()
-					dbj3.alphaData = alphaOutput.toByteArray()
-					dbj3.imageData = imageOutput.toByteArray()
-					dbj3
-				} else {
-					val dbj4 = new DefineBitsJPEG4()
-					dbj4.alphaData = alphaOutput.toByteArray()
-					dbj4.imageData = imageOutput.toByteArray()
-					dbj4.deblock = deblock
-					dbj4
-				}
-			} else {
-				val dbj2 = new DefineBitsJPEG2()
-				dbj2.imageData = imageOutput.toByteArray()
-				dbj2
-			}
-
-			if (newTag.length < tag.length) {
-				log.info("Compressed character %d.", tag.characterID)
-				newTag.characterID = tag.characterID
-				newTag
-			} else {
-				tag
-			}
-		}
-
-		private def clamp(value: Float): Int = value match {
-			case x if x < 0 => 0
-			case x if x > 255 => 255
-			case x => x.asInstanceOf[Int]
-		}
 	}
 }
@@ -41,6 +41,19 @@ trait ReducerConfiguration {
 	 */
 	def quality: Float
 
+	/**
+	 * The minimum PSNR in dB of each JPEG or 0 to use
+	 * <code>quality</code> for every image.
+	 */
+	def psnr: Float
+
+	/**
+	 * The maximum number of JPEG bytes per image or 0 for no limit.
+	 * <code>quality</code> is the highest quality used if either
+	 * <code>psnr</code> or <code>budget</code> is set.
+	 */
+	def budget: Int
+
 	/**
 	 * Strength of the Flash Player deblocking filter.
 	 */
@@ -57,6 +70,13 @@ trait ReducerConfiguration {
 	 */
 	def sortCPool: Boolean
 
+	/**
+	 * Whether or not to sort the constant pool for the smallest size
+	 * instead of keeping typenames behind all other names. This option
+	 * is only triggered if sortCPool is specified.
+	 */
+	def sortCPoolBySize: Boolean
+
 	/**
 	 * Use advanced LZMA compression.
 	 */
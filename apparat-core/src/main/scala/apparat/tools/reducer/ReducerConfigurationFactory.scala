@@ -32,8 +32,11 @@ object ReducerConfigurationFactory extends ApparatConfigurationFactory[ReducerCo
 		val output = config("-o") map { pathname => new JFile(pathname) } getOrElse input
 		val deblock = java.lang.Float parseFloat config("-d").getOrElse("0.0")
 		val quality = java.lang.Float parseFloat config("-q").getOrElse("0.99")
+		val psnr = java.lang.Float parseFloat config("-p").getOrElse("0.0")
+		val budget = Integer parseInt config("-z").getOrElse("0")
 		val merge = (config("-m") getOrElse "false").toBoolean
 		val sort = (config("-s") getOrElse "false").toBoolean
+		val sortBySize = (config("-c") getOrElse "false").toBoolean
 		val lzma = (config("-l") getOrElse "false").toBoolean
 		val matryoshkaType = (config("-t") getOrElse "quiet") match {
 			case "quiet" => MatryoshkaType.QUIET
@@ -52,7 +55,7 @@ object ReducerConfigurationFactory extends ApparatConfigurationFactory[ReducerCo
 			error("Custom Matryoshka is defined but does not exist.")
 		}
 
-		new ReducerConfigurationImpl(input, output, quality, deblock,
-			merge, sort, lzma, matryoshkaType, matryoshka, mergeCF)
+		new ReducerConfigurationImpl(input, output, quality, psnr, budget, deblock,
+			merge, sort, sortBySize, lzma, matryoshkaType, matryoshka, mergeCF)
 	}
 }
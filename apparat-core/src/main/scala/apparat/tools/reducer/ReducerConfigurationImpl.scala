@@ -29,9 +29,12 @@ protected[reducer] class ReducerConfigurationImpl(
 		val input: JFile,
 		val output: JFile,
 		val quality: Float,
+		val psnr: Float,
+		val budget: Int,
 		val deblock: Float,
 		val mergeABC: Boolean,
 		val sortCPool: Boolean,
+		val sortCPoolBySize: Boolean,
 		val lzma: Boolean,
 		val matryoshkaType: Int,
 		val matryoshka: Option[JFile],
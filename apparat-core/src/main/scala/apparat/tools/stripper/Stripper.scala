@@ -95,13 +95,13 @@ object Stripper {
 		}
 
 		override def run() = {
-			SwfTags.tagFactory = (kind: Int) => kind match {
+			val tagFactory: SwfTags.TagFactory = (kind: Int) => kind match {
 				case SwfTags.DoABC => Some(new DoABC)
 				case SwfTags.DoABC1 => Some(new DoABC)
 				case _ => None
 			}
 
-			val cont = TagContainer fromFile input
+			val cont = TagContainer fromFileFor (input, output, tagFactory)
 			//Issue 43
 			//Need to investigate why we get into deadlock here.
 			//cont foreachTag strip
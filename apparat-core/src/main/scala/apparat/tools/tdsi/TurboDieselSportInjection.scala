@@ -25,9 +25,11 @@ import apparat.utils.TagContainer
 import apparat.abc._
 import analysis.QuickAbcConstantPoolBuilder
 import apparat.swf._
-import annotation.tailrec
 import apparat.bytecode.optimization._
 import apparat.tools.{ApparatConfiguration, ApparatApplication, ApparatTool}
+import apparat.actors.Tasks
+import apparat.bytecode.Bytecode
+import scala.concurrent.forkjoin.ForkJoinPool
 
 /**
  * @author Joa Ebert
@@ -71,7 +73,7 @@ object TurboDieselSportInjection {
 		}
 
 		override def run() = {
-			SwfTags.tagFactory = (kind: Int) => kind match {
+			val tagFactory: SwfTags.TagFactory = (kind: Int) => kind match {
 				case SwfTags.DoABC => Some(new DoABC)
 				case SwfTags.DoABC1 => Some(new DoABC)
 				case _ => None
@@ -79,7 +81,7 @@ object TurboDieselSportInjection {
 
 			val abcLibraries = libraries flatMap {
 				library => {
-					(TagContainer fromFile library).tags collect { case x: DoABC => x } map { Abc fromDoABC _ }
+					(TagContainer fromFile (library, tagFactory)).tags collect { case x: DoABC => x } map { Abc fromDoABC _ }
 				}
 			}
 
@@ -87,7 +89,7 @@ object TurboDieselSportInjection {
 
 			val source = input
 			val target = output
-			val cont = TagContainer fromFile source
+			val cont = TagContainer fromFileFor (source, target, tagFactory)
 			val allABC = (for(doABC <- cont.tags collect { case doABC: DoABC => doABC }) yield (doABC -> (Abc fromDoABC doABC))).toMap
 			val environment = allABC.valuesIterator.toList ::: abcLibraries
 			val macroExpansion = if(macros) Some(new MacroExpansion(environment)) else None
@@ -96,111 +98,138 @@ object TurboDieselSportInjection {
 
 			allABC foreach { _._2.loadBytecode() }
 
-			var rebuildCpoolSet = Set.empty[Abc]
+			val asmPass = new RewritePass("AsmExpansion", AsmExpansion(_))
+			val inlinePass = RewritePass.incremental("InlineExpansion") { (bytecode, from) => inlineExpansion.get expand (bytecode, from) }
+			val macroPass = RewritePass.incremental("MacroExpansion") { (bytecode, from) => macroExpansion.get expand (bytecode, from) }
+			val inlineMemoryPass = new RewritePass("InlineMemory", InlineMemory)
+			val memoryPass = new RewritePass("MemoryHelperExpansion", bytecode => memoryExpansion.get expand bytecode)
+			val alchemyPass = new RewritePass("AlchemyOptimizations", AlchemyOptimizations)
+			val peepholePass = new RewritePass("PeepholeOptimizations", PeepholeOptimizations(_))
+
+			val methods = for {
+				(doABC, abc) <- allABC.toList
+				method <- abc.methods
+				body <- method.body
+				bytecode <- body.bytecode
+			} yield (abc, method, bytecode)
+
+			//
+			// Inline and macro expansion copy the bytecode of the methods
+			// they expand. Those are processed in their original order and
+			// every method in between runs in parallel so that each method
+			// sees the same bytecode as in a sequential run.
+			//
+
+			val sources = {
+				val expanded = (inlineExpansion.toList flatMap { _.macros.valuesIterator }) :::
+					(macroExpansion.toList flatMap { _.macros.valuesIterator })
+
+				(for {
+					(nominal, _) <- expanded
+					AbcTraitMethod(_, _, method, _, _, _) <- nominal.klass.traits
+				} yield method).toSet
+			}
 
-			if (asm) {
-				for((doABC, abc) <- allABC) {
-					for {
-						method <- abc.methods
-						body <- method.body
-						bytecode <- body.bytecode
-					} {
-						var rebuildCpool = false
-
-						@tailrec def modifyBytecode(counter: Int): Unit = {
-							var modified = false
-
-							if(AsmExpansion(bytecode)) {
-								modified = true
-								rebuildCpool = true
-							}
+			val pool = Tasks.newPool()
 
-							if(modified && (counter > 0)) {
-								modifyBytecode(counter - 1)
-							} else if(counter <= 0) {
-								log.warning("Too many optimisation for " + method.name)
-							}
+			try {
+				var rebuildCpoolSet = if(asm) {
+					inParallel(pool, methods) {
+						case (abc, method, bytecode) => {
+							PeepholeOptimizations(bytecode)
+							RewriteDriver(method.name.toString, bytecode, asmPass :: Nil).nonEmpty
 						}
+					}
+				} else {
+					Set.empty[Abc]
+				}
 
-						PeepholeOptimizations(bytecode)
-						modifyBytecode(31)
-
-						if(rebuildCpool) {
-							rebuildCpoolSet += abc
+				def expand(abc: Abc, method: AbcMethod, bytecode: Bytecode) = {
+					// don't run memory expansion within Macro
+					lazy val isMacro = macroExpansion match {
+						case Some(me) => {
+							abc.types.exists(n => (n.inst.base.getOrElse(AbcConstantPool.EMPTY_NAME) == me.apparatMacro) && (n.klass.traits.exists(p=> p match {
+								case AbcTraitMethod(_, _, meth , _, _, _) if (meth==method) => true
+								case _ => false
+							})))
 						}
+						case _ => false
 					}
-				}
-			}
 
-			for((doABC, abc) <- allABC) {
-				var rebuildCpool = rebuildCpoolSet.contains(abc)
+					val passes = (if(inline) List(inlinePass) else Nil) :::
+						(if(macros) List(macroPass) else Nil) :::
+						(if(alchemy) inlineMemoryPass :: (if(isMacro) Nil else List(memoryPass)) else Nil) :::
+						(if(fixAlchemy) List(alchemyPass) else Nil) :::
+						List(peepholePass)
 
-				for {
-					method <- abc.methods
-					body <- method.body
-					bytecode <- body.bytecode
-				} {
-					@tailrec def modifyBytecode(counter: Int): Unit = {
-						var modified = false
+					val modifiedBy = RewriteDriver(method.name.toString, bytecode, passes)
 
-						if(inline && (inlineExpansion.get.expand(bytecode))) {
-							modified = true
-							rebuildCpool = true
-						}
+					(modifiedBy contains inlinePass) || (modifiedBy contains macroPass)
+				}
 
-						if(macros && (macroExpansion.get.expand(bytecode))) {
-							modified = true
-							rebuildCpool = true
-						}
+				var pending = methods
 
-						if(alchemy) {
-							modified |= InlineMemory(bytecode)
-							// don't run memory expansion within Macro
-							if (!{ macroExpansion match {
-								    case Some(me) => {
-									    abc.types.exists(n => (n.inst.base.getOrElse(AbcConstantPool.EMPTY_NAME) == me.apparatMacro) && (n.klass.traits.exists(p=> p match {
-										  case AbcTraitMethod(_, _, meth , _, _, _) if (meth==method) => true
-										  case _ => false
-									    })))
-								    }
-								    case _ => false
-							       }}) {
-								modified |= memoryExpansion.get expand  bytecode
-							}
-						}
+				while(pending.nonEmpty) {
+					val (batch, rest) = pending span { x => !sources.contains(x._2) }
 
-						if(fixAlchemy) {
-							modified |= AlchemyOptimizations(bytecode)
-						}
+					rebuildCpoolSet ++= inParallel(pool, batch) {
+						case (abc, method, bytecode) => expand(abc, method, bytecode)
+					}
+
+					rest match {
+						case (abc, method, bytecode) :: tail => {
+							if(expand(abc, method, bytecode)) {
+								rebuildCpoolSet += abc
+							}
 
-						modified |= PeepholeOptimizations(bytecode)
+							//
+							// The methods of the next batch copy the operations
+							// of this one while they run in parallel. It is not
+							// modified anymore so it is safe to share once its
+							// operations have been materialized.
+							//
 
-						if(modified && (counter > 0)) {
-							modifyBytecode(counter - 1)
-						} else if(counter <= 0) {
-							log.warning("Too many optimisation for " + method.name)
+							bytecode.ops
+							pending = tail
 						}
+						case Nil => pending = Nil
 					}
-
-					modifyBytecode(31)
 				}
 
-				if(rebuildCpool) {
-					//
-					// We have to rebuild the cpool here since both Macro and Inline
-					// expansion could include operations from a different ABC
-					// and in that case its values do not belong to the cpool.
-					//
+				for((doABC, abc) <- allABC) {
+					if(rebuildCpoolSet contains abc) {
+						//
+						// We have to rebuild the cpool here since both Macro and Inline
+						// expansion could include operations from a different ABC
+						// and in that case its values do not belong to the cpool.
+						//
+
+						log.info("Cpool rebuild required.")
+						abc.cpool = QuickAbcConstantPoolBuilder using abc
+					}
 
-					log.info("Cpool rebuild required.")
-					abc.cpool = QuickAbcConstantPoolBuilder using abc
+					abc.saveBytecode()
+					abc write doABC
 				}
-
-				abc.saveBytecode()
-				abc write doABC
+			} finally {
+				pool foreach { _.shutdown() }
 			}
 
 			cont write target
+
+			for(pass <- List(asmPass, inlinePass, macroPass, inlineMemoryPass, memoryPass, alchemyPass, peepholePass) if pass.runs > 0) {
+				log.info("%s", pass)
+			}
+		}
+
+		/**
+		 * Runs <code>body</code> for every method and returns the ABC files
+		 * of those methods for which <code>body</code> returned <code>true</code>.
+		 */
+		private def inParallel(pool: Option[ForkJoinPool], methods: List[(Abc, AbcMethod, Bytecode)])(body: ((Abc, AbcMethod, Bytecode)) => Boolean): Set[Abc] = {
+			val results = Tasks.map(pool, methods)(body)
+
+			(for(((abc, _, _), true) <- methods zip results) yield abc).toSet
 		}
 	}
 }
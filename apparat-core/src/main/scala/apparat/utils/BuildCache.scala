@@ -0,0 +1,261 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.utils
+
+import apparat.log.SimpleLog
+import java.io.{File => JFile, FileInputStream => JFileInputStream, FileOutputStream => JFileOutputStream, IOException => JIOException}
+import java.security.{MessageDigest => JMessageDigest}
+
+object BuildCache {
+	/**
+	 * System properties which change the bytes written by the tools.
+	 */
+	val OutputProperties = List("apparat.deflate.optimal", "apparat.deflate.iterations",
+		"apparat.lzma.chunkSize", "apparat.reducer.jpegEncoder")
+
+	/**
+	 * Identifies the Apparat build so entries written by a different
+	 * version are never restored.
+	 */
+	lazy val version: String = versionOf(classOf[BuildCache])
+
+	/**
+	 * Identifies the build of the JAR or directory <code>type</code> has
+	 * been loaded from. The classes of a directory are hashed since its
+	 * own size and modification time do not change with their contents.
+	 */
+	def versionOf(`type`: Class[_]): String = {
+		val implementationVersion = Option(`type`.getPackage) flatMap {
+			p => Option(p.getImplementationVersion)
+		} getOrElse "unknown"
+
+		val codeSource = Option(`type`.getProtectionDomain.getCodeSource) flatMap {
+			c => Option(c.getLocation)
+		}
+
+		codeSource match {
+			case Some(url) if url.getProtocol == "file" => {
+				val file = new JFile(url.toURI)
+
+				if(file.isDirectory) {
+					implementationVersion+"/"+digestOfClasses(file)
+				} else {
+					implementationVersion+"/"+file.length+"/"+file.lastModified
+				}
+			}
+			case _ => implementationVersion
+		}
+	}
+
+	private def digestOfClasses(directory: JFile) = {
+		val digest = newDigest()
+		val buffer = new Array[Byte](0x2000)
+
+		def visit(file: JFile, path: String): Unit = {
+			if(file.isDirectory) {
+				for(child <- file.listFiles.sortBy(_.getName)) {
+					visit(child, path+"/"+child.getName)
+				}
+			} else if(path endsWith ".class") {
+				digest update path.getBytes("UTF-8")
+
+				IO.using(new JFileInputStream(file)) {
+					input => {
+						var bytesRead = input read buffer
+
+						while(bytesRead >= 0) {
+							digest update (buffer, 0, bytesRead)
+							bytesRead = input read buffer
+						}
+					}
+				}
+			}
+		}
+
+		visit(directory, "")
+		hex(digest.digest())
+	}
+
+	private def newDigest() = JMessageDigest getInstance "SHA-1"
+
+	private def hex(bytes: Array[Byte]) = {
+		val result = new StringBuilder(bytes.length << 1)
+
+		for(b <- bytes) {
+			result append "%02x".format(b & 0xff)
+		}
+
+		result.toString
+	}
+}
+
+/**
+ * A content-addressed cache for the output of an Apparat tool.
+ *
+ * The key of an entry is the hash of the input bytes, the tool, its
+ * configuration, the <code>OutputProperties</code>, the contents of any
+ * additional files the tool reads and the Apparat version. Outputs are
+ * also stored under their own key so an artifact which has already been
+ * processed is left as it is.
+ *
+ * @param directory The cache directory.
+ * @param tool The name of the tool.
+ * @param configuration All settings which affect the output.
+ * @param dependencies Additional files which affect the output.
+ */
+final class BuildCache(val directory: JFile, tool: String, configuration: Array[String], dependencies: Array[JFile]) extends SimpleLog {
+	import BuildCache.{newDigest, hex}
+
+	private lazy val configurationDigest = {
+		val digest = newDigest()
+
+		update(digest, BuildCache.version)
+		update(digest, tool)
+
+		for(value <- configuration) {
+			update(digest, value)
+		}
+
+		for(name <- BuildCache.OutputProperties) {
+			update(digest, name+"="+System.getProperty(name, ""))
+		}
+
+		for(dependency <- dependencies) {
+			update(digest, dependency.getName)
+			update(digest, digestOf(dependency))
+		}
+
+		digest.digest()
+	}
+
+	/**
+	 * Computes the key for the given input file. The key must be computed
+	 * before a tool rewrites the file in place.
+	 *
+	 * @param input The input file.
+	 * @return The key of the entry for <code>input</code>.
+	 */
+	def keyOf(input: JFile): String = {
+		val digest = newDigest()
+		digest update configurationDigest
+		digest update digestOf(input)
+		hex(digest.digest())
+	}
+
+	/**
+	 * Copies the cached entry to <code>output</code>.
+	 *
+	 * @return <code>true</code> if an entry exists; <code>false</code> otherwise.
+	 */
+	def restore(key: String, output: JFile): Boolean = {
+		val entry = entryOf(key)
+
+		if(entry.isFile) {
+			log.debug("Restoring %s from cache entry %s.", output, key)
+			copy(entry, output)
+			true
+		} else {
+			false
+		}
+	}
+
+	/**
+	 * Stores <code>output</code> as the entry for <code>key</code>.
+	 */
+	def store(key: String, output: JFile): Unit = {
+		if(!directory.isDirectory && !directory.mkdirs() && !directory.isDirectory) {
+			throw new JIOException("Could not create cache directory "+directory+".")
+		}
+
+		put(key, output)
+		put(keyOf(output), output)
+	}
+
+	private def put(key: String, output: JFile): Unit = {
+		val entry = entryOf(key)
+
+		if(!entry.isFile) {
+			//
+			// Entries are written to a temporary file first since other
+			// threads or processes may use the same cache concurrently.
+			//
+
+			val temporary = JFile.createTempFile(key, ".tmp", directory)
+
+			try {
+				copy(output, temporary)
+
+				if(!temporary.renameTo(entry) && !entry.isFile) {
+					throw new JIOException("Could not write cache entry "+entry+".")
+				}
+			} finally {
+				temporary.delete()
+			}
+		}
+	}
+
+	private def entryOf(key: String) = new JFile(directory, key)
+
+	private def copy(source: JFile, target: JFile) = {
+		IO.using(new JFileInputStream(source)) {
+			input => IO.using(new JFileOutputStream(target)) {
+				output => {
+					val buffer = new Array[Byte](0x2000)
+					var bytesRead = input read buffer
+
+					while(bytesRead >= 0) {
+						output write (buffer, 0, bytesRead)
+						bytesRead = input read buffer
+					}
+				}
+			}
+		}
+	}
+
+	private def update(digest: JMessageDigest, value: String) = {
+		val bytes = value getBytes "UTF-8"
+		digest update bytes.length.toString.getBytes("UTF-8")
+		digest update ':'.toByte
+		digest update bytes
+	}
+
+	private def digestOf(file: JFile): Array[Byte] = {
+		val digest = newDigest()
+
+		IO.using(new JFileInputStream(file)) {
+			input => {
+				val buffer = new Array[Byte](0x2000)
+				var bytesRead = input read buffer
+
+				while(bytesRead >= 0) {
+					digest update (buffer, 0, bytesRead)
+					bytesRead = input read buffer
+				}
+			}
+		}
+
+		digest.digest()
+	}
+
+	private def update(digest: JMessageDigest, value: Array[Byte]): Unit = {
+		update(digest, hex(value))
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.utils
+
+import java.io.{OutputStream => JOutputStream}
+import java.util.{Arrays => JArrays}
+
+/**
+ * An unsynchronized alternative to <code>ByteArrayOutputStream</code>.
+ *
+ * The buffer is exposed so written bytes can be patched and handed on
+ * without a copy. Only the first <code>size</code> bytes of it are valid.
+ */
+final class ByteArrayOutput(initialCapacity: Int) extends JOutputStream {
+	private var buffer = new Array[Byte](math.max(0x10, initialCapacity))
+	private var count = 0
+
+	def this() = this(0x100)
+
+	def size = count
+
+	def array = buffer
+
+	override def write(value: Int) = {
+		if(count == buffer.length) {
+			grow(count + 1)
+		}
+
+		buffer(count) = value.asInstanceOf[Byte]
+		count += 1
+	}
+
+	override def write(value: Array[Byte]) = write(value, 0, value.length)
+
+	override def write(value: Array[Byte], offset: Int, length: Int) = {
+		if(count + length > buffer.length) {
+			grow(count + length)
+		}
+
+		System.arraycopy(value, offset, buffer, count, length)
+		count += length
+	}
+
+	def writeTo(output: JOutputStream) = output.write(buffer, 0, count)
+
+	/**
+	 * Returns the written bytes. The buffer itself is returned if it has
+	 * been filled exactly.
+	 */
+	def toByteArray = if(count == buffer.length) buffer else JArrays.copyOf(buffer, count)
+
+	private def grow(capacity: Int) = {
+		buffer = JArrays.copyOf(buffer, math.max(capacity, buffer.length << 1))
+	}
+}
@@ -0,0 +1,798 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.utils
+
+import java.io.{OutputStream => JOutputStream}
+import java.util.zip.{Adler32 => JAdler32}
+import apparat.actors.Futures._
+
+/**
+ * A DEFLATE encoder which trades time for compression ratio.
+ *
+ * The input is split into chunks which are parsed in parallel. A chunk may
+ * reference the 32k of input in front of it so splitting costs almost no
+ * ratio. Each chunk is parsed by searching the cheapest path through all
+ * matches the hash chains offer. The symbol costs are estimated from the
+ * previous parse and the search is repeated, like zopfli does. The blocks
+ * are written in order into a single zlib stream.
+ */
+object DeflateEncoder {
+	val DefaultIterations = 8
+	val DefaultChunkSize = 0x20000
+	val DefaultMaxChainLength = 0x400
+
+	private val WindowSize = 0x8000
+	private val MinMatch = 3
+	private val MaxMatch = 258
+	private val MaxStoredLength = 0xffff
+	private val HashBits = 16
+	private val NumLitLens = 288
+	private val NumDists = 30
+	private val EndOfBlock = 256
+
+	private val LengthBase = Array(3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+		35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258)
+	private val LengthExtra = Array(0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0)
+	private val DistBase = Array(1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+		257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577)
+	private val DistExtra = Array(0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+		7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13)
+	private val CodeLengthOrder = Array(16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15)
+
+	/**
+	 * Maps a match length to its index in <code>LengthBase</code>.
+	 */
+	private val LengthSymbol = {
+		val result = new Array[Int](MaxMatch + 1)
+		for(i <- 0 until LengthBase.length; length <- LengthBase(i) until (LengthBase(i) + (1 << LengthExtra(i))) if length <= MaxMatch) {
+			result(length) = i
+		}
+		result
+	}
+
+	/**
+	 * Maps a distance to its index in <code>DistBase</code>.
+	 */
+	private val DistSymbol = {
+		val result = new Array[Byte](WindowSize + 1)
+		for(i <- 0 until DistBase.length; distance <- DistBase(i) until (DistBase(i) + (1 << DistExtra(i))) if distance <= WindowSize) {
+			result(distance) = i.asInstanceOf[Byte]
+		}
+		result
+	}
+
+	private lazy val FixedLitLenLengths = Array.tabulate(NumLitLens) {
+		i => if(i < 144) 8 else if(i < 256) 9 else if(i < 280) 7 else 8
+	}
+
+	private lazy val FixedDistLengths = Array.fill(NumDists)(5)
+
+	/**
+	 * Compresses <code>bytes</code> into a zlib stream.
+	 *
+	 * @param bytes The uncompressed input.
+	 * @param output The output for the zlib stream; it is not closed.
+	 * @param iterations The number of cost estimation passes per chunk.
+	 * @param chunkSize The number of input bytes per parallel task and block.
+	 * @param maxChainLength The maximum number of hash chain entries searched per position.
+	 */
+	def compress(bytes: Array[Byte], output: JOutputStream, iterations: Int = DefaultIterations,
+				 chunkSize: Int = DefaultChunkSize, maxChainLength: Int = DefaultMaxChainLength): Unit = {
+		compress(bytes, bytes.length, output, iterations, chunkSize, maxChainLength)
+	}
+
+	/**
+	 * Compresses the first <code>length</code> bytes of <code>bytes</code>
+	 * into a zlib stream.
+	 */
+	def compress(bytes: Array[Byte], length: Int, output: JOutputStream, iterations: Int,
+				 chunkSize: Int, maxChainLength: Int): Unit = {
+		val n = length
+		val numChunks = math.max(1, (n + chunkSize - 1) / chunkSize)
+		val tasks = Array.tabulate(numChunks) {
+			i => {
+				val from = i * chunkSize
+				val until = math.min(n, from + chunkSize)
+				future { parse(bytes, from, until, iterations, maxChainLength) }
+			}
+		}
+
+		val adler32 = new JAdler32()
+		adler32.update(bytes, 0, n)
+		val checksum = adler32.getValue.asInstanceOf[Int]
+
+		val writer = new BitWriter(output)
+
+		writer.writeByte(0x78)
+		writer.writeByte(0xda)
+
+		for(i <- 0 until numChunks) {
+			val block = tasks(i)()
+			tasks(i) = null
+			writeBlock(writer, bytes, block, i == numChunks - 1)
+		}
+
+		writer.align()
+		writer.writeByte((checksum >> 0x18) & 0xff)
+		writer.writeByte((checksum >> 0x10) & 0xff)
+		writer.writeByte((checksum >> 0x08) & 0xff)
+		writer.writeByte(checksum & 0xff)
+		writer.flush()
+	}
+
+	/**
+	 * The LZ77 parse of a chunk. A symbol is a literal if its distance is
+	 * zero and a match otherwise.
+	 */
+	private final class Block(val from: Int, val until: Int, val litLens: Array[Char], val dists: Array[Char], val size: Int) {
+		lazy val litLenFrequencies = {
+			val result = new Array[Int](NumLitLens)
+			var i = 0
+			while(i < size) {
+				if(0 == dists(i)) {
+					result(litLens(i)) += 1
+				} else {
+					result(257 + LengthSymbol(litLens(i))) += 1
+				}
+				i += 1
+			}
+			result(EndOfBlock) = 1
+			result
+		}
+
+		lazy val distFrequencies = {
+			val result = new Array[Int](NumDists)
+			var i = 0
+			while(i < size) {
+				if(0 != dists(i)) {
+					result(DistSymbol(dists(i))) += 1
+				}
+				i += 1
+			}
+			result
+		}
+
+		lazy val dynamicTrees = new DynamicTrees(litLenFrequencies, distFrequencies)
+
+		def dynamicBits = 3L + dynamicTrees.headerBits + dataBits(dynamicTrees.litLenLengths, dynamicTrees.distLengths)
+
+		def fixedBits = 3L + dataBits(FixedLitLenLengths, FixedDistLengths)
+
+		def storedBits = {
+			val length = until - from
+			val numBlocks = math.max(1, (length + MaxStoredLength - 1) / MaxStoredLength)
+			numBlocks * (3L + 7L + 32L) + (length.asInstanceOf[Long] << 3)
+		}
+
+		private def dataBits(litLenLengths: Array[Int], distLengths: Array[Int]) = {
+			var result = 0L
+			var i = 0
+			while(i < NumLitLens) {
+				val count = litLenFrequencies(i)
+				if(0 != count) {
+					result += count.asInstanceOf[Long] * (litLenLengths(i) + (if(i > 256) LengthExtra(i - 257) else 0))
+				}
+				i += 1
+			}
+			i = 0
+			while(i < NumDists) {
+				val count = distFrequencies(i)
+				if(0 != count) {
+					result += count.asInstanceOf[Long] * (distLengths(i) + DistExtra(i))
+				}
+				i += 1
+			}
+			result
+		}
+	}
+
+	/**
+	 * Huffman code lengths and the run length encoded header of a dynamic
+	 * block.
+	 */
+	private final class DynamicTrees(litLenFrequencies: Array[Int], distFrequencies: Array[Int]) {
+		val litLenLengths = huffmanLengths(litLenFrequencies, 15)
+		val distLengths = {
+			val result = huffmanLengths(distFrequencies, 15)
+
+			//
+			// Some inflaters reject blocks with less than two distance codes.
+			//
+
+			(result count (0 != _)) match {
+				case 0 => {
+					result(0) = 1
+					result(1) = 1
+				}
+				case 1 => result(if(0 != result(0)) 1 else 0) = 1
+				case _ =>
+			}
+
+			result
+		}
+
+		val numLitLens = math.max(257, (litLenLengths lastIndexWhere (0 != _)) + 1)
+		val numDists = math.max(1, (distLengths lastIndexWhere (0 != _)) + 1)
+
+		/**
+		 * Code length symbols. The lower five bits hold the symbol and the
+		 * upper bits the value of its extra bits.
+		 */
+		val codeLengthSymbols = {
+			val lengths = (litLenLengths take numLitLens) ++ (distLengths take numDists)
+			val result = new collection.mutable.ArrayBuffer[Int]()
+			var i = 0
+
+			while(i < lengths.length) {
+				val value = lengths(i)
+				var run = 1
+
+				while(i + run < lengths.length && lengths(i + run) == value) {
+					run += 1
+				}
+
+				i += run
+
+				if(0 == value) {
+					while(run >= 11) {
+						val n = math.min(run, 138)
+						result += 18 | ((n - 11) << 5)
+						run -= n
+					}
+
+					if(run >= 3) {
+						result += 17 | ((run - 3) << 5)
+						run = 0
+					}
+				} else {
+					result += value
+					run -= 1
+
+					while(run >= 3) {
+						val n = math.min(run, 6)
+						result += 16 | ((n - 3) << 5)
+						run -= n
+					}
+				}
+
+				while(run > 0) {
+					result += value
+					run -= 1
+				}
+			}
+
+			result.toArray
+		}
+
+		val codeLengthLengths = {
+			val frequencies = new Array[Int](19)
+			codeLengthSymbols foreach { symbol => frequencies(symbol & 0x1f) += 1 }
+			huffmanLengths(frequencies, 7)
+		}
+
+		val numCodeLengths = math.max(4, (CodeLengthOrder lastIndexWhere { codeLengthLengths(_) != 0 }) + 1)
+
+		def headerBits = {
+			var result = 5L + 5L + 4L + 3L * numCodeLengths
+			for(symbol <- codeLengthSymbols) {
+				result += codeLengthLengths(symbol & 0x1f) + extraBitsOfCodeLength(symbol & 0x1f)
+			}
+			result
+		}
+	}
+
+	@inline private def extraBitsOfCodeLength(symbol: Int) = symbol match {
+		case 16 => 2
+		case 17 => 3
+		case 18 => 7
+		case _ => 0
+	}
+
+	/**
+	 * All matches of a chunk. For each position the matches are sorted by
+	 * length and each entry is the closest match of its length.
+	 */
+	private final class Matches(n: Int) {
+		val first = new Array[Int](n + 1)
+		var lengths = new Array[Char](math.max(0x10, n))
+		var distances = new Array[Char](math.max(0x10, n))
+		var size = 0
+
+		def add(length: Int, distance: Int) = {
+			if(size == lengths.length) {
+				lengths = grow(lengths)
+				distances = grow(distances)
+			}
+
+			lengths(size) = length.asInstanceOf[Char]
+			distances(size) = distance.asInstanceOf[Char]
+			size += 1
+		}
+
+		private def grow(array: Array[Char]) = {
+			val result = new Array[Char](array.length << 1)
+			System.arraycopy(array, 0, result, 0, array.length)
+			result
+		}
+	}
+
+	private def findMatches(bytes: Array[Byte], from: Int, until: Int, maxChainLength: Int) = {
+		val windowStart = math.max(0, from - WindowSize)
+		val head = Array.fill(1 << HashBits)(-1)
+		val prev = new Array[Int](until - windowStart)
+		val matches = new Matches(until - from)
+
+		@inline def hash(p: Int) = {
+			val key = ((bytes(p) & 0xff) << 0x10) | ((bytes(p + 1) & 0xff) << 0x08) | (bytes(p + 2) & 0xff)
+			(key * 0x9e3779b1) >>> (32 - HashBits)
+		}
+
+		@inline def insert(p: Int) = if(p + 2 < until) {
+			val h = hash(p)
+			prev(p - windowStart) = head(h)
+			head(h) = p
+		}
+
+		var p = windowStart
+
+		while(p < from) {
+			insert(p)
+			p += 1
+		}
+
+		while(p < until) {
+			matches.first(p - from) = matches.size
+
+			val maxLength = math.min(MaxMatch, until - p)
+
+			if(maxLength >= MinMatch) {
+				var candidate = head(hash(p))
+				var chainLength = 0
+				var bestLength = MinMatch - 1
+
+				while(candidate >= 0 && p - candidate <= WindowSize && chainLength < maxChainLength) {
+					if(bytes(candidate + bestLength) == bytes(p + bestLength)) {
+						var length = 0
+
+						while(length < maxLength && bytes(candidate + length) == bytes(p + length)) {
+							length += 1
+						}
+
+						if(length > bestLength) {
+							bestLength = length
+							matches.add(length, p - candidate)
+
+							if(length == maxLength) {
+								chainLength = maxChainLength
+							}
+						}
+					}
+
+					candidate = prev(candidate - windowStart)
+					chainLength += 1
+				}
+			}
+
+			insert(p)
+			p += 1
+		}
+
+		matches.first(until - from) = matches.size
+		matches
+	}
+
+	/**
+	 * Finds the cheapest parse of a chunk for the given symbol costs.
+	 */
+	private def shortestPath(bytes: Array[Byte], from: Int, until: Int, matches: Matches,
+							 litLenCosts: Array[Float], distCosts: Array[Float]) = {
+		val n = until - from
+		val costs = new Array[Float](n + 1)
+		val lengths = new Array[Char](n + 1)
+		val distances = new Array[Char](n + 1)
+		val lengthCosts = new Array[Float](MaxMatch + 1)
+
+		var l = MinMatch
+
+		while(l <= MaxMatch) {
+			val symbol = LengthSymbol(l)
+			lengthCosts(l) = litLenCosts(257 + symbol) + LengthExtra(symbol)
+			l += 1
+		}
+
+		java.util.Arrays.fill(costs, Float.MaxValue)
+		costs(0) = 0.0f
+
+		var i = 0
+
+		while(i < n) {
+			val cost = costs(i)
+			val literalCost = cost + litLenCosts(bytes(from + i) & 0xff)
+
+			if(literalCost < costs(i + 1)) {
+				costs(i + 1) = literalCost
+				lengths(i + 1) = 1
+				distances(i + 1) = 0
+			}
+
+			val first = matches.first(i)
+			val last = matches.first(i + 1)
+
+			if(first != last && MaxMatch == matches.lengths(last - 1)) {
+				//
+				// Long repetitions are taken as they are. Looking at every
+				// shorter length is expensive and hardly ever pays off.
+				//
+
+				val distance = matches.distances(last - 1)
+				val symbol = DistSymbol(distance)
+				val matchCost = cost + lengthCosts(MaxMatch) + distCosts(symbol) + DistExtra(symbol)
+
+				if(matchCost < costs(i + MaxMatch)) {
+					costs(i + MaxMatch) = matchCost
+					lengths(i + MaxMatch) = MaxMatch.asInstanceOf[Char]
+					distances(i + MaxMatch) = distance
+				}
+			} else {
+				var length = MinMatch
+				var j = first
+
+				while(j < last) {
+					val distance = matches.distances(j)
+					val maxLength = matches.lengths(j)
+					val symbol = DistSymbol(distance)
+					val distanceCost = cost + distCosts(symbol) + DistExtra(symbol)
+
+					while(length <= maxLength) {
+						val matchCost = distanceCost + lengthCosts(length)
+
+						if(matchCost < costs(i + length)) {
+							costs(i + length) = matchCost
+							lengths(i + length) = length.asInstanceOf[Char]
+							distances(i + length) = distance
+						}
+
+						length += 1
+					}
+
+					j += 1
+				}
+			}
+
+			i += 1
+		}
+
+		//
+		// Trace the path backwards and emit the symbols in order.
+		//
+
+		var size = 0
+		i = n
+
+		while(i > 0) {
+			size += 1
+			i -= lengths(i)
+		}
+
+		val litLens = new Array[Char](size)
+		val dists = new Array[Char](size)
+		var k = size
+		i = n
+
+		while(i > 0) {
+			k -= 1
+
+			val length = lengths(i)
+
+			if(0 == distances(i)) {
+				litLens(k) = (bytes(from + i - 1) & 0xff).asInstanceOf[Char]
+			} else {
+				litLens(k) = length
+				dists(k) = distances(i)
+			}
+
+			i -= length
+		}
+
+		new Block(from, until, litLens, dists, size)
+	}
+
+	private def parse(bytes: Array[Byte], from: Int, until: Int, iterations: Int, maxChainLength: Int) = {
+		val matches = findMatches(bytes, from, until, maxChainLength)
+		var litLenCosts = FixedLitLenLengths map { _.asInstanceOf[Float] }
+		var distCosts = FixedDistLengths map { _.asInstanceOf[Float] }
+		var best: Block = null
+		var bestBits = Long.MaxValue
+		var iteration = 0
+
+		while(iteration < math.max(1, iterations)) {
+			val block = shortestPath(bytes, from, until, matches, litLenCosts, distCosts)
+			val bits = block.dynamicBits
+
+			if(bits < bestBits) {
+				best = block
+				bestBits = bits
+			} else if(bits == bestBits) {
+				iteration = iterations
+			}
+
+			litLenCosts = costsOf(block.litLenFrequencies)
+			distCosts = costsOf(block.distFrequencies)
+			iteration += 1
+		}
+
+		best
+	}
+
+	/**
+	 * Estimates the cost in bits of each symbol from its frequency.
+	 */
+	private def costsOf(frequencies: Array[Int]) = {
+		val total = frequencies.sum
+		val log2Total = if(0 == total) 0.0 else math.log(total) / math.log(2.0)
+
+		frequencies map {
+			frequency => (if(0 == frequency) log2Total + 1.0 else log2Total - math.log(frequency) / math.log(2.0)).asInstanceOf[Float]
+		}
+	}
+
+	/**
+	 * Computes Huffman code lengths of at most <code>maxBits</code> bits.
+	 * Frequencies are flattened until the longest code fits.
+	 */
+	private[utils] def huffmanLengths(frequencies: Array[Int], maxBits: Int): Array[Int] = {
+		val result = new Array[Int](frequencies.length)
+		val symbols = (0 until frequencies.length filter { frequencies(_) != 0 }).toArray
+		val m = symbols.length
+
+		if(0 == m) {
+			return result
+		}
+
+		if(1 == m) {
+			result(symbols(0)) = 1
+			return result
+		}
+
+		var weights = symbols map { frequencies(_).asInstanceOf[Long] }
+
+		while(true) {
+			val order = (0 until m).toArray sortWith { (a, b) => weights(a) < weights(b) }
+			val nodeWeights = new Array[Long](2 * m - 1)
+			val parents = new Array[Int](2 * m - 1)
+			var leaf = 0
+			var node = m
+			var next = m
+
+			for(i <- 0 until m) {
+				nodeWeights(i) = weights(order(i))
+			}
+
+			@inline def pick() = {
+				if(leaf < m && (node >= next || nodeWeights(leaf) <= nodeWeights(node))) {
+					leaf += 1
+					leaf - 1
+				} else {
+					node += 1
+					node - 1
+				}
+			}
+
+			while(next < 2 * m - 1) {
+				val a = pick()
+				val b = pick()
+				nodeWeights(next) = nodeWeights(a) + nodeWeights(b)
+				parents(a) = next
+				parents(b) = next
+				next += 1
+			}
+
+			val depths = new Array[Int](2 * m - 1)
+			var i = 2 * m - 3
+			var maxDepth = 0
+
+			while(i >= 0) {
+				depths(i) = depths(parents(i)) + 1
+				if(i < m && depths(i) > maxDepth) maxDepth = depths(i)
+				i -= 1
+			}
+
+			if(maxDepth <= maxBits) {
+				for(i <- 0 until m) {
+					result(symbols(order(i))) = depths(i)
+				}
+
+				return result
+			}
+
+			weights = weights map { weight => (weight + 1L) >> 1 }
+		}
+
+		result
+	}
+
+	/**
+	 * Computes canonical Huffman codes with their bits reversed since
+	 * DEFLATE writes codes starting with the most significant bit.
+	 */
+	private[utils] def huffmanCodes(lengths: Array[Int]): Array[Int] = {
+		val count = new Array[Int](16)
+		val nextCode = new Array[Int](16)
+		val result = new Array[Int](lengths.length)
+
+		lengths foreach { length => count(length) += 1 }
+		count(0) = 0
+
+		var code = 0
+
+		for(bits <- 1 until 16) {
+			code = (code + count(bits - 1)) << 1
+			nextCode(bits) = code
+		}
+
+		for(i <- 0 until lengths.length) {
+			val length = lengths(i)
+
+			if(0 != length) {
+				result(i) = Integer.reverse(nextCode(length)) >>> (32 - length)
+				nextCode(length) += 1
+			}
+		}
+
+		result
+	}
+
+	private def writeBlock(writer: BitWriter, bytes: Array[Byte], block: Block, last: Boolean) = {
+		val dynamicBits = block.dynamicBits
+		val fixedBits = block.fixedBits
+		val storedBits = block.storedBits
+		val isFinal = if(last) 1 else 0
+
+		if(storedBits < dynamicBits && storedBits < fixedBits) {
+			var offset = block.from
+
+			do {
+				val length = math.min(MaxStoredLength, block.until - offset)
+				val isLast = offset + length == block.until
+
+				writer.writeBits(if(isLast) isFinal else 0, 1)
+				writer.writeBits(0, 2)
+				writer.align()
+				writer.writeByte(length & 0xff)
+				writer.writeByte((length >> 8) & 0xff)
+				writer.writeByte(~length & 0xff)
+				writer.writeByte((~length >> 8) & 0xff)
+				writer.writeBytes(bytes, offset, length)
+
+				offset += length
+			} while(offset < block.until)
+		} else if(fixedBits <= dynamicBits) {
+			writer.writeBits(isFinal, 1)
+			writer.writeBits(1, 2)
+			writeSymbols(writer, block, FixedLitLenLengths, FixedDistLengths)
+		} else {
+			val trees = block.dynamicTrees
+			val codeLengthCodes = huffmanCodes(trees.codeLengthLengths)
+
+			writer.writeBits(isFinal, 1)
+			writer.writeBits(2, 2)
+			writer.writeBits(trees.numLitLens - 257, 5)
+			writer.writeBits(trees.numDists - 1, 5)
+			writer.writeBits(trees.numCodeLengths - 4, 4)
+
+			for(i <- 0 until trees.numCodeLengths) {
+				writer.writeBits(trees.codeLengthLengths(CodeLengthOrder(i)), 3)
+			}
+
+			for(value <- trees.codeLengthSymbols) {
+				val symbol = value & 0x1f
+				writer.writeBits(codeLengthCodes(symbol), trees.codeLengthLengths(symbol))
+
+				extraBitsOfCodeLength(symbol) match {
+					case 0 =>
+					case n => writer.writeBits(value >> 5, n)
+				}
+			}
+
+			writeSymbols(writer, block, trees.litLenLengths, trees.distLengths)
+		}
+	}
+
+	private def writeSymbols(writer: BitWriter, block: Block, litLenLengths: Array[Int], distLengths: Array[Int]) = {
+		val litLenCodes = huffmanCodes(litLenLengths)
+		val distCodes = huffmanCodes(distLengths)
+		var i = 0
+
+		while(i < block.size) {
+			val litLen = block.litLens(i)
+			val distance = block.dists(i)
+
+			if(0 == distance) {
+				writer.writeBits(litLenCodes(litLen), litLenLengths(litLen))
+			} else {
+				val lengthSymbol = LengthSymbol(litLen)
+				val distSymbol = DistSymbol(distance)
+
+				writer.writeBits(litLenCodes(257 + lengthSymbol), litLenLengths(257 + lengthSymbol))
+				writer.writeBits(litLen - LengthBase(lengthSymbol), LengthExtra(lengthSymbol))
+				writer.writeBits(distCodes(distSymbol), distLengths(distSymbol))
+				writer.writeBits(distance - DistBase(distSymbol), DistExtra(distSymbol))
+			}
+
+			i += 1
+		}
+
+		writer.writeBits(litLenCodes(EndOfBlock), litLenLengths(EndOfBlock))
+	}
+
+	/**
+	 * Writes bits starting with the least significant bit.
+	 */
+	private final class BitWriter(output: JOutputStream) {
+		private val buffer = new Array[Byte](0x10000)
+		private var position = 0
+		private var bits = 0L
+		private var numBits = 0
+
+		def writeBits(value: Int, n: Int) = {
+			bits |= (value & ((1L << n) - 1L)) << numBits
+			numBits += n
+
+			while(numBits >= 8) {
+				put(bits.asInstanceOf[Int])
+				bits >>>= 8
+				numBits -= 8
+			}
+		}
+
+		def align() = if(0 != numBits) {
+			put(bits.asInstanceOf[Int])
+			bits = 0L
+			numBits = 0
+		}
+
+		def writeByte(value: Int) = {
+			align()
+			put(value)
+		}
+
+		def writeBytes(bytes: Array[Byte], offset: Int, length: Int) = {
+			align()
+			flush()
+			output.write(bytes, offset, length)
+		}
+
+		def flush() = {
+			output.write(buffer, 0, position)
+			position = 0
+		}
+
+		@inline private def put(value: Int) = {
+			if(position == buffer.length) {
+				flush()
+			}
+
+			buffer(position) = value.asInstanceOf[Byte]
+			position += 1
+		}
+	}
+}
@@ -21,6 +21,8 @@
 package apparat.utils
 
 import java.io.{
+	File => JFile,
+	FileOutputStream => JFileOutputStream,
 	InputStream => JInputStream,
 	OutputStream => JOutputStream,
 	Writer => JWriter,
@@ -104,6 +106,31 @@ object IO {
 		output.toByteArray()
 	}
 
+	/**
+	 * Writes the new content of <code>file</code> into a temporary file next
+	 * to it which replaces <code>file</code> once <code>body</code> has
+	 * completed. The old content stays readable until then, so it may still
+	 * be mapped into memory while it is rewritten.
+	 */
+	def replace(file: JFile)(body: JOutputStream => Unit): Unit = {
+		val target = file.getCanonicalFile
+		val temporary = JFile.createTempFile(target.getName+".new", ".tmp", target.getParentFile)
+		var replaced = false
+
+		try {
+			using(new JFileOutputStream(temporary))(body)
+			replaced = temporary.renameTo(target) || (target.delete() && temporary.renameTo(target))
+
+			if(!replaced) {
+				error("Could not replace "+target+" with "+temporary+".")
+			}
+		} finally {
+			if(!replaced && target.exists) {
+				temporary.delete()
+			}
+		}
+	}
+
 	def using[A, B <: { def close() }](stream: B)(body: B => A): A = {
 		try {
 			body(stream)
@@ -35,14 +35,47 @@ import java.io.{
 object TagContainer {
 	def fromFile(pathname: String): TagContainer = fromFile(new JFile(pathname))
 
-	def fromFile(file: JFile): TagContainer = {
-		val tc = new TagContainer
+	def fromFile(pathname: String, tagFactory: SwfTags.TagFactory): TagContainer = fromFile(new JFile(pathname), tagFactory)
+
+	def fromFile(file: JFile): TagContainer = fromFile(file, SwfTags.defaultTagFactory)
+
+	def fromFile(file: JFile, tagFactory: SwfTags.TagFactory): TagContainer = {
+		val tc = new TagContainer(tagFactory)
 		tc read file
 		tc
 	}
+
+	def fromMappedFile(pathname: String): TagContainer = fromMappedFile(new JFile(pathname))
+
+	def fromMappedFile(pathname: String, tagFactory: SwfTags.TagFactory): TagContainer = fromMappedFile(new JFile(pathname), tagFactory)
+
+	def fromMappedFile(file: JFile): TagContainer = fromMappedFile(file, SwfTags.defaultTagFactory)
+
+	def fromMappedFile(file: JFile, tagFactory: SwfTags.TagFactory): TagContainer = {
+		val tc = new TagContainer(tagFactory)
+		tc map file
+		tc
+	}
+
+	/**
+	 * Reads <code>input</code> which is going to be written to
+	 * <code>output</code>. The input is only mapped into memory if it is
+	 * not overwritten. A mapping is not released before it is collected
+	 * and Windows does not replace or delete a mapped file.
+	 */
+	def fromFileFor(input: JFile, output: JFile, tagFactory: SwfTags.TagFactory): TagContainer = {
+		if(input.getCanonicalFile == output.getCanonicalFile) {
+			fromFile(input, tagFactory)
+		} else {
+			fromMappedFile(input, tagFactory)
+		}
+	}
 }
 
-class TagContainer extends SwfTagMapping {
+/**
+ * @param tagFactory The factory for tags which are read by this container.
+ */
+class TagContainer(val tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) extends SwfTagMapping {
 	var strategy: Option[TagContainerStrategy] = None
 
 	def tags: List[SwfTag] = strategy match {
@@ -56,17 +89,17 @@ class TagContainer extends SwfTagMapping {
 	}
 
 	private def strategyFor(file: JFile) = file.getName.toLowerCase match {
-		case x if x endsWith ".swf" => Some(new SwfStrategy)
-		case x if x endsWith ".swc" => Some(new SwcStrategy)
+		case x if x endsWith ".swf" => Some(new SwfStrategy(tagFactory))
+		case x if x endsWith ".swc" => Some(new SwcStrategy(tagFactory))
 		case x => {
 			using(new JFileInputStream(file)) {
 				input => {
 					val b0 = input.read()
 
 					if(('F' == b0 || 'C' == b0) && 'W' == input.read() && 'S' == input.read()) {
-						Some(new SwfStrategy)
+						Some(new SwfStrategy(tagFactory))
 					} else if ('P' == b0 && 'K' == input.read()) {
-						Some(new SwcStrategy)
+						Some(new SwcStrategy(tagFactory))
 					} else {
 						None
 					}
@@ -89,10 +122,27 @@ class TagContainer extends SwfTagMapping {
 		}
 	}
 
+	/**
+	 * Reads the given file and maps it into memory if it is a SWF file.
+	 *
+	 * @see Swf#map
+	 */
+	def map(file: JFile): Unit = strategyFor(file) match {
+		case Some(x: SwfStrategy) => {
+			strategy = Some(x)
+			x map file
+		}
+		case _ => read(file)
+	}
+
 	def write(pathname: String): Unit = write(new JFile(pathname))
 
 	def write(file: JFile): Unit = {
 		strategy match {
+			case Some(x) if x isMappedTo file => {
+				x.materialize()
+				replace(file)(x write _)
+			}
 			case Some(x) => {
 				using(new JFileOutputStream(file))(output => {
 					x write output
@@ -111,6 +161,13 @@ class TagContainer extends SwfTagMapping {
 trait TagContainerStrategy {
 	def read(input: JInputStream, length: Long)
 
+	def isMappedTo(file: JFile): Boolean = false
+
+	/**
+	 * Copies all tag bodies which are views of their input into the heap.
+	 */
+	def materialize(): Unit = {}
+
 	def write(output: JOutputStream)
 
 	def tags: List[SwfTag]
@@ -118,7 +175,7 @@ trait TagContainerStrategy {
 	def tags_=(value: List[SwfTag])
 }
 
-class SwfStrategy extends TagContainerStrategy {
+class SwfStrategy(tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) extends TagContainerStrategy {
 	var swf: Option[Swf] = None
 
 	override def tags: List[SwfTag] = swf match {
@@ -132,9 +189,17 @@ class SwfStrategy extends TagContainerStrategy {
 	}
 
 	override def read(input: JInputStream, length: Long) = {
-		swf = Some(Swf fromInputStream (input, length))
+		swf = Some(Swf fromInputStream (input, length, tagFactory))
+	}
+
+	def map(file: JFile) = {
+		swf = Some(Swf fromMappedFile (file, tagFactory))
 	}
 
+	override def isMappedTo(file: JFile) = swf exists { _ isMappedTo file }
+
+	override def materialize() = swf foreach { _.materialize() }
+
 	override def write(output: JOutputStream) = {
 		swf match {
 			case Some(x) => x write output
@@ -143,7 +208,7 @@ class SwfStrategy extends TagContainerStrategy {
 	}
 }
 
-class SwcStrategy extends TagContainerStrategy {
+class SwcStrategy(tagFactory: SwfTags.TagFactory = SwfTags.defaultTagFactory) extends TagContainerStrategy {
 	var swc: Option[Swc] = None
 	var swf: Option[Swf] = None
 
@@ -159,7 +224,7 @@ class SwcStrategy extends TagContainerStrategy {
 
 	override def read(input: JInputStream, length: Long) = {
 		swc = Some(Swc fromInputStream input)
-		swf = Some(Swf fromSwc swc.getOrElse(error("Could not read SWC.")))
+		swf = Some(Swf fromSwc (swc.getOrElse(error("Could not read SWC.")), tagFactory))
 	}
 
 	override def write(output: JOutputStream) = {
@@ -0,0 +1,90 @@
+package apparat.abc
+
+import analysis.AbcConstantPoolBuilder
+import org.specs.SpecificationWithJUnit
+
+class AbcConstantPoolSpec extends SpecificationWithJUnit {
+  val ns = AbcNamespace(AbcNamespaceKind.Package, 'flash)
+  val sprite = AbcQName('Sprite, ns)
+
+  def pool = new AbcConstantPool(
+    Array(0, 7, 3, 7),
+    Array(0L, 9L),
+    Array(Double.NaN, 1.5, -0.0, Double.NaN),
+    Array(AbcConstantPool.EMPTY_STRING, 'flash, 'Sprite, 'flash),
+    Array(AbcConstantPool.EMPTY_NAMESPACE, ns),
+    Array(AbcConstantPool.EMPTY_NSSET),
+    Array(AbcConstantPool.EMPTY_NAME, sprite))
+
+  "Constant pool lookups" should {
+    "find the lowest index of a duplicate" >> {
+      pool indexOf 7 must_== 1
+      pool indexOf 'flash must_== 1
+    }
+
+    "find index zero for plain lookups only" >> {
+      pool indexOf 0 must_== 0
+      pool indexOf (Some(AbcConstantType.Int), Some(0)) must_== -1
+    }
+
+    "return -1 for missing values" >> {
+      pool indexOf 8 must_== -1
+      pool indexOf 8L must_== -1
+      pool indexOf 'Shape must_== -1
+      pool indexOf AbcQName('Shape, ns) must_== -1
+    }
+
+    "treat all NaN values as equal but skip index zero" >> {
+      pool indexOf Double.NaN must_== 3
+      pool indexOf (Some(AbcConstantType.Double), Some(Double.NaN)) must_== 3
+    }
+
+    "match signed zeros" >> {
+      pool indexOf -0.0 must_== 2
+      pool indexOf 0.0 must_== 2
+    }
+
+    "find structurally equal names" >> {
+      pool indexOf AbcQName('Sprite, AbcNamespace(AbcNamespaceKind.Package, 'flash)) must_== 1
+      pool indexOf ns must_== 1
+    }
+
+    "rebuild indexes after invalidation" >> {
+      val p = pool
+      p indexOf 3 must_== 2
+      p.ints(2) = 5
+      p.invalidateIndexes()
+      p indexOf 3 must_== -1
+      p indexOf 5 must_== 2
+    }
+  }
+
+  "Constant pool builders" should {
+    val vector = AbcQName('Vector, ns)
+    val vectorOfSprite = AbcTypename(vector, Array[AbcName](sprite))
+    val shape = AbcQName('Shape, ns)
+
+    def build(sizeAware: Boolean) = {
+      val builder = new AbcConstantPoolBuilder(sizeAware)
+      builder add shape
+      for(i <- 0 until 3) builder add vectorOfSprite
+      builder add 7
+      builder add 3
+      builder add 7
+      builder add -0.0
+      builder add 0.0
+      builder.createPool
+    }
+
+    "sort entries by frequency and recency" >> {
+      val p = build(false)
+      p.ints.toList must_== List(0, 7, 3)
+      (p.doubles.toList.tail map { _.toString }) must_== List("0.0", "-0.0")
+      p.names.toList must_== List(AbcConstantPool.EMPTY_NAME, sprite, vector, shape, vectorOfSprite)
+    }
+
+    "keep typenames behind the names they refer to" >> {
+      build(true).names.toList must_== List(AbcConstantPool.EMPTY_NAME, vector, sprite, vectorOfSprite, shape)
+    }
+  }
+}
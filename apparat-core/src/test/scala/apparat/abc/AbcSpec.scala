@@ -0,0 +1,69 @@
+package apparat.abc
+
+import org.specs.SpecificationWithJUnit
+import apparat.swf.{DoABC, Swf, SwfOutputStream}
+
+class AbcSpec extends SpecificationWithJUnit {
+  def load() = {
+    val swf = Swf fromFile "target/test-classes/myFunction.swf"
+    val abc = Abc fromDoABC (swf.tags collect { case doABC: DoABC => doABC }).head
+    abc.loadBytecode()
+    abc
+  }
+
+  def bodies(abc: Abc) = abc.methods.toList flatMap { _.body }
+
+  "Method bodies" should {
+    "be decoded on first access" >> {
+      val abc = load()
+      val body = bodies(abc).head
+
+      bodies(abc) forall { _.isPending } must beTrue
+      body.bytecode must beSome[apparat.bytecode.Bytecode]
+      body.isPending must beFalse
+      bodies(abc).tail forall { _.isPending } must beTrue
+    }
+
+    "keep the code of untouched bodies" >> {
+      val abc = load()
+      val codes = bodies(abc) map { _.code }
+
+      bodies(abc).head.bytecode
+      abc.saveBytecode()
+      (bodies(abc) map { _.code }) zip codes forall { x => x._1 eq x._2 } must beTrue
+    }
+
+    "encode modified bodies" >> {
+      val abc = load()
+      val body = bodies(abc).head
+      val code = body.code
+
+      body.bytecode foreach { bytecode => bytecode.ops = bytecode.ops }
+      abc.saveBytecode()
+      body.code mustNotBe code
+      body.code.toList must_== code.toList
+    }
+
+    "encode all bodies if the constant pool changes" >> {
+      val abc = load()
+      val codes = bodies(abc) map { _.code }
+
+      abc.cpool = abc.cpool
+      abc.saveBytecode()
+      (bodies(abc) map { _.code }) zip codes exists { x => x._1 eq x._2 } must beFalse
+    }
+  }
+
+  "DoABC tags" should {
+    "know the length of an ABC written into them" >> {
+      val abc = load()
+      val doABC = new DoABC()
+
+      doABC.name = "apparat"
+      abc write doABC
+      SwfOutputStream.bodyOf(doABC).length must_== doABC.length
+      doABC.abcData.toList must_== abc.toByteArray.toList
+      (Abc fromDoABC doABC).methods.length must_== abc.methods.length
+    }
+  }
+}
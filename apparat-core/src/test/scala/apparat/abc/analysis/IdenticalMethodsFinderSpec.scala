@@ -0,0 +1,57 @@
+package apparat.abc.analysis
+
+import org.specs.SpecificationWithJUnit
+import apparat.abc._
+
+class IdenticalMethodsFinderSpec extends SpecificationWithJUnit {
+  val global = AbcNamespace(AbcNamespaceKind.Package, Symbol(""))
+  val intName = AbcQName('int, global)
+
+  def method(code: Array[Byte], default: Int = 1, anonymous: Boolean = false) = {
+    val parameter = new AbcMethodParameter(intName)
+    parameter.optional = true
+    parameter.optionalVal = Some(default)
+
+    val result = new AbcMethod(Array(parameter), intName, 'f, false, false, false, true, false, false, false, false)
+    result.body = Some(new AbcMethodBody(2, 2, 0, 1, code, new Array(0), new Array(0)))
+    result.anonymous = anonymous
+    result
+  }
+
+  "IdenticalMethodsFinder" should {
+    "map duplicates to their first occurrence" >> {
+      val code = Array[Byte](0xd0.toByte, 0x30, 0xd1.toByte, 0x48)
+      val first = method(code)
+      val second = method(code.clone)
+      val third = method(code.clone)
+      val otherCode = method(Array[Byte](0xd0.toByte, 0x30, 0xd2.toByte, 0x48))
+      val otherDefault = method(code.clone, 2)
+      val anonymous = method(code.clone, anonymous = true)
+
+      //
+      // Enough distinct pairs to split the fingerprints and the buckets
+      // into more than one task.
+      //
+
+      val pairs = for(i <- 0 until 0x600) yield {
+        val body = Array.fill(0x40)(i.toByte) ++ BigInt(i).toByteArray
+        (method(body), method(body.clone))
+      }
+
+      val abc = new Abc()
+      abc.methods = Array(first, otherCode, second, anonymous, otherDefault, third) ++
+        (pairs map { _._1 }) ++ (pairs map { _._2 })
+
+      //
+      // Methods are compared by their index since their string
+      // representation is too large for a failure message.
+      //
+
+      def indices(mapping: Map[AbcMethod, AbcMethod]) =
+        (mapping.toList map { entry => (abc.methods indexOf entry._1, abc.methods indexOf entry._2) }).sorted
+
+      indices(IdenticalMethodsFinder(abc)) must_==
+        indices(Map(second -> first, third -> first) ++ (pairs map { pair => pair._2 -> pair._1 }))
+    }
+  }
+}
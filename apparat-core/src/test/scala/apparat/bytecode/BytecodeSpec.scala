@@ -0,0 +1,69 @@
+package apparat.bytecode
+
+import org.specs.SpecificationWithJUnit
+import apparat.abc.{Abc, AbcConstantPool, AbcExceptionHandler, AbcMethodBody}
+import operations._
+import combinator._
+import combinator.BytecodeChains._
+
+class BytecodeSpec extends SpecificationWithJUnit {
+  "Bytecode" should {
+    "replace operations by identity" >> {
+      val first = PushByte(1)
+      val second = PushByte(1)
+      val bytecode = Bytecode.bytecode { first :: second :: Add() :: Nil }
+
+      bytecode.replace(second, PushByte(2) :: PushByte(3) :: Nil)
+      bytecode.replace(first, Nop())
+      bytecode.ops map { _.opCode } must_== List(Op.nop, Op.pushbyte, Op.pushbyte, Op.add)
+      bytecode.ops(1) must_== bytecode.ops(1)
+      bytecode.ops(1).asInstanceOf[PushByte].value must_== 2
+    }
+
+    "replace operations which have been inserted by a replacement" >> {
+      val op = Pop()
+      val inserted = Dup()
+      val bytecode = Bytecode.bytecode { op :: Nil }
+
+      bytecode.replace(op, inserted :: op :: Nil)
+      bytecode.replace(op, Nop())
+      bytecode.replace(inserted, Swap())
+      bytecode.ops map { _.opCode } must_== List(Op.swap, Op.nop)
+    }
+
+    "forward markers on replacement" >> {
+      val target = Pop()
+      val bytecode = Bytecode.bytecode { Jump(null) :: target :: Nil }
+      val marker = bytecode.markers mark target
+      val replacement = Nop()
+
+      bytecode.replace(target, replacement)
+      marker.op must_== Some(replacement)
+    }
+
+    "patch markers of rewritten operations" >> {
+      val target = Pop()
+      val bytecode = Bytecode.bytecode { PushByte(1) :: target :: ReturnVoid() :: Nil }
+      val marker = bytecode.markers mark target
+
+      bytecode rewrite (partial { case x: PushByte => x } ~ partial { case x: Pop => x } ^^ { case a ~ b => Nil })
+      bytecode.ops map { _.opCode } must_== List(Op.returnvoid)
+      marker.op must_== Some(bytecode.ops.head)
+    }
+
+    "resolve markers of decoded bytecode" >> {
+      implicit val abc = new Abc()
+      val code = Array[Byte](0x26, 0x11, 0x01, 0x00, 0x00, 0x02, 0x47)
+      val handler = new AbcExceptionHandler(0, 7, 5, AbcConstantPool.EMPTY_NAME, AbcConstantPool.EMPTY_NAME)
+      val body = new AbcMethodBody(1, 1, 0, 1, code, Array(handler), Array())
+      val bytecode = BytecodeDecoder(code, body.exceptions, body)
+      val ops = bytecode.ops
+
+      ops map { _.opCode } must_== List(Op.pushtrue, Op.iftrue, Op.nop, Op.returnvoid)
+      ops(1).asInstanceOf[IfTrue].marker.op must_== Some(ops(3))
+      bytecode.exceptions(0).from.op must_== Some(ops(0))
+      bytecode.exceptions(0).to.op must_== None
+      bytecode.exceptions(0).target.op must_== Some(ops(2))
+    }
+  }
+}
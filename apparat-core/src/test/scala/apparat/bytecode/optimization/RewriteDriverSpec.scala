@@ -0,0 +1,75 @@
+package apparat.bytecode.optimization
+
+import org.specs.SpecificationWithJUnit
+import apparat.bytecode.Bytecode
+import apparat.bytecode.operations._
+
+class RewriteDriverSpec extends SpecificationWithJUnit {
+  def countdown(name: String, times: Int, trace: StringBuilder) = {
+    var remaining = times
+    new RewritePass(name, bytecode => {
+      trace append name
+      remaining -= 1
+      remaining >= 0
+    })
+  }
+
+  "RewriteDriver" should {
+    "run passes in rounds until nothing changes" >> {
+      val trace = new StringBuilder
+      val a = countdown("a", 1, trace)
+      val b = countdown("b", 2, trace)
+      val c = countdown("c", 0, trace)
+
+      RewriteDriver("test", Bytecode.bytecode { Nop() :: Nil }, List(a, b, c)) must_== List(a, b)
+      trace.toString must_== "abc" + "abc" + "ab"
+      c.skips must_== 1
+    }
+
+    "stop after the maximum number of rounds" >> {
+      val trace = new StringBuilder
+      val a = countdown("a", 100, trace)
+
+      RewriteDriver("test", Bytecode.bytecode { Nop() :: Nil }, List(a), 4)
+      a.runs must_== 4
+      a.hits must_== 4
+    }
+
+    "start incremental passes at the first modified operation" >> {
+      val third = Nop()
+      val bytecode = Bytecode.bytecode { Nop() :: Nop() :: third :: Nop() :: Nil }
+      var replaced = false
+      var starts = List.empty[Int]
+      val a = new RewritePass("a", bytecode => {
+        if(!replaced) {
+          bytecode.replace(third, PushNull() :: Pop() :: Nil)
+          replaced = true
+          true
+        } else {
+          false
+        }
+      })
+      val b = RewritePass.incremental("b") { (bytecode, from) =>
+        starts = from :: starts
+        false
+      }
+
+      RewriteDriver("test", bytecode, List(b, a)) must_== List(a)
+      starts.reverse must_== List(0, 2)
+    }
+
+    "track the first modified operation" >> {
+      val ops = Nop() :: PushNull() :: Pop() :: Nop() :: Nil
+      val bytecode = Bytecode.bytecode { ops }
+
+      bytecode.modifiedFrom must_== Int.MaxValue
+      bytecode.filterNot { _.isInstanceOf[Pop] }
+      bytecode.modifiedFrom must_== 2
+      bytecode.resetModifiedFrom()
+      bytecode.replace(ops(1), PushTrue())
+      bytecode.modifiedFrom must_== 1
+      bytecode.resetModifiedFrom()
+      bytecode.modifiedFrom must_== Int.MaxValue
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package apparat.swf
+
+import org.specs.SpecificationWithJUnit
+import java.io.ByteArrayInputStream
+
+class SwfInputStreamSpec extends SpecificationWithJUnit {
+  val bytes = Array[Byte](
+    0xa5.toByte, 0x0f,                                  // bits
+    0x34, 0x12,                                         // ui16
+    0x78, 0x56, 0x34, 0xf2.toByte,                      // ui32
+    'a', 'b', 0xc3.toByte, 0xa4.toByte, 0x00,           // string
+    0x01, 0x02, 0x03)                                   // bytes
+
+  def check(input: SwfInputStream) = {
+    input.readUB(3) must_== 5
+    input.readSB(5) must_== 5
+    input.readUB(8) must_== 0x0f
+    input.readUI16() must_== 0x1234
+    input.readUI32() must_== 0xf2345678L
+    input.readSTRING() must_== "abä"
+    input.readBytes(3).toList must_== List[Byte](1, 2, 3)
+    input.read() must_== -1
+  }
+
+  "SwfInputStream" should {
+    "read primitives from a stream" >> {
+      check(new SwfInputStream(new ByteArrayInputStream(bytes)))
+    }
+
+    "read primitives from a buffer" >> {
+      check(SwfInputStream(bytes))
+    }
+
+    "read zero bits" >> {
+      SwfInputStream(bytes).readUB(0) must_== 0
+    }
+
+    "slice without copying" >> {
+      val input = SwfInputStream(bytes)
+      input.readBytes(13)
+      val slice = input.slice(2)
+      slice.remaining must_== 2
+      slice.get() must_== 1
+      input.readUI08() must_== 3
+    }
+  }
+}
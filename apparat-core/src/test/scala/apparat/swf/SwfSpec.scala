@@ -2,6 +2,10 @@ package apparat.swf
 
 import org.specs.SpecificationWithJUnit
 import java.util.Date
+import java.io.{File => JFile, FileInputStream => JFileInputStream, RandomAccessFile => JRandomAccessFile}
+import java.nio.channels.FileChannel.MapMode
+import apparat.utils.IO._
+import apparat.utils.TagContainer
 
 
 /**
@@ -185,4 +189,57 @@ class SwfSpec extends SpecificationWithJUnit {
       idx must_!= -1
     }
   }
-}
\ No newline at end of file
+
+  "Mapped SWF file" should {
+    val directory = JFile.createTempFile("apparat", "swf")
+    directory.delete()
+    directory.mkdir()
+
+    val file = new JFile(directory, "Fp10App.swf")
+    def bytes = using(new JFileInputStream(file)) { byteArrayOf(_) }
+
+    val swf = Swf fromFile "target/test-classes/Fp10App.swf"
+    swf.compressed = false
+    swf write file
+
+    val expected = bytes.toList
+
+    doAfter {
+      directory.listFiles foreach { _.delete() }
+      directory.delete()
+    }
+
+    "be written back to the file it is mapped from" >> {
+      val mapped = Swf fromMappedFile file
+
+      mapped isMappedTo file must beTrue
+      mapped write file
+      mapped isMappedTo file must beFalse
+      bytes.toList must_== expected
+      directory.list.toList must_== List(file.getName)
+      (Swf fromFile file).tags.length must_== swf.tags.length
+    }
+
+    "not refer to the mapping once it has been replaced" >> {
+      val mapping = using(new JRandomAccessFile(file, "r")) { _.getChannel.map(MapMode.READ_ONLY, 0, file.length) }
+      val mapped = Swf fromMappedFile (file, kind => None)
+
+      (mapped.tags collect { case tag: GenericTag => tag }) exists { _.isLazy } must beTrue
+      mapped write file
+      (mapped.tags collect { case tag: GenericTag => tag }) exists { _.isLazy } must beFalse
+      mapping.get(0) must_== 'F'.toByte
+      bytes.toList must_== expected
+      directory.list.toList must_== List(file.getName)
+    }
+
+    "not be mapped if it is going to be overwritten" >> {
+      val container = TagContainer fromFileFor (file, file, SwfTags.defaultTagFactory)
+      val other = TagContainer fromFileFor (file, new JFile(directory, "Other.swf"), SwfTags.defaultTagFactory)
+
+      container.strategy exists { _ isMappedTo file } must beFalse
+      other.strategy exists { _ isMappedTo file } must beTrue
+      container write file
+      bytes.toList must_== expected
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package apparat.tools.reducer
+
+import org.specs.SpecificationWithJUnit
+import apparat.swf.{DefineBitsJPEG2, DefineBitsLossless2}
+import collection.mutable.ListBuffer
+import java.awt.image.{BufferedImage => JBufferedImage}
+import java.util.zip.Deflater
+
+class BitmapTranscoderSpec extends SpecificationWithJUnit {
+  //
+  // The stub stores the quality step in its data. The data grows by ten
+  // bytes per step and the blue channel of every pixel is off by
+  // 101 - step when it is decoded, so a step reaches
+  // 10 * log10(3 * 255 * 255 / (101 - step)^2) dB.
+  //
+
+  class StubEncoder extends JPEGEncoder {
+    val steps = ListBuffer.empty[Int]
+    private var pixels = new Array[Int](0)
+
+    override def encode(image: JBufferedImage, quality: Float) = {
+      val step = math.round(quality * 100.0f)
+      steps += step
+      pixels = image getRGB (0, 0, image.getWidth, image.getHeight, null, 0, image.getWidth)
+      Array.fill(100 + 10 * step)(step.toByte)
+    }
+
+    override def decode(data: Array[Byte]) = pixels map { _ - (101 - data(0)) }
+  }
+
+  def bitmap = {
+    val random = new scala.util.Random(1)
+    val argb = Array.tabulate(64 * 64 * 4) {
+      i => (i & 3) match {
+        case 0 => -1.toByte
+        case 3 => 200.toByte
+        case _ => random.nextInt.toByte
+      }
+    }
+
+    val deflater = new Deflater()
+    val buffer = new Array[Byte](argb.length * 2)
+    deflater setInput argb
+    deflater.finish()
+
+    val tag = new DefineBitsLossless2()
+    tag.bitmapFormat = 5
+    tag.bitmapWidth = 64
+    tag.bitmapHeight = 64
+    tag.zlibBitmapData = buffer take (deflater deflate buffer)
+    deflater.end()
+    tag
+  }
+
+  def transcode(psnr: Float, budget: Int) = {
+    val encoder = new StubEncoder()
+
+    new BitmapTranscoder(1.0f, 0.0f, psnr, budget, () => encoder, 1)(List(bitmap)) match {
+      case List(tag: DefineBitsJPEG2) => {
+        encoder.steps.distinct.length must_== encoder.steps.length
+        tag.imageData(0).toInt
+      }
+      case other => fail("Expected a JPEG but got "+other); -1
+    }
+  }
+
+  "BitmapTranscoder" should {
+    "pick the lowest quality which reaches the PSNR" >> {
+      transcode(30.0f, 0) must_== 88
+    }
+
+    "pick the highest quality which fits the budget" >> {
+      transcode(0.0f, 600) must_== 50
+    }
+
+    "lower the quality for the PSNR until it fits the budget" >> {
+      transcode(30.0f, 800) must_== 70
+      transcode(30.0f, 2000) must_== 88
+    }
+
+    "use the maximum quality if the PSNR cannot be reached" >> {
+      transcode(60.0f, 0) must_== 100
+    }
+
+    "use the lowest quality if the budget cannot be met" >> {
+      transcode(0.0f, 50) must_== 0
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package apparat.utils
+
+import org.specs.SpecificationWithJUnit
+import java.io.{File => JFile, FileOutputStream => JFileOutputStream, FileInputStream => JFileInputStream}
+
+class BuildCacheSpec extends SpecificationWithJUnit {
+  var directories = List.empty[JFile]
+
+  def temporaryDirectory() = {
+    val directory = JFile.createTempFile("apparat", "cache")
+    directory.delete()
+    directory.mkdirs()
+    directories = directory :: directories
+    directory
+  }
+
+  def delete(file: JFile): Unit = {
+    if(file.isDirectory) {
+      file.listFiles foreach delete
+    }
+
+    file.delete()
+  }
+
+  def write(file: JFile, value: String) = IO.using(new JFileOutputStream(file)) { _ write value.getBytes("UTF-8") }
+
+  def read(file: JFile) = new String(IO.using(new JFileInputStream(file)) { IO.byteArrayOf(_) }, "UTF-8")
+
+  "BuildCache" should {
+    doAfter {
+      directories foreach delete
+      directories = Nil
+    }
+
+    "restore stored outputs" >> {
+      val directory = temporaryDirectory()
+      val file = new JFile(directory, "input.swf")
+      val cache = new BuildCache(new JFile(directory, "cache"), "tool", Array("a=1"), Array.empty)
+
+      write(file, "input")
+      val key = cache keyOf file
+      cache.restore(key, file) must beFalse
+      write(file, "output")
+      cache.store(key, file)
+
+      write(file, "input")
+      cache.restore(key, file) must beTrue
+      read(file) must_== "output"
+    }
+
+    "recognize processed outputs" >> {
+      val directory = temporaryDirectory()
+      val file = new JFile(directory, "input.swf")
+      val cache = new BuildCache(new JFile(directory, "cache"), "tool", Array("a=1"), Array.empty)
+
+      write(file, "input")
+      val key = cache keyOf file
+      write(file, "output")
+      cache.store(key, file)
+      cache.restore(cache keyOf file, file) must beTrue
+      read(file) must_== "output"
+    }
+
+    "use the configuration as part of the key" >> {
+      val directory = temporaryDirectory()
+      val file = new JFile(directory, "input.swf")
+      val cacheDirectory = new JFile(directory, "cache")
+
+      write(file, "input")
+      val key = new BuildCache(cacheDirectory, "tool", Array("a=1"), Array.empty) keyOf file
+      new BuildCache(cacheDirectory, "tool", Array("a=2"), Array.empty) keyOf file must_!= key
+      new BuildCache(cacheDirectory, "other", Array("a=1"), Array.empty) keyOf file must_!= key
+    }
+
+    "use the output properties as part of the key" >> {
+      val directory = temporaryDirectory()
+      val file = new JFile(directory, "input.swf")
+      val cacheDirectory = new JFile(directory, "cache")
+
+      write(file, "input")
+      val key = new BuildCache(cacheDirectory, "tool", Array("a=1"), Array.empty) keyOf file
+      val previous = System.setProperty("apparat.deflate.iterations", "1")
+
+      try {
+        new BuildCache(cacheDirectory, "tool", Array("a=1"), Array.empty) keyOf file must_!= key
+      } finally {
+        if(null == previous) System.clearProperty("apparat.deflate.iterations")
+        else System.setProperty("apparat.deflate.iterations", previous)
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package apparat.utils
+
+import org.specs.SpecificationWithJUnit
+import java.io.ByteArrayOutputStream
+import java.util.zip.Inflater
+
+class DeflateEncoderSpec extends SpecificationWithJUnit {
+  def roundTrip(bytes: Array[Byte], chunkSize: Int = DeflateEncoder.DefaultChunkSize) = {
+    val output = new ByteArrayOutputStream()
+    DeflateEncoder.compress(bytes, output, 2, chunkSize)
+
+    val inflater = new Inflater()
+    val result = new Array[Byte](bytes.length)
+    inflater setInput output.toByteArray
+    inflater.inflate(result) must_== bytes.length
+    inflater.finished must beTrue
+    inflater.end()
+
+    java.util.Arrays.equals(result, bytes) must beTrue
+  }
+
+  "DeflateEncoder" should {
+    "encode empty input" >> {
+      roundTrip(new Array[Byte](0))
+    }
+
+    "encode repetitive input" >> {
+      roundTrip(("apparat " * 1000).getBytes("UTF-8"))
+    }
+
+    "encode random input as stored blocks" >> {
+      val random = new scala.util.Random(1)
+      roundTrip(Array.fill(0x12000)(random.nextInt.toByte))
+    }
+
+    "encode matches across chunks" >> {
+      roundTrip(("abcdefgh" * 0x1000).getBytes("UTF-8"), 0x1000)
+    }
+
+    "limit code lengths" >> {
+      val frequencies = Array.tabulate(30) { i => 1 << (i min 24) }
+      DeflateEncoder.huffmanLengths(frequencies, 15).max must be_<=(15)
+    }
+  }
+}
@@ -25,7 +25,7 @@ import apparat.log.{SimpleLog, Debug, Info, Log}
 import math.TwipsMath
 import scala.util.Properties
 import apparat.abc.Abc
-import apparat.utils.IO._
+import apparat.utils.BuildCache
 import apparat.taas.frontend.abc.AbcFrontend
 import apparat.taas.TaasCompiler
 import java.lang.{Thread => JThread}
@@ -33,11 +33,10 @@ import flash.display.{DisplayObject, Stage, Sprite}
 import java.util.{TimerTask, Timer}
 import jitb.display.DisplaySystem
 import jitb.errors.{ErrorUtil, Throw}
-import apparat.taas.backend.jbc.{JbcClassWriter, JbcClassLoader, JbcBackend}
-import java.io.{File => JFile}
+import apparat.taas.backend.jbc.{JbcClassCache, JbcClassWriter, JbcClassLoader, JbcBackend}
+import java.io.{File => JFile, IOException => JIOException}
 import jitb.lang.AVM
 import jitb.events.EventSystem
-import apparat.swc.Swc
 import apparat.swf.{DoABC, SymbolClass, SwfTags, Swf}
 import org.lwjgl.input.Mouse
 
@@ -120,20 +119,29 @@ class JITB(configuration: JITBConfiguration) extends SimpleLog {
 		// We do not care at this point where the ABC occurs in the SWF.
 		//
 
-		val binaries = compile(Abc fromSwf swf get)
-		val loader = new JbcClassLoader(binaries, JThread.currentThread.getContextClassLoader)
-		JThread.currentThread setContextClassLoader loader
-
-		if(JITB.DEBUG) {
-			log.debug("Verifying generated Java code...")
-			for((key, value) <- binaries) {
-				JCheckClassAdapter.verify(new JClassReader(value), loader, true,
-					new JPrintWriter(Console.out))
+		val parent = JThread.currentThread.getContextClassLoader
+		val loader = if(configuration.lazyCompilation) {
+			log.debug("Generating classes on demand.")
+			new JbcClassLoader(frontendOf(Abc fromDoABC doABCOf(swf)), parent)
+		} else {
+			val binaries = classesOf(swf)
+			val loader = new JbcClassLoader(binaries, parent)
+
+			if(JITB.DEBUG) {
+				log.debug("Verifying generated Java code...")
+				for((key, value) <- binaries) {
+					JCheckClassAdapter.verify(new JClassReader(value), loader, true,
+						new JPrintWriter(Console.out))
+				}
+				Thread sleep 100
 			}
-			Thread sleep 100
+
+			//new JbcClassWriter(binaries).write(new JFile("/home/joa/classes"))
+
+			loader
 		}
 
-		//new JbcClassWriter(binaries).write(new JFile("/home/joa/classes"))
+		JThread.currentThread setContextClassLoader loader
 
 		val main = Class.forName(mainClass, true, loader)
 
@@ -163,46 +171,56 @@ class JITB(configuration: JITBConfiguration) extends SimpleLog {
 		}
 	}
 
+	/**
+	 * Compiles the ABC of <code>swf</code> or loads its classes from the
+	 * class cache.
+	 */
+	def classesOf(swf: Swf) = {
+		val doABC = doABCOf(swf)
+
+		configuration.cacheDirectory match {
+			case Some(directory) => {
+				val cache = new JbcClassCache(directory, BuildCache versionOf classOf[JITB])
+				val key = cache keyOf doABC.abcData
+
+				cache load key match {
+					case Some(classes) => {
+						log.debug("Using cached classes %s.", key)
+						classes
+					}
+					case None => {
+						val classes = compile(Abc fromDoABC doABC)
+
+						try {
+							cache store (key, classes)
+						} catch {
+							case exception: JIOException => log.warning("Could not store classes in cache %s: %s", directory, exception.getMessage)
+						}
+
+						classes
+					}
+				}
+			}
+			case None => compile(Abc fromDoABC doABC)
+		}
+	}
+
 	def compile(abc: Abc) = {
-		val frontend = new AbcFrontend(abc, builtins)
 		val backend = new JbcBackend()
-		val comp = new TaasCompiler(frontend, backend)
+		val comp = new TaasCompiler(frontendOf(abc), backend)
 
 		comp.compile()
 
 		backend.classMap
 	}
 
-	lazy val builtins = {
-		val builtin = getClass getResource "/builtin.abc"
-		val toplevel = getClass getResource "/toplevel.abc"
-		val playerglobal = getClass getResource "/playerglobal.swc"
-		val ersatz = getClass getResource "/apparat-ersatz.swc"
-
-		if(null == builtin) {
-			log.debug("Failed to load /builtin.abc")
-			true
-		} else if(null == toplevel) {
-			log.debug("Failed to load /toplevel.abc")
-			true
-		} else if(null == playerglobal) {
-			log.debug("Failed to load /playerglobal.swc")
-			true
-		} else if(null == ersatz) {
-			log.debug("Failed to load /apparat-ersatz.swc")
-			true
-		} else { false } match {
-			case true => throw JITBException("Could not load builtins.")
-			case false =>
-		}
-
-		val builtinABC = using(builtin.openStream) { Abc fromInputStream _ }
-		val toplevelABC = using(toplevel.openStream) { Abc fromInputStream _ }
-		val playerglobalSWC = using(playerglobal.openStream) { Swc fromInputStream _ }
-		val ersatzSWC = using(ersatz.openStream) { Swc fromInputStream _ }
-		def collect(value: Swc) = (Swf fromSwc value).tags collect { case doABC: DoABC => Abc fromDoABC doABC }
+	private def doABCOf(swf: Swf) = swf.tags collectFirst {
+		case doABC: DoABC if doABC.kind == SwfTags.DoABC => doABC
+	} getOrElse { throw JITBException("Could not find ABC.") }
 
-		(builtinABC :: toplevelABC :: Nil) ::: collect(playerglobalSWC) ::: collect(ersatzSWC)
+	private def frontendOf(abc: Abc) = JITBLibraries.index match {
+		case Some(index) => new AbcFrontend(abc, index)
+		case None => new AbcFrontend(abc, JITBLibraries.libraries)
 	}
 
 	private def runWithDisplay(swf: Swf, main: Class[_]): Unit = {
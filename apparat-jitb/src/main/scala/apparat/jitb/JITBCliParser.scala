@@ -48,8 +48,19 @@ class JITBCliParser(arguments: Array[String]) {
 			throw JITBCliParserException("Cannot read "+input+".")
 		}
 
+		val cache = if(System.getProperty("apparat.jitb.useCache", "true").toLowerCase == "true") {
+			Some(new JFile(System.getProperty("apparat.jitb.cacheDirectory",
+				System.getProperty("java.io.tmpdir")+JFile.separator+"apparat-jitb")))
+		} else {
+			None
+		}
+
+		val lazyClasses = System.getProperty("apparat.jitb.lazy", "false").toLowerCase == "true"
+
 		new JITBConfiguration {
 			override def file = input
+			override def cacheDirectory = cache
+			override def lazyCompilation = lazyClasses
 		}
 	}
 }
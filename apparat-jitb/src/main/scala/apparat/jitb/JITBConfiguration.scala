@@ -27,4 +27,16 @@ import java.io.{File => JFile}
  */
 trait JITBConfiguration {
 	def file: JFile
+
+	/**
+	 * The directory of the class cache or <code>None</code> to compile
+	 * the file on every launch.
+	 */
+	def cacheDirectory: Option[JFile]
+
+	/**
+	 * Whether classes are compiled when they are loaded instead of all at
+	 * once. The class cache is not used in this mode.
+	 */
+	def lazyCompilation: Boolean
 }
@@ -0,0 +1,93 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.jitb
+
+import apparat.abc.Abc
+import apparat.log.SimpleLog
+import apparat.swc.Swc
+import apparat.swf.{DoABC, Swf}
+import apparat.taas.frontend.abc.AbcLibraryIndex
+import apparat.utils.IO._
+import java.io.{File => JFile}
+
+/**
+ * The libraries JITB compiles against.
+ *
+ * Running this object writes the index of the libraries to the file given
+ * as its only argument. The build stores it as <code>/builtins.idx</code>
+ * so JITB does not have to parse the libraries at startup.
+ */
+object JITBLibraries extends SimpleLog {
+	val INDEX = "/builtins.idx"
+
+	def main(arguments: Array[String]): Unit = {
+		if(1 != arguments.length) {
+			throw JITBException("Usage: JITBLibraries [index]")
+		}
+
+		AbcLibraryIndex.write(libraries, new JFile(arguments(0)))
+	}
+
+	/**
+	 * The prebuilt index of the libraries if it is available. It is only
+	 * mapped into memory if the resource is a file; the index packaged
+	 * with JITB is read into the heap.
+	 */
+	lazy val index: Option[AbcLibraryIndex] = getClass getResource INDEX match {
+		case null => {
+			log.debug("Failed to load %s", INDEX)
+			None
+		}
+		case url => Some(AbcLibraryIndex fromURL url)
+	}
+
+	lazy val libraries: List[Abc] = {
+		val builtin = getClass getResource "/builtin.abc"
+		val toplevel = getClass getResource "/toplevel.abc"
+		val playerglobal = getClass getResource "/playerglobal.swc"
+		val ersatz = getClass getResource "/apparat-ersatz.swc"
+
+		if(null == builtin) {
+			log.debug("Failed to load /builtin.abc")
+			true
+		} else if(null == toplevel) {
+			log.debug("Failed to load /toplevel.abc")
+			true
+		} else if(null == playerglobal) {
+			log.debug("Failed to load /playerglobal.swc")
+			true
+		} else if(null == ersatz) {
+			log.debug("Failed to load /apparat-ersatz.swc")
+			true
+		} else { false } match {
+			case true => throw JITBException("Could not load builtins.")
+			case false =>
+		}
+
+		val builtinABC = using(builtin.openStream) { Abc fromInputStream _ }
+		val toplevelABC = using(toplevel.openStream) { Abc fromInputStream _ }
+		val playerglobalSWC = using(playerglobal.openStream) { Swc fromInputStream _ }
+		val ersatzSWC = using(ersatz.openStream) { Swc fromInputStream _ }
+		def collect(value: Swc) = (Swf fromSwc value).tags collect { case doABC: DoABC => Abc fromDoABC doABC }
+
+		(builtinABC :: toplevelABC :: Nil) ::: collect(playerglobalSWC) ::: collect(ersatzSWC)
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.jitb
+
+import org.specs.SpecificationWithJUnit
+import apparat.abc._
+import apparat.bytecode.Bytecode
+import apparat.bytecode.operations._
+import apparat.taas.backend.jbc.JbcClassLoader
+import apparat.taas.frontend.abc.AbcFrontend
+import java.lang.reflect.{InvocationTargetException => JInvocationTargetException}
+import jitb.errors.DynamicCodeException
+
+class PropertyAccessSpec extends SpecificationWithJUnit {
+  val global = AbcNamespace(AbcNamespaceKind.Package, Symbol(""))
+  val pckg = AbcNamespace(AbcNamespaceKind.Package, 'foo)
+  val anyName = AbcConstantPool.EMPTY_NAME
+  val voidName = AbcQName('void, global)
+  val stringName = AbcQName('String, global)
+  val intName = AbcQName('int, global)
+  val numberName = AbcQName('Number, global)
+
+  def untyped(name: Symbol) = AbcMultiname(name, AbcNSSet(Array(global)))
+
+  def method(name: Symbol, returnType: AbcName, parameters: AbcName*)(ops: AbstractOp*) = {
+    val result = new AbcMethod(parameters.toArray map { new AbcMethodParameter(_) }, returnType, name,
+      false, false, false, false, false, false, false, false)
+    result.body = Some(new AbcMethodBody(3, parameters.length + 1, 0, 1, new Array(0), new Array(0), new Array(0),
+      Some(Bytecode.bytecode { ops.toList })))
+    result
+  }
+
+  def methodTrait(kind: (AbcQName, Int, AbcMethod, Boolean, Boolean, Option[Array[AbcMetadata]]) => AbcTrait,
+            name: Symbol, returnType: AbcName, parameters: AbcName*)(ops: AbstractOp*) =
+    kind(AbcQName(name, global), 0, method(name, returnType, parameters: _*)(ops: _*), false, false, None)
+
+  //
+  // The accesses in the methods which take an untyped parameter go
+  // through a property site.
+  //
+
+  def target = {
+    val inst = new AbcInstance(AbcQName('Bar, pckg), Some(AbcQName('Object, global)), true, false, false, false, None, new Array(0),
+      method('Bar, voidName)(GetLocal(0), ConstructSuper(0), ReturnVoid()),
+      Array(
+        AbcTraitSlot(AbcQName('text, global), 0, stringName, None, None, None),
+        AbcTraitSlot(AbcQName('count, global), 0, intName, None, None, None),
+        methodTrait(AbcTraitGetter, 'label, stringName)(GetLocal(0), GetProperty(AbcQName('text, global)), ReturnValue()),
+        methodTrait(AbcTraitSetter, 'label, voidName, stringName)(GetLocal(0), GetLocal(1), SetProperty(AbcQName('text, global)), ReturnVoid()),
+        methodTrait(AbcTraitSetter, 'size, voidName, intName)(GetLocal(0), GetLocal(1), SetProperty(AbcQName('count, global)), ReturnVoid()),
+        methodTrait(AbcTraitMethod, 'name, stringName)(PushString('Bar), ReturnValue()),
+        methodTrait(AbcTraitMethod, 'readLabel, stringName, anyName)(GetLocal(1), GetProperty(untyped('label)), ReturnValue()),
+        methodTrait(AbcTraitMethod, 'writeLabel, voidName, anyName, stringName)(GetLocal(1), GetLocal(2), SetProperty(untyped('label)), ReturnVoid()),
+        methodTrait(AbcTraitMethod, 'readName, stringName, anyName)(GetLocal(1), GetProperty(untyped('name)), ReturnValue()),
+        methodTrait(AbcTraitMethod, 'writeCount, voidName, anyName, numberName)(GetLocal(1), GetLocal(2), SetProperty(untyped('count)), ReturnVoid()),
+        methodTrait(AbcTraitMethod, 'writeSize, voidName, anyName, numberName)(GetLocal(1), GetLocal(2), SetProperty(untyped('size)), ReturnVoid())))
+    val nominal = new AbcNominalType(inst)
+    nominal.klass = new AbcClass(method('cinit, voidName)(ReturnVoid()), new Array(0))
+
+    val abc = new Abc()
+    abc.scripts = Array(new AbcScript(method('init, voidName)(ReturnVoid()),
+      Array(AbcTraitClass(AbcQName('Bar, pckg), 0, nominal, None))))
+    abc
+  }
+
+  "Untyped property access" should {
+    val loader = new JbcClassLoader(new AbcFrontend(target, Nil), getClass.getClassLoader)
+    val bar = loader loadClass "foo.Bar"
+    val instance = bar.newInstance.asInstanceOf[AnyRef]
+
+    def invoke(name: String, arguments: AnyRef*) = try {
+      (bar.getMethods find { _.getName == name }).get.invoke(instance, arguments: _*)
+    } catch {
+      case e: JInvocationTargetException => throw e.getCause
+    }
+
+    "bind getters and setters" >> {
+      invoke("writeLabel", instance, "x")
+      invoke("readLabel", instance) must_== "x"
+    }
+
+    "convert numbers to the type of a field" >> {
+      invoke("writeCount", instance, java.lang.Double.valueOf(1.5))
+      bar getField "count" getInt instance must_== 1
+    }
+
+    "convert numbers to the type of a setter" >> {
+      invoke("writeSize", instance, java.lang.Double.valueOf(2.75))
+      bar getField "count" getInt instance must_== 2
+    }
+
+    "not bind ordinary methods" >> {
+      invoke("readName", instance) must throwA[DynamicCodeException]
+    }
+  }
+}
@@ -4,7 +4,7 @@ package apparat.sevenzip.compression.lz;
 import java.io.IOException;
 
 
-public class BinTree extends InWindow
+public class BinTree extends InWindow implements IMatchFinder
 {
 	int _cyclicBufferPos;
 	int _cyclicBufferSize = 0;
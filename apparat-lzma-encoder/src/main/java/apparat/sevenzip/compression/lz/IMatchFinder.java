@@ -0,0 +1,18 @@
+// LZ.IMatchFinder
+
+package apparat.sevenzip.compression.lz;
+
+import java.io.IOException;
+
+public interface IMatchFinder
+{
+	boolean Create(int historySize, int keepAddBufferBefore, int matchMaxLen, int keepAddBufferAfter);
+	void SetStream(java.io.InputStream stream);
+	void Init() throws IOException;
+	void ReleaseStream();
+	int GetMatches(int[] distances) throws IOException;
+	void Skip(int num) throws IOException;
+	byte GetIndexByte(int index);
+	int GetMatchLen(int index, int distance, int limit);
+	int GetNumAvailableBytes();
+}
@@ -0,0 +1,349 @@
+// LZ.MatchFinderMt
+
+package apparat.sevenzip.compression.lz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the BinTree match finder on separate threads while the encoder
+ * consumes its results.
+ *
+ * A producer walks every position of the input with its own BinTree and
+ * passes the found matches in blocks to the encoder. The tree is updated
+ * the same way for GetMatches and Skip so with a single producer the
+ * output equals the output of the plain BinTree.
+ *
+ * In chunked mode the input is split into chunks which are searched in
+ * parallel. Each producer first inserts up to <code>chunkSize</code>
+ * bytes in front of its chunk so matches may cross the chunk boundary
+ * but not reach further back. The encoder still writes a single stream.
+ */
+public class MatchFinderMt implements IMatchFinder
+{
+	static final int kBlockSize = 1 << 16;
+	static final int kNumBlocksAhead = 64;
+	static final int[] kEndOfChunk = new int[0];
+
+	final int _numHashBytes;
+	final int _numThreads;
+	final int _chunkSize;
+
+	int _historySize;
+	int _keepAddBufferBefore;
+	int _matchMaxLen;
+	int _keepAddBufferAfter;
+
+	java.io.InputStream _stream;
+	long _streamSize = -1;
+	byte[] _buffer;
+	int _pos;
+	int _streamPos;
+
+	ExecutorService _executor;
+	Producer[] _producers;
+	int _producerIndex;
+	int[] _block;
+	int _blockPos;
+
+	/**
+	 * @param numHashBytes The number of hash bytes of the BinTree.
+	 * @param numThreads The number of producer threads.
+	 * @param chunkSize The chunk size in bytes or zero to use a single producer.
+	 */
+	public MatchFinderMt(int numHashBytes, int numThreads, int chunkSize)
+	{
+		_numHashBytes = numHashBytes;
+		_numThreads = Math.max(1, numThreads);
+		_chunkSize = chunkSize;
+	}
+
+	public boolean Create(int historySize, int keepAddBufferBefore, int matchMaxLen, int keepAddBufferAfter)
+	{
+		if (historySize > BinTree.kMaxValForNormalize - 256)
+			return false;
+		_historySize = historySize;
+		_keepAddBufferBefore = keepAddBufferBefore;
+		_matchMaxLen = matchMaxLen;
+		_keepAddBufferAfter = keepAddBufferAfter;
+		return true;
+	}
+
+	public void SetStream(java.io.InputStream stream) { _stream = stream; }
+
+	/**
+	 * @param streamSize The length of the stream or -1 if it is unknown.
+	 */
+	public void SetStreamSize(long streamSize) { _streamSize = streamSize; }
+
+	public void Init() throws IOException
+	{
+		ReleaseProducers();
+		ReadFully();
+
+		_pos = 0;
+		_block = null;
+		_blockPos = 0;
+		_producerIndex = 0;
+
+		int chunkSize = (_chunkSize > 0) ? _chunkSize : Math.max(1, _streamPos);
+		int numChunks = Math.max(1, (_streamPos + chunkSize - 1) / chunkSize);
+
+		_producers = new Producer[numChunks];
+		for (int i = 0; i < numChunks; i++)
+		{
+			int from = i * chunkSize;
+			int to = Math.min(_streamPos, from + chunkSize);
+			int prime = (_chunkSize > 0) ? Math.min(from, Math.min(_chunkSize, _historySize)) : 0;
+			_producers[i] = new Producer(from - prime, from, to, numChunks > 1);
+		}
+
+		_executor = Executors.newFixedThreadPool(Math.min(_numThreads, numChunks), new ThreadFactory()
+		{
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "LZMA match finder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		//
+		// Chunks are buffered completely so only a limited number of them
+		// is searched ahead of the encoder.
+		//
+
+		for (int i = 0; i <= _numThreads && i < numChunks; i++)
+			_executor.execute(_producers[i]);
+	}
+
+	public void ReleaseStream()
+	{
+		ReleaseProducers();
+		_stream = null;
+		_buffer = null;
+	}
+
+	void ReleaseProducers()
+	{
+		if (_executor != null)
+		{
+			_executor.shutdownNow();
+			_executor = null;
+		}
+		_producers = null;
+		_block = null;
+	}
+
+	void ReadFully() throws IOException
+	{
+		if (_streamSize < 0 || _streamSize >= Integer.MAX_VALUE)
+		{
+			_buffer = ReadRest(new byte[0], 0);
+			_streamPos = _buffer.length;
+			return;
+		}
+
+		byte[] buffer = new byte[(int)_streamSize];
+		int length = 0;
+		int numReadBytes;
+		while (length < buffer.length && (numReadBytes = _stream.read(buffer, length, buffer.length - length)) != -1)
+			length += numReadBytes;
+
+		if (length < buffer.length)
+			buffer = java.util.Arrays.copyOf(buffer, length);
+		else if ((numReadBytes = _stream.read()) != -1)
+		{
+			buffer = java.util.Arrays.copyOf(buffer, length + 1);
+			buffer[length] = (byte)numReadBytes;
+			buffer = ReadRest(buffer, length + 1);
+		}
+
+		_buffer = buffer;
+		_streamPos = _buffer.length;
+	}
+
+	byte[] ReadRest(byte[] head, int length) throws IOException
+	{
+		java.io.ByteArrayOutputStream output = new java.io.ByteArrayOutputStream();
+		output.write(head, 0, length);
+		byte[] buffer = new byte[1 << 16];
+		int numReadBytes;
+		while ((numReadBytes = _stream.read(buffer)) != -1)
+			output.write(buffer, 0, numReadBytes);
+		return output.toByteArray();
+	}
+
+	void NextBlock() throws IOException
+	{
+		while (true)
+		{
+			if (_producerIndex == _producers.length)
+				throw new IOException("Match finder has no more positions.");
+
+			Producer producer = _producers[_producerIndex];
+			int[] block;
+			try
+			{
+				block = producer._blocks.take();
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+
+			if (block != kEndOfChunk)
+			{
+				_block = block;
+				_blockPos = 1;
+				return;
+			}
+
+			if (producer._exception != null)
+			{
+				IOException exception = new IOException("Match finder failed.");
+				exception.initCause(producer._exception);
+				throw exception;
+			}
+
+			_producers[_producerIndex++] = null;
+			int next = _producerIndex + _numThreads;
+			if (next < _producers.length)
+				_executor.execute(_producers[next]);
+		}
+	}
+
+	public int GetMatches(int[] distances) throws IOException
+	{
+		if (_block == null || _blockPos == _block[0])
+			NextBlock();
+		int numDistances = _block[_blockPos++];
+		System.arraycopy(_block, _blockPos, distances, 0, numDistances);
+		_blockPos += numDistances;
+		_pos++;
+		return numDistances;
+	}
+
+	public void Skip(int num) throws IOException
+	{
+		do
+		{
+			if (_block == null || _blockPos == _block[0])
+				NextBlock();
+			_blockPos += 1 + _block[_blockPos];
+			_pos++;
+		}
+		while (--num != 0);
+	}
+
+	public byte GetIndexByte(int index) { return _buffer[_pos + index]; }
+
+	public int GetMatchLen(int index, int distance, int limit)
+	{
+		if ((_pos + index) + limit > _streamPos)
+			limit = _streamPos - (_pos + index);
+		distance++;
+		int pby = _pos + index;
+
+		int i;
+		for (i = 0; i < limit && _buffer[pby + i] == _buffer[pby + i - distance]; i++);
+		return i;
+	}
+
+	public int GetNumAvailableBytes() { return _streamPos - _pos; }
+
+	class Producer implements Runnable
+	{
+		final int _primeFrom;
+		final int _from;
+		final int _to;
+		final BlockingQueue<int[]> _blocks;
+		volatile Throwable _exception;
+
+		Producer(int primeFrom, int from, int to, boolean buffered)
+		{
+			_primeFrom = primeFrom;
+			_from = from;
+			_to = to;
+			_blocks = buffered ?
+				new LinkedBlockingQueue<int[]>() :
+				new LinkedBlockingQueue<int[]>(kNumBlocksAhead);
+		}
+
+		public void run()
+		{
+			try
+			{
+				Produce();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (Throwable t)
+			{
+				_exception = t;
+			}
+
+			try
+			{
+				_blocks.put(kEndOfChunk);
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}
+
+		void Produce() throws IOException, InterruptedException
+		{
+			//
+			// The tree reads matchMaxLen bytes past the chunk so matches end
+			// where they would end without chunks.
+			//
+
+			int end = Math.min(_streamPos, _to + _matchMaxLen + _keepAddBufferAfter);
+			BinTree binTree = new BinTree();
+			binTree.SetType(_numHashBytes);
+			binTree.Create(_historySize, _keepAddBufferBefore, _matchMaxLen, _keepAddBufferAfter);
+			binTree.SetStream(new java.io.ByteArrayInputStream(_buffer, _primeFrom, end - _primeFrom));
+			binTree.Init();
+
+			if (_from > _primeFrom)
+				binTree.Skip(_from - _primeFrom);
+
+			int[] distances = new int[_matchMaxLen * 2 + 2];
+			int[] block = new int[kBlockSize];
+			int blockPos = 1;
+
+			for (int pos = _from; pos < _to; pos++)
+			{
+				if (blockPos + 1 + distances.length > kBlockSize)
+				{
+					block[0] = blockPos;
+					_blocks.put(block);
+					block = new int[kBlockSize];
+					blockPos = 1;
+				}
+
+				int numDistances = binTree.GetMatches(distances);
+				block[blockPos++] = numDistances;
+				System.arraycopy(distances, 0, block, blockPos, numDistances);
+				blockPos += numDistances;
+
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			}
+
+			if (blockPos > 1)
+			{
+				block[0] = blockPos;
+				_blocks.put(block);
+			}
+		}
+	}
+}
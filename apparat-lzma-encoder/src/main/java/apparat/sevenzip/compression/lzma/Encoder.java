@@ -299,7 +299,7 @@ public class Encoder
 		public boolean IsShortRep() { return (BackPrev == 0); }
 	};
 	Optimal[] _optimum = new Optimal[kNumOpts];
-	apparat.sevenzip.compression.lz.BinTree _matchFinder = null;
+	apparat.sevenzip.compression.lz.IMatchFinder _matchFinder = null;
 	apparat.sevenzip.compression.rangeCoder.Encoder _rangeEncoder = new apparat.sevenzip.compression.rangeCoder.Encoder();
 
 	short[] _isMatch = new short[Base.kNumStates<<Base.kNumPosStatesBitsMax];
@@ -353,6 +353,8 @@ public class Encoder
 	java.io.InputStream _inStream;
 
 	int _matchFinderType = EMatchFinderTypeBT4;
+	int _numThreads = 1;
+	int _chunkSize = 0;
 	boolean _writeEndMark = false;
 
 	boolean _needReleaseMFStream = false;
@@ -361,12 +363,17 @@ public class Encoder
 	{
 		if (_matchFinder == null)
 		{
-			apparat.sevenzip.compression.lz.BinTree bt = new apparat.sevenzip.compression.lz.BinTree();
 			int numHashBytes = 4;
 			if (_matchFinderType == EMatchFinderTypeBT2)
 				numHashBytes = 2;
-			bt.SetType(numHashBytes);
-			_matchFinder = bt;
+			if (_numThreads > 1 || _chunkSize > 0)
+				_matchFinder = new apparat.sevenzip.compression.lz.MatchFinderMt(numHashBytes, _numThreads, _chunkSize);
+			else
+			{
+				apparat.sevenzip.compression.lz.BinTree bt = new apparat.sevenzip.compression.lz.BinTree();
+				bt.SetType(numHashBytes);
+				_matchFinder = bt;
+			}
 		}
 		_literalEncoder.Create(_numLiteralPosStateBits, _numLiteralContextBits);
 
@@ -1250,6 +1257,8 @@ public class Encoder
 		_inStream = inStream;
 		_finished = false;
 		Create();
+		if (_matchFinder instanceof apparat.sevenzip.compression.lz.MatchFinderMt)
+			((apparat.sevenzip.compression.lz.MatchFinderMt)_matchFinder).SetStreamSize(inSize);
 		SetOutStream(outStream);
 		Init();
 
@@ -1392,6 +1401,26 @@ public class Encoder
 		return true;
 	}
 
+	/**
+	 * Runs the match finder on a separate thread if <code>numThreads</code>
+	 * is greater than one. A positive <code>chunkSize</code> lets up to
+	 * <code>numThreads</code> threads search chunks of that many bytes in
+	 * parallel which is faster but may find fewer matches.
+	 */
+	public boolean setMultiThread(int numThreads, int chunkSize)
+	{
+		if (numThreads < 1 || chunkSize < 0)
+			return false;
+		if (numThreads != _numThreads || chunkSize != _chunkSize)
+		{
+			_dictionarySizePrev = -1;
+			_matchFinder = null;
+		}
+		_numThreads = numThreads;
+		_chunkSize = chunkSize;
+		return true;
+	}
+
 	public boolean setLcLpPb(int lc, int lp, int pb)
 	{
 		if (
@@ -35,8 +35,20 @@ object LZMA {
 	private val Eos = false
 	private val Algorithm = 2
 	private val MatchFinder = 1
+	private val Threads = Integer.getInteger("apparat.lzma.threads", math.min(2, Runtime.getRuntime.availableProcessors)).intValue
+	private val ChunkSize = Integer.getInteger("apparat.lzma.chunkSize", 0).intValue
 
-	def encode(inputStream: JInputStream, inputLength: Long, outputStream: JOutputStream) = {
+	/**
+	 * Encodes <code>inputStream</code> into an LZMA stream with header.
+	 *
+	 * With more than one thread the match finder runs ahead of the encoder
+	 * on its own thread which produces the same output. A positive
+	 * <code>chunkSize</code> searches chunks in parallel on up to
+	 * <code>threads</code> threads. The result is still a single stream but
+	 * matches do not reach further back than one chunk before the chunk.
+	 */
+	def encode(inputStream: JInputStream, inputLength: Long, outputStream: JOutputStream,
+			   threads: Int = Threads, chunkSize: Int = ChunkSize) = {
 		val encoder = new JEncoder()
 		val eos = Eos
 
@@ -60,6 +72,10 @@ object LZMA {
 			throw new Exception("Incorrect LC or LP or PB value.")
 		}
 
+		if(!encoder.setMultiThread(threads, chunkSize)) {
+			throw new Exception("Incorrect thread count or chunk size.")
+		}
+
 		encoder setEndMarkerMode eos
 		encoder writeCoderProperties outputStream
 
@@ -69,6 +85,6 @@ object LZMA {
 			outputStream.write((fileSize >>> (8 * i)).asInstanceOf[Int] & 0xFF)
 		}
 
-		encoder.code(inputStream, outputStream, -1, -1, null)
+		encoder.code(inputStream, outputStream, inputLength, -1, null)
 	}
 }
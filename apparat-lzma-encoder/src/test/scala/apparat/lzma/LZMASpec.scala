@@ -0,0 +1,60 @@
+package apparat.lzma
+
+import org.specs.SpecificationWithJUnit
+import apparat.sevenzip.compression.lzma.Decoder
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
+
+class LZMASpec extends SpecificationWithJUnit {
+  def encode(bytes: Array[Byte], threads: Int, chunkSize: Int) = {
+    val output = new ByteArrayOutputStream()
+    LZMA.encode(new ByteArrayInputStream(bytes), bytes.length, output, threads, chunkSize)
+    output.toByteArray
+  }
+
+  def decode(bytes: Array[Byte]) = {
+    val input = new ByteArrayInputStream(bytes)
+    val properties = new Array[Byte](5)
+    input read properties must_== 5
+
+    val decoder = new Decoder()
+    decoder.SetDecoderProperties(properties) must beTrue
+
+    val length = (0 until 8).foldLeft(0L) { (result, i) => result | (input.read().toLong << (8 * i)) }
+    val output = new ByteArrayOutputStream()
+    decoder.Code(input, output, length) must beTrue
+    output.toByteArray
+  }
+
+  def roundTrip(bytes: Array[Byte], chunkSize: Int = 0x4000) = {
+    val single = encode(bytes, 1, 0)
+    val threaded = encode(bytes, 2, 0)
+    val chunked = encode(bytes, 2, chunkSize)
+
+    java.util.Arrays.equals(threaded, single) must beTrue
+
+    for(encoded <- List(single, threaded, chunked)) {
+      java.util.Arrays.equals(decode(encoded), bytes) must beTrue
+    }
+  }
+
+  "LZMA" should {
+    "encode empty input" >> {
+      roundTrip(new Array[Byte](0))
+    }
+
+    "encode small input" >> {
+      roundTrip(("apparat " * 100).getBytes("UTF-8"))
+    }
+
+    "encode random input" >> {
+      val random = new scala.util.Random(1)
+      roundTrip(Array.fill(0x30000)(random.nextInt.toByte))
+    }
+
+    "encode input larger than the dictionary" >> {
+      val random = new scala.util.Random(2)
+      val block = Array.fill(0x10000)(random.nextInt.toByte)
+      roundTrip(Array.tabulate((1 << 23) + 0x10000) { i => if(0 == i % 4099) i.toByte else block(i & 0xffff) }, 1 << 21)
+    }
+  }
+}
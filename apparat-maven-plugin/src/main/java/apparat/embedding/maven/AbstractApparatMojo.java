@@ -20,6 +20,7 @@
  */
 package apparat.embedding.maven;
 
+import apparat.utils.BuildCache;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -27,6 +28,19 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Joa Ebert
@@ -52,6 +66,29 @@ abstract class AbstractApparatMojo extends AbstractMojo {
 	 */
 	protected boolean failIfOverrideIsMissing;
 
+	/**
+	 * The number of artifacts which are processed in parallel. A value of zero
+	 * uses one thread per available processor.
+	 *
+	 * @parameter default-value="0" expression="${apparat.artifactThreads}"
+	 */
+	protected int artifactThreads;
+
+	/**
+	 * Whether or not to restore unchanged artifacts from the build cache instead
+	 * of processing them again.
+	 *
+	 * @parameter default-value="true" expression="${apparat.useCache}"
+	 */
+	protected boolean useCache;
+
+	/**
+	 * The directory of the build cache.
+	 *
+	 * @parameter default-value="${project.build.directory}/apparat-cache" expression="${apparat.cacheDirectory}"
+	 */
+	protected File cacheDirectory;
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -64,11 +101,15 @@ abstract class AbstractApparatMojo extends AbstractMojo {
 
 			if(null == overrideArtifact) {
 				if(null != project) {
-					processArtifact(project.getArtifact());
+					final Map<File, File> files = new LinkedHashMap<File, File>();
+
+					addArtifact(files, project.getArtifact());
 
 					for(final Artifact artifact : project.getAttachedArtifacts()) {
-						processArtifact(artifact);
+						addArtifact(files, artifact);
 					}
+
+					processFiles(new ArrayList<File>(files.values()));
 				}
 			} else {
 				if(!overrideArtifact.exists()) {
@@ -80,35 +121,164 @@ abstract class AbstractApparatMojo extends AbstractMojo {
 					}
 				}
 
-				try {
-					processFile(overrideArtifact);
-				} catch(final Throwable cause) {
-					throw new MojoExecutionException("Apparat execution failed.", cause);
-				}
+				processFiles(Collections.singletonList(overrideArtifact));
 			}
 		} finally {
 			apparat.log.Log.removeOutput(logAdapter);
 		}
 	}
 
-	private void processArtifact(final Artifact artifact) throws MojoExecutionException, MojoFailureException {
+	private void addArtifact(final Map<File, File> files, final Artifact artifact) {
 		if(null == artifact) {
 			return;
 		}
 
 		final String artifactType = artifact.getType();
 		if(artifactType.equals("swc") || artifactType.equals("swf")) {
-			try {
-				if(null != artifact.getFile()) {
-					processFile(artifact.getFile());
+			final File file = artifact.getFile();
+
+			if(null != file) {
+				//
+				// The same file must never be rewritten by two threads.
+				//
+
+				File key;
+
+				try {
+					key = file.getCanonicalFile();
+				} catch(final IOException exception) {
+					key = file.getAbsoluteFile();
+				}
+
+				if(!files.containsKey(key)) {
+					files.put(key, file);
 				}
-			} catch(final Throwable cause) {
-				throw new MojoExecutionException("Apparat execution failed.", cause);
 			}
 		} else {
 			getLog().debug("Skipped artifact since its type is "+artifactType+".");
 		}
 	}
 
+	private void processFiles(final List<File> files) throws MojoExecutionException {
+		if(files.isEmpty()) {
+			return;
+		}
+
+		final BuildCache cache = (useCache && null != cacheDirectory) ?
+				new BuildCache(cacheDirectory, getClass().getName(), cacheConfiguration(), cacheDependencies()) : null;
+		final int numThreads = numThreadsFor(files.size());
+		final long startTime = System.currentTimeMillis();
+		long totalTime = 0L;
+
+		if(1 == numThreads) {
+			for(final File file : files) {
+				try {
+					totalTime += timedProcessFile(file, cache);
+				} catch(final Throwable cause) {
+					throw new MojoExecutionException("Apparat execution failed.", cause);
+				}
+			}
+		} else {
+			final ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				private final AtomicInteger threadId = new AtomicInteger(0);
+
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "apparat-artifact-"+threadId.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+			try {
+				final List<Future<Long>> results = new ArrayList<Future<Long>>(files.size());
+
+				for(final File file : files) {
+					results.add(executor.submit(new Callable<Long>() {
+						public Long call() throws Exception {
+							return timedProcessFile(file, cache);
+						}
+					}));
+				}
+
+				for(final Future<Long> result : results) {
+					try {
+						totalTime += result.get();
+					} catch(final ExecutionException exception) {
+						throw new MojoExecutionException("Apparat execution failed.", exception.getCause());
+					} catch(final InterruptedException exception) {
+						Thread.currentThread().interrupt();
+						throw new MojoExecutionException("Apparat execution has been interrupted.", exception);
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		if(files.size() > 1) {
+			getLog().info("Processed "+files.size()+" artifacts in "+(System.currentTimeMillis() - startTime)+
+					"ms using "+numThreads+(1 == numThreads ? " thread" : " threads")+" ("+totalTime+"ms in total).");
+		}
+	}
+
+	private int numThreadsFor(final int numFiles) {
+		if(!apparat.actors.Actor.threadsEnabled()) {
+			return 1;
+		}
+
+		final int numThreads = artifactThreads > 0 ? artifactThreads : Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(numThreads, numFiles));
+	}
+
+	private long timedProcessFile(final File file, final BuildCache cache) throws IOException,
+			MojoExecutionException, MojoFailureException {
+		final long startTime = System.currentTimeMillis();
+
+		if(null == cache) {
+			processFile(file);
+		} else {
+			final String key = cache.keyOf(file);
+
+			if(cache.restore(key, file)) {
+				final long time = System.currentTimeMillis() - startTime;
+				getLog().info("Restored "+file.getName()+" from cache in "+time+"ms.");
+				return time;
+			}
+
+			processFile(file);
+			cache.store(key, file);
+		}
+
+		final long time = System.currentTimeMillis() - startTime;
+		getLog().info("Processed "+file.getName()+" in "+time+"ms.");
+		return time;
+	}
+
+	/**
+	 * Lists every setting which affects the output of <code>processFile</code>.
+	 * The values are part of the build cache key.
+	 *
+	 * @return The current configuration.
+	 */
+	abstract protected String[] cacheConfiguration();
+
+	/**
+	 * Lists additional files which are read by <code>processFile</code>. Their
+	 * contents are part of the build cache key.
+	 *
+	 * @return The files the output depends on.
+	 */
+	protected File[] cacheDependencies() {
+		return new File[0];
+	}
+
+	/**
+	 * Processes a single SWF or SWC file. Attached artifacts are processed in
+	 * parallel so implementations must not share mutable state between calls.
+	 *
+	 * @param file The file to process.
+	 * @throws MojoExecutionException If the execution fails.
+	 * @throws MojoFailureException If the configuration is invalid.
+	 */
 	abstract protected void processFile(final File file) throws MojoExecutionException, MojoFailureException;
 }
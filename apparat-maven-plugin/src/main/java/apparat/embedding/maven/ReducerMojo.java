@@ -44,6 +44,22 @@ public final class ReducerMojo extends AbstractApparatMojo {
 	 */
 	private float quality;
 
+	/**
+	 * The minimum PSNR in dB of each image. If set the quality is searched
+	 * per image with <code>quality</code> as the highest quality.
+	 *
+	 * @parameter default-value="0.0f" expression="${apparat.reducer.psnr}"
+	 */
+	private float psnr;
+
+	/**
+	 * The maximum number of JPEG bytes per image. If set the quality is searched
+	 * per image with <code>quality</code> as the highest quality.
+	 *
+	 * @parameter default-value="0" expression="${apparat.reducer.budget}"
+	 */
+	private int budget;
+
 	/**
 	 * The strength of Flash Player's deblocking filter.
 	 *
@@ -68,6 +84,14 @@ public final class ReducerMojo extends AbstractApparatMojo {
 	 */
 	private boolean sortCPool;
 
+	/**
+	 * Whether or not to sort the constant pool for the smallest size.
+	 * Only if <code>sortCPool</code> is specified.
+	 *
+	 * @parameter default-value="false" expression="${apparat.reducer.sortCPoolBySize}"
+	 */
+	private boolean sortCPoolBySize;
+
 	/**
 	 * Whether or not to use LZMA compression. Only available with
 	 * SWF files.
@@ -100,6 +124,29 @@ public final class ReducerMojo extends AbstractApparatMojo {
 	 */
 	private boolean mergeCF;
 
+	@Override protected String[] cacheConfiguration() {
+		return new String[] {
+			"quality="+quality,
+			"psnr="+psnr,
+			"budget="+budget,
+			"deblock="+deblock,
+			"mergeABC="+mergeABC,
+			"sortCPool="+sortCPool,
+			"sortCPoolBySize="+sortCPoolBySize,
+			"lzma="+lzma,
+			"matryoshkaType="+matryoshkaType.toLowerCase(),
+			"mergeCF="+mergeCF
+		};
+	}
+
+	@Override protected File[] cacheDependencies() {
+		if(matryoshkaType.equalsIgnoreCase("custom") && null != matryoshka) {
+			return new File[] { matryoshka };
+		} else {
+			return new File[0];
+		}
+	}
+
 	@Override protected void processFile(final File file) throws MojoFailureException {
 		if(getLog().isDebugEnabled()) {
 			getLog().debug("Running "+file+" through Reducer ...");
@@ -115,9 +162,12 @@ public final class ReducerMojo extends AbstractApparatMojo {
 			@Override public File input() { return file; }
 			@Override public File output() { return file; }
 			@Override public float quality() { return quality; }
+			@Override public float psnr() { return psnr; }
+			@Override public int budget() { return budget; }
 			@Override public float deblock() { return deblock; }
 			@Override public boolean mergeABC() { return mergeABC; }
 			@Override public boolean sortCPool() { return sortCPool; }
+			@Override public boolean sortCPoolBySize() { return sortCPoolBySize; }
 			@Override public boolean lzma() { return lzma; }
 			@Override public int matryoshkaType() {
 				if(matryoshkaType.equalsIgnoreCase("quiet")) {
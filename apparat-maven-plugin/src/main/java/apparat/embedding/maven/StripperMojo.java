@@ -32,6 +32,10 @@ import java.io.File;
  * @threadSafe
  */
 public final class StripperMojo extends AbstractApparatMojo {
+	@Override protected String[] cacheConfiguration() {
+		return new String[0];
+	}
+
 	@Override protected void processFile(final File file) {
 		if(getLog().isDebugEnabled()) {
 			getLog().debug("Running "+file+" through Stripper ...");
@@ -87,6 +87,16 @@ public final class TurboDieselSportInjectionMojo extends AbstractApparatMojo {
 		super.execute();
 	}
 
+	@Override protected String[] cacheConfiguration() {
+		return new String[] {
+			"alchemyExpansion="+alchemyExpansion,
+			"macroExpansion="+macroExpansion,
+			"inlineExpansion="+inlineExpansion,
+			"fixAlchemy="+fixAlchemy,
+			"asmExpansion="+asmExpansion
+		};
+	}
+
 	@Override protected void processFile(final File file) {
 		if(getLog().isDebugEnabled()) {
 			getLog().debug("Running "+file+" through TurboDieselSportInjection ...");
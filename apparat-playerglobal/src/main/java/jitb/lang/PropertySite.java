@@ -0,0 +1,303 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package jitb.lang;
+
+import jitb.errors.DynamicCodeException;
+import jitb.errors.JITBException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A call site for an untyped property access.
+ *
+ * Each site remembers how the property was resolved for the last receiver
+ * classes it has seen. Classes which handle their properties dynamically
+ * are always asked via <code>JITB$getProperty</code> and
+ * <code>JITB$setProperty</code>; all other classes are searched once for a
+ * public field or a method marked as an {@link jitb.lang.annotations.Accessor}.
+ */
+public final class PropertySite {
+	private static final int MAX_ENTRIES = 4;
+	private static final ConcurrentHashMap<java.lang.Class<?>, ConcurrentHashMap<java.lang.String, Accessor>> ACCESSORS =
+		new ConcurrentHashMap<java.lang.Class<?>, ConcurrentHashMap<java.lang.String, Accessor>>();
+
+	private volatile Entry[] entries = new Entry[0];
+
+	public java.lang.Object get(final java.lang.Object receiver, final java.lang.String property) {
+		return accessorFor(receiver.getClass(), property).get(receiver, property);
+	}
+
+	public void set(final java.lang.Object receiver, final java.lang.String property, final java.lang.Object value) {
+		accessorFor(receiver.getClass(), property).set(receiver, property, value);
+	}
+
+	private Accessor accessorFor(final java.lang.Class<?> type, final java.lang.String property) {
+		final Entry[] entries = this.entries;
+
+		for(final Entry entry : entries) {
+			if(entry.type == type && (entry.property == property || entry.property.equals(property))) {
+				return entry.accessor;
+			}
+		}
+
+		final Accessor accessor = accessorOf(type, property);
+
+		if(entries.length < MAX_ENTRIES) {
+			// Losing an entry to a concurrent update only costs another lookup.
+			final Entry[] update = new Entry[entries.length + 1];
+			System.arraycopy(entries, 0, update, 0, entries.length);
+			update[entries.length] = new Entry(type, property, accessor);
+			this.entries = update;
+		}
+
+		return accessor;
+	}
+
+	private static Accessor accessorOf(final java.lang.Class<?> type, final java.lang.String property) {
+		ConcurrentHashMap<java.lang.String, Accessor> accessors = ACCESSORS.get(type);
+
+		if(null == accessors) {
+			final ConcurrentHashMap<java.lang.String, Accessor> newAccessors = new ConcurrentHashMap<java.lang.String, Accessor>();
+			accessors = ACCESSORS.putIfAbsent(type, newAccessors);
+
+			if(null == accessors) {
+				accessors = newAccessors;
+			}
+		}
+
+		Accessor accessor = accessors.get(property);
+
+		if(null == accessor) {
+			accessor = resolve(type, property);
+			accessors.put(property, accessor);
+		}
+
+		return accessor;
+	}
+
+	private static Accessor resolve(final java.lang.Class<?> type, final java.lang.String property) {
+		if(isDynamic(type)) {
+			return DynamicAccessor.INSTANCE;
+		}
+
+		try {
+			final Field field = type.getField(property);
+
+			if(!Modifier.isStatic(field.getModifiers())) {
+				return new FieldAccessor(field);
+			}
+		} catch(NoSuchFieldException e) {
+			// Continue with accessor methods.
+		}
+
+		Method getter = null;
+		Method setter = null;
+
+		for(final Method method : type.getMethods()) {
+			if(Modifier.isStatic(method.getModifiers()) ||
+					!method.getName().equals(property) ||
+					!method.isAnnotationPresent(jitb.lang.annotations.Accessor.class)) {
+				continue;
+			}
+
+			final int parameters = method.getParameterTypes().length;
+
+			if(0 == parameters && void.class != method.getReturnType()) {
+				getter = method;
+			} else if(1 == parameters && void.class == method.getReturnType()) {
+				setter = method;
+			}
+		}
+
+		if(null == getter && null == setter) {
+			return DynamicAccessor.INSTANCE;
+		}
+
+		return new MethodAccessor(getter, setter);
+	}
+
+	/**
+	 * Strings are passed around as <code>jitb.lang.String</code> when their
+	 * static type is unknown, like the compiler does when it casts them.
+	 */
+	private static java.lang.Object fromMember(final java.lang.Class<?> type, final java.lang.Object value) {
+		return java.lang.String.class == type && null != value ? String.valueOf((java.lang.String)value) : value;
+	}
+
+	/**
+	 * Numbers and booleans arrive boxed in whatever type they had before
+	 * and are converted to a primitive member type like an assignment in
+	 * ActionScript would.
+	 */
+	private static java.lang.Object toMember(final java.lang.Class<?> type, final java.lang.Object value) {
+		if(null == value) {
+			return value;
+		} else if(java.lang.String.class == type) {
+			return value.toString();
+		} else if(!type.isPrimitive() || !(value instanceof Number || value instanceof Boolean)) {
+			return value;
+		}
+
+		final double number = value instanceof Boolean ? (((Boolean)value) ? 1.0 : 0.0) : ((Number)value).doubleValue();
+
+		if(double.class == type) {
+			return number;
+		} else if(int.class == type) {
+			return (int)(long)number;
+		} else if(long.class == type) {
+			return value instanceof Long ? value : (long)number;
+		} else if(boolean.class == type) {
+			return 0.0 != number && !Double.isNaN(number);
+		} else if(float.class == type) {
+			return (float)number;
+		}
+
+		return value;
+	}
+
+	private static boolean isDynamic(final java.lang.Class<?> type) {
+		if(!Object.class.isAssignableFrom(type)) {
+			return false;
+		}
+
+		try {
+			return Object.class != type.getMethod("JITB$getProperty", java.lang.String.class).getDeclaringClass() ||
+				Object.class != type.getMethod("JITB$setProperty", java.lang.String.class, java.lang.Object.class).getDeclaringClass();
+		} catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static final class Entry {
+		final java.lang.Class<?> type;
+		final java.lang.String property;
+		final Accessor accessor;
+
+		Entry(final java.lang.Class<?> type, final java.lang.String property, final Accessor accessor) {
+			this.type = type;
+			this.property = property;
+			this.accessor = accessor;
+		}
+	}
+
+	private static abstract class Accessor {
+		abstract java.lang.Object get(java.lang.Object receiver, java.lang.String property);
+		abstract void set(java.lang.Object receiver, java.lang.String property, java.lang.Object value);
+	}
+
+	private static final class DynamicAccessor extends Accessor {
+		static final DynamicAccessor INSTANCE = new DynamicAccessor();
+
+		@Override
+		java.lang.Object get(final java.lang.Object receiver, final java.lang.String property) {
+			return dynamicObject(receiver).JITB$getProperty(property);
+		}
+
+		@Override
+		void set(final java.lang.Object receiver, final java.lang.String property, final java.lang.Object value) {
+			dynamicObject(receiver).JITB$setProperty(property, value);
+		}
+
+		private static Object dynamicObject(final java.lang.Object receiver) {
+			if(receiver instanceof Object) {
+				return (Object)receiver;
+			}
+
+			throw new DynamicCodeException();
+		}
+	}
+
+	private static final class FieldAccessor extends Accessor {
+		private final Field field;
+
+		FieldAccessor(final Field field) {
+			this.field = field;
+		}
+
+		@Override
+		java.lang.Object get(final java.lang.Object receiver, final java.lang.String property) {
+			try {
+				return fromMember(field.getType(), field.get(receiver));
+			} catch(IllegalAccessException e) {
+				throw new JITBException(e);
+			}
+		}
+
+		@Override
+		void set(final java.lang.Object receiver, final java.lang.String property, final java.lang.Object value) {
+			try {
+				field.set(receiver, toMember(field.getType(), value));
+			} catch(IllegalAccessException e) {
+				throw new JITBException(e);
+			}
+		}
+	}
+
+	private static final class MethodAccessor extends Accessor {
+		private final Method getter;
+		private final Method setter;
+
+		MethodAccessor(final Method getter, final Method setter) {
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		java.lang.Object get(final java.lang.Object receiver, final java.lang.String property) {
+			if(null == getter) {
+				return DynamicAccessor.INSTANCE.get(receiver, property);
+			}
+
+			return fromMember(getter.getReturnType(), invoke(getter, receiver));
+		}
+
+		@Override
+		void set(final java.lang.Object receiver, final java.lang.String property, final java.lang.Object value) {
+			if(null == setter) {
+				DynamicAccessor.INSTANCE.set(receiver, property, value);
+			} else {
+				invoke(setter, receiver, toMember(setter.getParameterTypes()[0], value));
+			}
+		}
+
+		private static java.lang.Object invoke(final Method method, final java.lang.Object receiver, final java.lang.Object... arguments) {
+			try {
+				return method.invoke(receiver, arguments);
+			} catch(IllegalAccessException e) {
+				throw new JITBException(e);
+			} catch(InvocationTargetException e) {
+				final Throwable cause = e.getCause();
+
+				if(cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				} else if(cause instanceof java.lang.Error) {
+					throw (java.lang.Error)cause;
+				}
+
+				throw new JITBException(cause);
+			}
+		}
+	}
+}
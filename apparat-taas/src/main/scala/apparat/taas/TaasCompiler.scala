@@ -20,6 +20,7 @@
  */
 package apparat.taas
 
+import apparat.actors.Tasks
 import ast._
 import backend.TaasBackend
 import frontend.TaasFrontend
@@ -31,14 +32,38 @@ import optimization._
 class TaasCompiler(val frontend: TaasFrontend, val backend: TaasBackend) {
 	def compile() = backend emit transform(frontend.getAST)
 
+	/**
+	 * Optimizes the methods of the target in parallel.
+	 */
 	def transform(ast: TaasAST) = {
+		val methods = ast.units.toList collect { case target: TaasTarget => target } flatMap methodsOf
+		val pool = Tasks.newPool()
+
+		try {
+			Tasks.foreach(pool, methods) { optimizer optimize _ }
+		} finally {
+			pool foreach { _.shutdown() }
+		}
+
+		ast
+	}
+
+	/**
+	 * Optimizes the methods of <code>nominal</code> only.
+	 */
+	def transform(nominal: TaasNominal): Unit = methodsOf(nominal) foreach { optimizer optimize _ }
+
+	private def methodsOf(tree: TaasTree): List[TaasMethod] = {
+		var methods = List.empty[TaasMethod]
+
 		def loop(tree: TaasTree): Unit = tree match {
-			case method: TaasMethod => optimizer optimize method
+			case method: TaasMethod => methods = method :: methods
 			case parent: TaasParent => parent.children foreach loop
 			case _ =>
 		}
-		ast.units collect { case target: TaasTarget => target } foreach loop
-		ast
+
+		loop(tree)
+		methods.reverse
 	}
 
 	val optimizer = new TaasOptimizer(
@@ -36,7 +36,10 @@ object TaasDependencyGraphBuilder extends (TaasAST => GraphLike[TaasNominal]) {
 		override def visit(value: TaasInterface) = if(!list.contains(value)) list += value
 	}
 
-	def apply(ast: TaasAST): GraphLike[TaasNominal] = {
+	/**
+	 * The classes and interfaces of the target.
+	 */
+	def nominalsOf(ast: TaasAST): List[TaasNominal] = {
 		val visitor = new TaasNominalVisitor()
 		for(unit <- ast.units) {
 			unit match {
@@ -44,10 +47,14 @@ object TaasDependencyGraphBuilder extends (TaasAST => GraphLike[TaasNominal]) {
 				case _ =>
 			}
 		}
+		visitor.list.toList
+	}
 
-		var graph: Graph[TaasNominal] = new Graph() ++ visitor.list
+	def apply(ast: TaasAST): GraphLike[TaasNominal] = {
+		val nominals = nominalsOf(ast)
+		var graph: Graph[TaasNominal] = new Graph() ++ nominals
 
-		for(nominal <- visitor.list) {
+		for(nominal <- nominals) {
 			nominal.base match {
 				case Some(base) => base match {
 					case t: TaasNominalType => {
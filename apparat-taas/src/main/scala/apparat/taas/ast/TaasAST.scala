@@ -196,7 +196,8 @@ case class TaasMethod(
 		parameters: ListBuffer[TaasParameter],
 		isStatic: Boolean,
 		isFinal: Boolean,
-		isNative: Boolean, code: Option[TaasCode]) extends TaasNode with TaasDefinition with TaasTyped {
+		isNative: Boolean, code: Option[TaasCode],
+		isAccessor: Boolean = false) extends TaasNode with TaasDefinition with TaasTyped {
 	type T = TaasParameter
 	def children = parameters
 
@@ -20,6 +20,7 @@
  */
 package apparat.taas.backend.jbc
 
+import apparat.actors.Tasks
 import apparat.taas.backend.TaasBackend
 import apparat.taas.analysis.TaasDependencyGraphBuilder
 import apparat.taas.graph._
@@ -37,6 +38,9 @@ object JbcBackend {
 	val DEBUG = "true" == System.getProperty("apparat.debug", "false")
 	private val WRITER_PARAMETERS = if(DEBUG) JClassWriter.COMPUTE_MAXS else JClassWriter.COMPUTE_FRAMES
 	private val JAVA_VERSION = if(DEBUG) JOpcodes.V1_5 else JOpcodes.V1_6
+	private val SITE_PREFIX = "JITB$site$"
+	private val SITE_TYPE = "jitb/lang/PropertySite"
+	private val ACCESSOR_TYPE = "Ljitb/lang/annotations/Accessor;"
 }
 
 /**
@@ -44,8 +48,28 @@ object JbcBackend {
  */
 class JbcBackend extends TaasBackend with SimpleLog {
 	var classMap = Map.empty[String, Array[Byte]]
-	var closures = List.empty[(TaasMethod, TaasMethod)]
-	implicit var currentNominal: TaasNominal = _
+
+	/**
+	 * The state of a nominal while it is emitted.
+	 */
+	private final class ClassState(val nominal: TaasNominal) {
+		var closures = List.empty[(TaasMethod, TaasMethod)]
+		var classes = Map.empty[String, Array[Byte]]
+		var sites = 0
+
+		def owner = Java nameOf nominal.qualifiedName
+
+		/**
+		 * Allocates a property site in the static initializer of the nominal.
+		 *
+		 * @return The name of the field holding the site.
+		 */
+		def newSite() = {
+			val name = JbcBackend.SITE_PREFIX + sites
+			sites += 1
+			name
+		}
+	}
 
 	private def decorateWriter(writer: JClassWriter) = {
 		if(JbcBackend.DEBUG) {
@@ -55,64 +79,110 @@ class JbcBackend extends TaasBackend with SimpleLog {
 			writer
 		}
 	}
-	override def emit(ast: TaasAST) = {
-		for(nominal <- TaasDependencyGraphBuilder(ast).topsort) {
-			currentNominal = nominal
 
-			val cw = new JClassWriter(JbcBackend.WRITER_PARAMETERS)
-			val cv = decorateWriter(cw)
+	/**
+	 * Emits all nominals of the target in parallel. They do not have to be
+	 * emitted in dependency order since the generated classes are not
+	 * loaded during compilation.
+	 */
+	override def emit(ast: TaasAST) = {
+		val pool = Tasks.newPool()
 
-			val coreType = nominal match {
-				case i: TaasInterface => "java/lang/Object"
-				case _ => "jitb/lang/Object"
+		try {
+			for(classes <- Tasks.map(pool, TaasDependencyGraphBuilder nominalsOf ast) { emit _ }) {
+				classMap ++= classes
 			}
+		} finally {
+			pool foreach { _.shutdown() }
+		}
+	}
 
-			cv.visit(
-				JbcBackend.JAVA_VERSION,
-				Java.visibilityOf(nominal) + (nominal match {
-					case i: TaasInterface => JOpcodes.ACC_INTERFACE
-					case _ => JOpcodes.ACC_SUPER
-				}),
-				Java nameOf nominal.qualifiedName,
-				null,
-				nominal.base match {
-					case Some(base) => base match {
-						case t: TaasNominalType => Java nameOf t.nominal.qualifiedName
-						case TaasObjectType => coreType
-						case _ => error("Expected TaasNominalType, got "+base)
-					}
-					case None => coreType
-				},
-				null//Array.empty[String]//TODO map to interface names...
-			)
-
-			nominal match {
-				case TaasClass(_, _, _, _, init, ctor, _, _, _, _) => {
-					emitMethod(ctor, cv, "<init>", "V")
+	/**
+	 * Emits <code>nominal</code> and its closures without adding them to
+	 * <code>classMap</code>.
+	 *
+	 * @return The generated classes by name.
+	 */
+	def emit(nominal: TaasNominal): Map[String, Array[Byte]] = {
+		implicit val state = new ClassState(nominal)
+
+		val cw = new JClassWriter(JbcBackend.WRITER_PARAMETERS)
+		val cv = decorateWriter(cw)
+
+		val coreType = nominal match {
+			case i: TaasInterface => "java/lang/Object"
+			case _ => "jitb/lang/Object"
+		}
+
+		cv.visit(
+			JbcBackend.JAVA_VERSION,
+			Java.visibilityOf(nominal) + (nominal match {
+				case i: TaasInterface => JOpcodes.ACC_INTERFACE
+				case _ => JOpcodes.ACC_SUPER
+			}),
+			Java nameOf nominal.qualifiedName,
+			null,
+			nominal.base match {
+				case Some(base) => base match {
+					case t: TaasNominalType => Java nameOf t.nominal.qualifiedName
+					case TaasObjectType => coreType
+					case _ => error("Expected TaasNominalType, got "+base)
 				}
-				case _ =>
-			}
+				case None => coreType
+			},
+			null//Array.empty[String]//TODO map to interface names...
+		)
 
-			for(method <- nominal.methods if !method.isStatic) {
-				emitMethod(method, cv)
+		nominal match {
+			case TaasClass(_, _, _, _, init, ctor, _, _, _, _) => {
+				emitMethod(ctor, cv, "<init>", "V")
 			}
+			case _ =>
+		}
 
-			for(closure <- closures) {
-				emitClosure(cv, nominal, closure._1, closure._2)
-			}
+		for(method <- nominal.methods if !method.isStatic) {
+			emitMethod(method, cv)
+		}
 
-			nominal match {
-				case TaasClass(_, _, _, _, _, _, _, _, fields, _) => for(field <- fields if !field.isStatic) emitField(field, cv)
-				case TaasFunction(_, _, _) =>
-				case TaasInterface(_, _, _, _, _) =>
-			}
+		for(closure <- state.closures) {
+			emitClosure(cv, nominal, closure._1, closure._2)
+		}
 
-			closures = Nil
+		nominal match {
+			case TaasClass(_, _, _, _, _, _, _, _, fields, _) => for(field <- fields if !field.isStatic) emitField(field, cv)
+			case TaasFunction(_, _, _) =>
+			case TaasInterface(_, _, _, _, _) =>
+		}
 
-			val bytes = cw.toByteArray()
-			cv.visitEnd()
-			classMap += Java.liftToplevel(nominal.qualifiedName) -> bytes
+		if(state.sites > 0) {
+			emitSites(cv)
 		}
+
+		val bytes = cw.toByteArray()
+		cv.visitEnd()
+		state.classes += Java.liftToplevel(nominal.qualifiedName) -> bytes
+
+		state.classes
+	}
+
+	private def emitSites(cv: JClassVisitor)(implicit state: ClassState): Unit = {
+		val siteType = "L"+JbcBackend.SITE_TYPE+";"
+		val mv = cv.visitMethod(JOpcodes.ACC_STATIC, "<clinit>", "()V", null, null)
+
+		mv.visitCode()
+
+		for(i <- 0 until state.sites) {
+			val name = JbcBackend.SITE_PREFIX + i
+			cv.visitField(JOpcodes.ACC_PRIVATE + JOpcodes.ACC_STATIC + JOpcodes.ACC_FINAL + JOpcodes.ACC_SYNTHETIC, name, siteType, null, null).visitEnd()
+			mv.visitTypeInsn(JOpcodes.NEW, JbcBackend.SITE_TYPE)
+			mv.visitInsn(JOpcodes.DUP)
+			mv.visitMethodInsn(JOpcodes.INVOKESPECIAL, JbcBackend.SITE_TYPE, "<init>", "()V")
+			mv.visitFieldInsn(JOpcodes.PUTSTATIC, state.owner, name, siteType)
+		}
+
+		mv.visitInsn(JOpcodes.RETURN)
+		mv.visitMaxs(2, 0)
+		mv.visitEnd()
 	}
 
 	private def emitField(field: TaasField, cv: JClassVisitor): Unit = {
@@ -120,16 +190,21 @@ class JbcBackend extends TaasBackend with SimpleLog {
 		fv.visitEnd()
 	}
 
-	private def emitMethod(method: TaasMethod, cv: JClassVisitor): Unit = emitMethod(method, cv, method.name.name, Java typeOf method.`type`)
+	private def emitMethod(method: TaasMethod, cv: JClassVisitor)(implicit state: ClassState): Unit = emitMethod(method, cv, method.name.name, Java typeOf method.`type`)
 
-	private def emitMethod(method: TaasMethod, cv: JClassVisitor, name: String, returnType: String): Unit = {
+	private def emitMethod(method: TaasMethod, cv: JClassVisitor, name: String, returnType: String)(implicit state: ClassState): Unit = {
 		implicit val implicitMethod = method
+		implicit val currentNominal = state.nominal
 		implicit val mv = cv.visitMethod(Java visibilityOf method, name, Java.methodDesc(returnType, method.parameters), null, null)
 		var maxL = 0
+
+		if(method.isAccessor) {
+			mv.visitAnnotation(JbcBackend.ACCESSOR_TYPE, true).visitEnd()
+		}
 		@inline def load(value: TValue) = Load(value, x => mapIndex(x)) match {
 			case Some(e) => error(e.message)
 			case None => value match {
-				case TClosure(value) => closures = (method, value) :: closures
+				case TClosure(value) => state.closures = (method, value) :: state.closures
 				case _ =>
 			}
 		}
@@ -137,7 +212,7 @@ class JbcBackend extends TaasBackend with SimpleLog {
 		@inline def loadAs(value: TValue, `type`: TaasType): Unit = Load(value, `type`, x => mapIndex(x)) match {
 			case Some(e) => error(e.message)
 			case None => value match {
-				case TClosure(value) => closures = (method, value) :: closures
+				case TClosure(value) => state.closures = (method, value) :: state.closures
 				case _ =>
 			}
 		}
@@ -359,21 +434,21 @@ class JbcBackend extends TaasBackend with SimpleLog {
 						}
 
 						case TCall(t, TSetProperty, property :: value :: Nil, result) => {
+							mv.visitFieldInsn(JOpcodes.GETSTATIC, state.owner, state.newSite(), "L"+JbcBackend.SITE_TYPE+";")
 							load(t)
-							Cast.checkCast(TaasObjectType)
 							loadAs(property, TaasStringType)
 							loadAs(value, TaasObjectType)
-							mv.visitMethodInsn(JOpcodes.INVOKEVIRTUAL, "jitb/lang/Object", "JITB$setProperty",  "(Ljava/lang/String;Ljava/lang/Object;)V")
+							mv.visitMethodInsn(JOpcodes.INVOKEVIRTUAL, JbcBackend.SITE_TYPE, "set", "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V")
 						}
 
 						case TCall(t, TGetProperty, property :: Nil, result) => {
+							mv.visitFieldInsn(JOpcodes.GETSTATIC, state.owner, state.newSite(), "L"+JbcBackend.SITE_TYPE+";")
 							load(t)
-							Cast.checkCast(TaasObjectType)
 							loadAs(property, TaasStringType)
-							mv.visitMethodInsn(JOpcodes.INVOKEVIRTUAL, "jitb/lang/Object", "JITB$getProperty", "(Ljava/lang/String;)Ljava/lang/Object;")
+							mv.visitMethodInsn(JOpcodes.INVOKEVIRTUAL, JbcBackend.SITE_TYPE, "get", "(Ljava/lang/Object;Ljava/lang/String;)Ljava/lang/Object;")
 							result match {
-								case Some(result) => storeByType(TGetIndex.`type`, result)
-								case None => if(TGetIndex.`type` != TaasVoidType) {
+								case Some(result) => storeByType(TGetProperty.`type`, result)
+								case None => if(TGetProperty.`type` != TaasVoidType) {
 									mv.visitInsn(JOpcodes.POP)
 								}
 							}
@@ -617,7 +692,7 @@ class JbcBackend extends TaasBackend with SimpleLog {
 	 *
 	 * in this case A is the nominal, B is method since it contains the closure call and C is the closure.
 	 */
-	private def emitClosure(ov: JClassVisitor, nominal: TaasNominal, method: TaasMethod, closure: TaasMethod) = if(!classMap.contains(Java.liftToplevel(nominal.qualifiedName)+"$"+closure.name.name)) {
+	private def emitClosure(ov: JClassVisitor, nominal: TaasNominal, method: TaasMethod, closure: TaasMethod)(implicit state: ClassState) = if(!state.classes.contains(Java.liftToplevel(nominal.qualifiedName)+"$"+closure.name.name)) {
 		assume(closure.parameters.length == 1)//for now
 		assume(closure.`type` == TaasVoidType)
 
@@ -741,6 +816,6 @@ class JbcBackend extends TaasBackend with SimpleLog {
 
 		val bytes = cw.toByteArray()
 		cv.visitEnd()
-		classMap += (Java.liftToplevel(nominal.qualifiedName)+"$"+closure.name.name) -> bytes
+		state.classes += (Java.liftToplevel(nominal.qualifiedName)+"$"+closure.name.name) -> bytes
 	}
 }
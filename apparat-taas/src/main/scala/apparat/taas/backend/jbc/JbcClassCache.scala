@@ -0,0 +1,169 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.taas.backend.jbc
+
+import apparat.log.SimpleLog
+import apparat.utils.{BuildCache, IO}
+import java.io.{BufferedOutputStream => JBufferedOutputStream, ByteArrayOutputStream => JByteArrayOutputStream, File => JFile, FileOutputStream => JFileOutputStream, IOException => JIOException}
+import java.security.{MessageDigest => JMessageDigest}
+import java.util.zip.{ZipEntry => JZipEntry, ZipFile => JZipFile, ZipOutputStream => JZipOutputStream}
+
+/**
+ * A persistent cache for the classes generated by the <code>JbcBackend</code>.
+ *
+ * Every entry is a JAR file holding all classes compiled from one ABC. Its
+ * key is the hash of the ABC, the Apparat version, the version of the
+ * backend and <code>compiler</code>.
+ *
+ * @param directory The cache directory.
+ * @param compiler Identifies everything else which affects the generated
+ * classes like the libraries used to compile them.
+ */
+final class JbcClassCache(val directory: JFile, compiler: String) extends SimpleLog {
+	/**
+	 * Computes the key for the classes compiled from <code>abc</code>.
+	 *
+	 * @param abc The bytes of the ABC file.
+	 */
+	def keyOf(abc: Array[Byte]): String = {
+		val digest = JMessageDigest getInstance "SHA-1"
+
+		for(value <- List(BuildCache.version, BuildCache versionOf classOf[JbcBackend], compiler)) {
+			val bytes = value getBytes "UTF-8"
+			digest update bytes.length.toString.getBytes("UTF-8")
+			digest update ':'.toByte
+			digest update bytes
+		}
+
+		digest update abc
+
+		val result = new StringBuilder(40)
+
+		for(b <- digest.digest()) {
+			result append "%02x".format(b & 0xff)
+		}
+
+		result.toString
+	}
+
+	/**
+	 * Loads the classes stored for <code>key</code>.
+	 *
+	 * @return The classes by their name if an entry exists; <code>None</code> otherwise.
+	 */
+	def load(key: String): Option[Map[String, Array[Byte]]] = {
+		val entry = entryOf(key)
+
+		if(entry.isFile) {
+			try {
+				var result = Map.empty[String, Array[Byte]]
+
+				//
+				// ZipFile reads the central directory at the end of the
+				// entry so a truncated entry fails instead of returning
+				// only some of its classes.
+				//
+
+				IO.using(new JZipFile(entry)) {
+					zipFile => {
+						val buffer = new Array[Byte](0x2000)
+						val zipEntries = zipFile.entries
+
+						while(zipEntries.hasMoreElements) {
+							val zipEntry = zipEntries.nextElement
+
+							if(zipEntry.getName endsWith ".class") {
+								val output = new JByteArrayOutputStream()
+
+								IO.using(zipFile getInputStream zipEntry) {
+									input => {
+										var bytesRead = input read buffer
+
+										while(bytesRead >= 0) {
+											output write (buffer, 0, bytesRead)
+											bytesRead = input read buffer
+										}
+									}
+								}
+
+								result += (zipEntry.getName stripSuffix ".class" replace ('/', '.')) -> output.toByteArray
+							}
+						}
+					}
+				}
+
+				log.debug("Loaded %d classes from cache entry %s.", result.size, key)
+				Some(result)
+			} catch {
+				case exception: JIOException => {
+					log.warning("Could not read cache entry %s: %s", entry, exception.getMessage)
+					entry.delete()
+					None
+				}
+			}
+		} else {
+			None
+		}
+	}
+
+	/**
+	 * Stores <code>classes</code> as the entry for <code>key</code>.
+	 *
+	 * @throws java.io.IOException If the entry could not be written.
+	 */
+	def store(key: String, classes: Map[String, Array[Byte]]): Unit = {
+		if(!directory.isDirectory && !directory.mkdirs() && !directory.isDirectory) {
+			throw new JIOException("Could not create cache directory "+directory+".")
+		}
+
+		val entry = entryOf(key)
+
+		if(!entry.isFile) {
+			//
+			// Other instances may use the same cache concurrently.
+			//
+
+			val temporary = JFile.createTempFile(key, ".tmp", directory)
+
+			try {
+				IO.using(new JZipOutputStream(new JBufferedOutputStream(new JFileOutputStream(temporary), 0x10000))) {
+					output => {
+						for((name, bytes) <- classes) {
+							output putNextEntry new JZipEntry((name replace ('.', '/'))+".class")
+							output write bytes
+							output.closeEntry()
+						}
+					}
+				}
+
+				if(!temporary.renameTo(entry) && !entry.isFile) {
+					throw new JIOException("Could not write cache entry "+entry+".")
+				}
+
+				log.debug("Stored %d classes in cache entry %s.", classes.size, key)
+			} finally {
+				temporary.delete()
+			}
+		}
+	}
+
+	private def entryOf(key: String) = new JFile(directory, key+".jar")
+}
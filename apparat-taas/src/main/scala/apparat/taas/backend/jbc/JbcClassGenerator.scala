@@ -0,0 +1,79 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.taas.backend.jbc
+
+import apparat.taas.TaasCompiler
+import apparat.taas.analysis.TaasDependencyGraphBuilder
+import apparat.taas.ast.TaasNominal
+import apparat.taas.frontend.TaasFrontend
+import apparat.log.SimpleLog
+import collection.mutable.HashMap
+
+/**
+ * Generates the classes of a target on demand.
+ *
+ * The methods of a nominal are optimized and its classes are emitted when
+ * one of them is requested for the first time. The result is cached and
+ * nominals which are never requested are never compiled.
+ */
+final class JbcClassGenerator(frontend: TaasFrontend) extends (String => Option[Array[Byte]]) with SimpleLog {
+	private val backend = new JbcBackend()
+	private val compiler = new TaasCompiler(frontend, backend)
+	private val generated = HashMap.empty[String, Map[String, Array[Byte]]]
+
+	private lazy val nominals: Map[String, TaasNominal] = Map(
+		(TaasDependencyGraphBuilder nominalsOf frontend.getAST) map {
+			nominal => Java.liftToplevel(nominal.qualifiedName) -> nominal
+		}: _*)
+
+	/**
+	 * Returns the class <code>name</code> which is either a nominal of the
+	 * target or one of its closures.
+	 */
+	override def apply(name: String): Option[Array[Byte]] = ownerOf(name) flatMap { classesOf(_) get name }
+
+	private def ownerOf(name: String): Option[String] = {
+		if(nominals contains name) {
+			Some(name)
+		} else {
+			name lastIndexOf '$' match {
+				case -1 | 0 => None
+				case n => ownerOf(name.substring(0, n))
+			}
+		}
+	}
+
+	//
+	// JbcClassLoader is not parallel capable so classes are already
+	// requested one at a time. The lock only matters if the generator
+	// is shared by other callers.
+	//
+
+	private def classesOf(name: String): Map[String, Array[Byte]] = synchronized {
+		generated getOrElseUpdate (name, {
+			log.debug("Generating %s.", name)
+
+			val nominal = nominals(name)
+			compiler transform nominal
+			backend emit nominal
+		})
+	}
+}
@@ -21,13 +21,23 @@
 package apparat.taas.backend.jbc
 
 import java.lang.String
+import apparat.taas.frontend.TaasFrontend
 
 /**
  * @author Joa Ebert
  */
-class JbcClassLoader(map: Map[String, Array[Byte]], parent: ClassLoader) extends ClassLoader(parent) {
+class JbcClassLoader(classes: String => Option[Array[Byte]], parent: ClassLoader) extends ClassLoader(parent) {
+	def this(map: Map[String, Array[Byte]], parent: ClassLoader) = this(map.get _, parent)
+
+	/**
+	 * Creates a loader which compiles a class of <code>frontend</code> when
+	 * it is loaded. Supertypes are compiled once the JVM resolves them
+	 * through this loader.
+	 */
+	def this(frontend: TaasFrontend, parent: ClassLoader) = this(new JbcClassGenerator(frontend), parent)
+
 	override protected def findClass(name: String): Class[_] = {
-		(map get name) match {
+		classes(name) match {
 			case Some(result) => defineClass(name, result, 0, result.length)
 			case None => parent.loadClass(name)
 		}
@@ -28,7 +28,15 @@ import apparat.abc._
 /**
  * @author Joa Ebert
  */
-class AbcFrontend(main: Abc, libraries: List[Abc]) extends TaasFrontend {
+class AbcFrontend(main: Abc, libraries: List[Abc], index: Option[AbcLibraryIndex]) extends TaasFrontend {
+	def this(main: Abc, libraries: List[Abc]) = this(main, libraries, None)
+
+	/**
+	 * Creates a frontend which resolves library definitions from
+	 * <code>index</code> instead of parsing the libraries.
+	 */
+	def this(main: Abc, index: AbcLibraryIndex) = this(main, Nil, Some(index))
+
 	object Synthetic extends TaasLibrary(
 		ListBuffer(
 			TaasPackage(Symbol(""),
@@ -59,7 +67,10 @@ class AbcFrontend(main: Abc, libraries: List[Abc]) extends TaasFrontend {
 		libraries foreach { _.loadBytecode() }
 
 		val target = TaasTarget(ListBuffer.empty)
-		val lib = TaasLibrary(ListBuffer.empty)
+		val lib = index match {
+			case Some(index) => new AbcIndexedLibrary(index)
+			case None => TaasLibrary(ListBuffer.empty)
+		}
 		ast.children append Synthetic
 		ast.children append target
 		ast.children append lib
@@ -0,0 +1,595 @@
+/*
+ * This file is part of Apparat.
+ *
+ * Copyright (C) 2010 Joa Ebert
+ * http://www.joa-ebert.com/
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package apparat.taas.frontend.abc
+
+import apparat.abc._
+import apparat.taas.ast._
+import apparat.utils.{ByteArrayOutput, IO}
+import collection.mutable.{ArrayBuffer, HashMap, HashSet, ListBuffer}
+import java.io.{BufferedOutputStream => JBufferedOutputStream, DataOutputStream => JDataOutputStream, File => JFile, FileOutputStream => JFileOutputStream, InputStream => JInputStream, OutputStream => JOutputStream, RandomAccessFile => JRandomAccessFile}
+import java.net.{URL => JURL}
+import java.nio.{ByteBuffer => JByteBuffer}
+import java.nio.channels.FileChannel.{MapMode => JMapMode}
+
+/**
+ * A prebuilt index of the definitions in a set of library ABC files.
+ *
+ * The index stores nominals, functions and variables together with the
+ * signatures of their traits but without any code. It replaces parsing the
+ * libraries for each compilation: a definition is only read from the index
+ * when a type of the <code>TaasAST</code> refers to it.
+ */
+object AbcLibraryIndex {
+	private val MAGIC = 0x54415849
+	private val VERSION = 1
+
+	private val CLASS = 0
+	private val INTERFACE = 1
+	private val FUNCTION = 2
+	private val SLOT = 3
+	private val CONSTANT = 4
+
+	private val PUBLIC = 0
+	private val INTERNAL = 1
+	private val PROTECTED = 2
+	private val PRIVATE = 3
+	private val EXPLICIT = 4
+
+	private val NO_VALUE = 0
+	private val NULL_VALUE = 1
+	private val FALSE_VALUE = 2
+	private val TRUE_VALUE = 3
+	private val INT_VALUE = 4
+	private val LONG_VALUE = 5
+	private val DOUBLE_VALUE = 6
+	private val STRING_VALUE = 7
+
+	private val STATIC = 0x01
+	private val FINAL = 0x02
+	private val NATIVE = 0x04
+	private val DYNAMIC = 0x08
+
+	/**
+	 * Writes the index of <code>libraries</code> to <code>output</code>.
+	 *
+	 * Definitions which occur more than once keep the first occurrence like
+	 * they would when parsing the libraries in order.
+	 */
+	def write(libraries: List[Abc], output: JOutputStream): Unit = {
+		val writer = new Writer()
+		libraries foreach writer.add
+		writer writeTo output
+	}
+
+	def write(libraries: List[Abc], file: JFile): Unit = {
+		IO.using(new JBufferedOutputStream(new JFileOutputStream(file), 0x10000)) {
+			output => write(libraries, output)
+		}
+	}
+
+	/**
+	 * Maps the index stored in <code>file</code> into memory.
+	 */
+	def fromFile(file: JFile): AbcLibraryIndex = IO.using(new JRandomAccessFile(file, "r")) {
+		input => new AbcLibraryIndex(input.getChannel.map(JMapMode.READ_ONLY, 0L, input.length))
+	}
+
+	def fromInputStream(input: JInputStream): AbcLibraryIndex = new AbcLibraryIndex(JByteBuffer wrap IO.byteArrayOf(input))
+
+	/**
+	 * Loads an index from <code>url</code>. Only <code>file:</code> URLs are
+	 * mapped into memory. Any other index, like one packaged in a JAR, is
+	 * read into the heap.
+	 */
+	def fromURL(url: JURL): AbcLibraryIndex = {
+		if("file" == url.getProtocol) {
+			fromFile(new JFile(url.toURI))
+		} else {
+			IO.using(url.openStream) { fromInputStream _ }
+		}
+	}
+
+	private final class Section {
+		val bytes = new ByteArrayOutput(0x10000)
+		val output = new JDataOutputStream(bytes)
+		val offsets = ArrayBuffer.empty[Int]
+
+		def next() = {
+			offsets += bytes.size
+			offsets.length - 1
+		}
+	}
+
+	private final class Writer {
+		private val strings = new Section()
+		private val names = new Section()
+		private val definitions = new Section()
+		private val stringIndices = HashMap.empty[Symbol, Int]
+		private val nameIndices = HashMap.empty[Any, Int]
+		private val directory = ArrayBuffer.empty[(Int, Int, Int)]
+		private val defined = HashSet.empty[(Symbol, Symbol)]
+
+		def add(abc: Abc): Unit = abc.scripts foreach {
+			script => script.traits foreach {
+				case AbcTraitClass(_, _, nominalType, _) => {
+					val name = nominalType.inst.name
+					define(name) {
+						output => writeNominal(nominalType, output)
+					}
+				}
+				case anyMethod: AbcTraitAnyMethod => define(anyMethod.name) {
+					output => {
+						output writeByte FUNCTION
+						writeMethod(anyMethod, true, output)
+					}
+				}
+				case anySlot: AbcTraitAnySlot => define(anySlot.name) {
+					output => writeSlot(anySlot, true, output)
+				}
+				case other => error("Unexpected trait: " + other)
+			}
+		}
+
+		def writeTo(stream: JOutputStream): Unit = {
+			val output = new JDataOutputStream(stream)
+
+			output writeInt MAGIC
+			output writeInt VERSION
+			output writeInt strings.offsets.length
+			output writeInt names.offsets.length
+			output writeInt directory.length
+			strings.offsets foreach output.writeInt
+			names.offsets foreach output.writeInt
+
+			for((pckg, name, offset) <- directory) {
+				output writeInt pckg
+				output writeInt name
+				output writeInt offset
+			}
+
+			output writeInt strings.bytes.size
+			strings.bytes writeTo output
+			output writeInt names.bytes.size
+			names.bytes writeTo output
+			definitions.bytes writeTo output
+			output.flush()
+		}
+
+		private def define(name: AbcQName)(body: JDataOutputStream => Unit) = {
+			val key = (name.namespace.name, name.name)
+
+			if(!defined.contains(key)) {
+				defined += key
+				directory += ((string(name.namespace.name), string(name.name), definitions.bytes.size))
+				body(definitions.output)
+			}
+		}
+
+		private def writeNominal(nominal: AbcNominalType, output: JDataOutputStream) = {
+			val inst = nominal.inst
+			val instMethods = inst.traits collect { case methodTrait: AbcTraitAnyMethod => methodTrait }
+
+			output writeByte (if(inst.isInterface) INTERFACE else CLASS)
+			output writeInt string(inst.name.name)
+			writeNamespace(AbcParser namespaceOf inst.name.namespace, output)
+			output writeInt (inst.base match {
+				case Some(base) => name(base)
+				case None => -1
+			})
+			output writeInt inst.interfaces.length
+			inst.interfaces foreach { x => output writeInt name(x) }
+
+			if(inst.isInterface) {
+				output writeInt instMethods.length
+				instMethods foreach { x => writeMethod(x, false, output) }
+			} else {
+				val klassMethods = nominal.klass.traits collect { case methodTrait: AbcTraitAnyMethod => methodTrait }
+				val instSlots = inst.traits collect { case slotTrait: AbcTraitAnySlot => slotTrait }
+				val klassSlots = nominal.klass.traits collect { case slotTrait: AbcTraitAnySlot => slotTrait }
+
+				output writeByte ((if(inst.isFinal) FINAL else 0) | (if(inst.isSealed) 0 else DYNAMIC))
+				writeMethod(nominal.klass.init.name, TaasPublic, nominal.klass.init, true, true, output)
+				writeMethod(inst.init.name, TaasPublic, inst.init, false, true, output)
+				output writeInt (instMethods.length + klassMethods.length)
+				instMethods foreach { x => writeMethod(x, false, output) }
+				klassMethods foreach { x => writeMethod(x, true, output) }
+				output writeInt (instSlots.length + klassSlots.length)
+				instSlots foreach { x => writeSlot(x, false, output) }
+				klassSlots foreach { x => writeSlot(x, true, output) }
+			}
+		}
+
+		private def writeMethod(methodTrait: AbcTraitAnyMethod, isStatic: Boolean, output: JDataOutputStream): Unit = {
+			writeMethod(methodTrait.name.name, AbcParser namespaceOf methodTrait.name.namespace, methodTrait.method, isStatic, methodTrait.isFinal, output)
+		}
+
+		private def writeMethod(name: Symbol, namespace: TaasNamespace, method: AbcMethod, isStatic: Boolean, isFinal: Boolean, output: JDataOutputStream): Unit = {
+			output writeInt string(name)
+			writeNamespace(namespace, output)
+			output writeInt this.name(method.returnType)
+			output writeByte ((if(isStatic) STATIC else 0) | (if(isFinal) FINAL else 0) | (if(method.isNative) NATIVE else 0))
+			output writeInt method.parameters.length
+
+			for(parameter <- method.parameters) {
+				output writeInt this.name(parameter.typeName)
+				parameter.optionalVal match {
+					case Some(value) => value match {
+						case b: Boolean => output writeByte (if(b) TRUE_VALUE else FALSE_VALUE)
+						case i: Int => output writeByte INT_VALUE; output writeInt i
+						case l: Long => output writeByte LONG_VALUE; output writeLong l
+						case d: Double => output writeByte DOUBLE_VALUE; output writeDouble d
+						case y: Symbol => output writeByte STRING_VALUE; output writeInt string(y)
+						case s: String => output writeByte STRING_VALUE; output writeInt string(Symbol(s))
+						case n if n == null => output writeByte NULL_VALUE
+						case _ => error("Unexpected default value: "+value)
+					}
+					case None => output writeByte NO_VALUE
+				}
+			}
+		}
+
+		private def writeSlot(slotTrait: AbcTraitAnySlot, isStatic: Boolean, output: JDataOutputStream) = {
+			output writeByte (slotTrait match {
+				case _: AbcTraitSlot => SLOT
+				case _: AbcTraitConst => CONSTANT
+			})
+			output writeInt string(slotTrait.name.name)
+			writeNamespace(AbcParser namespaceOf slotTrait.name.namespace, output)
+			output writeInt name(slotTrait.typeName)
+			output writeByte (if(isStatic) STATIC else 0)
+		}
+
+		private def writeNamespace(namespace: TaasNamespace, output: JDataOutputStream) = namespace match {
+			case TaasPublic => output writeByte PUBLIC
+			case TaasInternal => output writeByte INTERNAL
+			case TaasProtected => output writeByte PROTECTED
+			case TaasPrivate => output writeByte PRIVATE
+			case TaasExplicit(symbol) => output writeByte EXPLICIT; output writeInt string(symbol)
+		}
+
+		private def string(value: Symbol): Int = stringIndices get value match {
+			case Some(index) => index
+			case None => {
+				val index = strings.next()
+
+				if(null == value.name) {
+					strings.output writeInt -1
+				} else {
+					val bytes = value.name getBytes "UTF-8"
+					strings.output writeInt bytes.length
+					strings.output write bytes
+				}
+
+				stringIndices += value -> index
+				index
+			}
+		}
+
+		private def keyOf(value: AbcName): Any = value match {
+			case AbcQName(name, namespace) => (AbcNameKind.QName, name, namespace.kind, namespace.name)
+			case AbcMultiname(name, nsset) => (AbcNameKind.Multiname, name, nsset.set.toList map { x => (x.kind, x.name) })
+			case AbcTypename(name, parameters) => (AbcNameKind.Typename, keyOf(name), parameters.toList map keyOf)
+			case other => error("Unexpected name: " + other)
+		}
+
+		private def name(value: AbcName): Int = {
+			val key = keyOf(value)
+
+			nameIndices get key match {
+				case Some(index) => index
+				case None => {
+					//
+					// Names refer to other names and strings which have to be
+					// written before the name itself.
+					//
+
+					val record = value match {
+						case AbcQName(name, namespace) => List(string(namespace.name), string(name))
+						case AbcMultiname(name, nsset) => string(name) :: (nsset.set.toList map { x => string(x.name) })
+						case AbcTypename(name, parameters) => this.name(name) :: (parameters.toList map { this.name(_) })
+						case other => error("Unexpected name: " + other)
+					}
+
+					val output = names.output
+					val index = names.next()
+
+					output writeByte value.kind
+					value match {
+						case AbcQName(_, namespace) => {
+							output writeByte namespace.kind
+							record foreach output.writeInt
+						}
+						case AbcMultiname(_, nsset) => {
+							output writeInt record.head
+							output writeInt nsset.set.length
+							for((namespace, name) <- nsset.set.toList zip record.tail) {
+								output writeByte namespace.kind
+								output writeInt name
+							}
+						}
+						case AbcTypename(_, parameters) => {
+							output writeInt record.head
+							output writeInt parameters.length
+							record.tail foreach output.writeInt
+						}
+						case other => error("Unexpected name: " + other)
+					}
+
+					nameIndices += key -> index
+					index
+				}
+			}
+		}
+	}
+}
+
+/**
+ * A library index backed by a read-only buffer.
+ *
+ * Strings and names are decoded the first time they are used. Reading the
+ * index is thread-safe.
+ */
+final class AbcLibraryIndex private[abc] (buffer: JByteBuffer) {
+	import AbcLibraryIndex._
+
+	if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+		error("Invalid library index.")
+	}
+
+	private val numStrings = buffer getInt 8
+	private val numNames = buffer getInt 12
+	private val numDefinitions = buffer getInt 16
+	private val stringOffsets = 20
+	private val nameOffsets = stringOffsets + (numStrings << 2)
+	private val directoryOffset = nameOffsets + (numNames << 2)
+	private val stringsOffset = directoryOffset + numDefinitions * 12 + 4
+	private val namesOffset = stringsOffset + buffer.getInt(stringsOffset - 4) + 4
+	private val definitionsOffset = namesOffset + buffer.getInt(namesOffset - 4)
+
+	private val strings = new Array[Symbol](numStrings)
+	private val names = new Array[AbcName](numNames)
+
+	private lazy val directory = {
+		val result = HashMap.empty[(Symbol, Symbol), Int]
+
+		for(i <- 0 until numDefinitions) {
+			val offset = directoryOffset + i * 12
+			result += (string(buffer getInt offset), string(buffer getInt (offset + 4))) -> (buffer getInt (offset + 8))
+		}
+
+		result
+	}
+
+	/**
+	 * The number of definitions in the index.
+	 */
+	def size = numDefinitions
+
+	/**
+	 * Reads the definition <code>name</code> of package <code>namespace</code>.
+	 * The types of the result belong to <code>ast</code>.
+	 */
+	def definitionOf(namespace: Symbol, name: Symbol)(implicit ast: TaasAST): Option[TaasDefinition] = {
+		directory get (namespace, name) map { offset => new Reader(definitionsOffset + offset).definition() }
+	}
+
+	private def string(index: Int): Symbol = {
+		var result = strings(index)
+
+		if(null == result) {
+			var offset = stringsOffset + buffer.getInt(stringOffsets + (index << 2))
+			val length = buffer getInt offset
+
+			result = if(length < 0) {
+				AbcConstantPool.EMPTY_STRING
+			} else {
+				val bytes = new Array[Byte](length)
+				offset += 4
+
+				for(i <- 0 until length) {
+					bytes(i) = buffer get (offset + i)
+				}
+
+				Symbol(new String(bytes, "UTF-8"))
+			}
+
+			strings(index) = result
+		}
+
+		result
+	}
+
+	private def name(index: Int): AbcName = {
+		var result = names(index)
+
+		if(null == result) {
+			val reader = new Reader(namesOffset + buffer.getInt(nameOffsets + (index << 2)))
+
+			result = reader.u08() match {
+				case AbcNameKind.QName => {
+					val namespace = AbcNamespace(reader.u08(), string(reader.s32()))
+					AbcQName(string(reader.s32()), namespace)
+				}
+				case AbcNameKind.Multiname => {
+					val name = string(reader.s32())
+					AbcMultiname(name, AbcNSSet(Array.fill(reader.s32()) { AbcNamespace(reader.u08(), string(reader.s32())) }))
+				}
+				case AbcNameKind.Typename => {
+					val name = this.name(reader.s32()).asInstanceOf[AbcQName]
+					AbcTypename(name, Array.fill(reader.s32()) { this.name(reader.s32()) })
+				}
+				case other => error("Unexpected name kind: " + other)
+			}
+
+			names(index) = result
+		}
+
+		result
+	}
+
+	private final class Reader(private var position: Int) {
+		def u08() = {
+			val result = buffer.get(position) & 0xff
+			position += 1
+			result
+		}
+
+		def s32() = {
+			val result = buffer getInt position
+			position += 4
+			result
+		}
+
+		def s64() = {
+			val result = buffer getLong position
+			position += 8
+			result
+		}
+
+		def f64() = {
+			val result = buffer getDouble position
+			position += 8
+			result
+		}
+
+		def definition()(implicit ast: TaasAST): TaasDefinition = u08() match {
+			case CLASS => {
+				val name = string(s32())
+				val namespace = this.namespace()
+				val base = `type`()
+				val interfaces = types()
+				val flags = u08()
+				val init = method()
+				val ctor = method()
+				val methods = ListBuffer.fill(s32()) { method() }
+				val fields = ListBuffer.fill(s32()) { field(u08()) }
+
+				TaasClass(name, namespace, 0 != (flags & FINAL), 0 != (flags & DYNAMIC),
+					init, ctor, base, methods, fields, interfaces)
+			}
+			case INTERFACE => {
+				val name = string(s32())
+				val namespace = this.namespace()
+				val base = `type`()
+				val interfaces = types()
+				TaasInterface(name, namespace, base, ListBuffer.fill(s32()) { method() }, interfaces)
+			}
+			case FUNCTION => {
+				val method = this.method()
+				TaasFunction(method.name, method.namespace, method)
+			}
+			case kind => field(kind)
+		}
+
+		private def field(kind: Int)(implicit ast: TaasAST): TaasField = {
+			val name = string(s32())
+			val namespace = this.namespace()
+			val fieldType = nextType()
+			val isStatic = 0 != (u08() & STATIC)
+
+			kind match {
+				case SLOT => TaasSlot(name, namespace, fieldType, isStatic)
+				case CONSTANT => TaasConstant(name, namespace, fieldType, isStatic)
+				case _ => error("Unexpected definition kind: " + kind)
+			}
+		}
+
+		private def method()(implicit ast: TaasAST): TaasMethod = {
+			val name = string(s32())
+			val namespace = this.namespace()
+			val returnType = nextType()
+			val flags = u08()
+			val parameters = ListBuffer.fill(s32()) {
+				val parameterType = nextType()
+				TaasParameter(parameterType, value())
+			}
+
+			TaasMethod(name, namespace, returnType, parameters,
+				0 != (flags & STATIC), 0 != (flags & FINAL), 0 != (flags & NATIVE), None)
+		}
+
+		private def namespace(): TaasNamespace = u08() match {
+			case PUBLIC => TaasPublic
+			case INTERNAL => TaasInternal
+			case PROTECTED => TaasProtected
+			case PRIVATE => TaasPrivate
+			case EXPLICIT => TaasExplicit(string(s32()))
+			case other => error("Unexpected namespace: " + other)
+		}
+
+		private def value(): Option[TValue] = u08() match {
+			case NO_VALUE => None
+			case NULL_VALUE => Some(TNull)
+			case FALSE_VALUE => Some(TBool(false))
+			case TRUE_VALUE => Some(TBool(true))
+			case INT_VALUE => Some(TInt(s32()))
+			case LONG_VALUE => Some(TLong(s64()))
+			case DOUBLE_VALUE => Some(TDouble(f64()))
+			case STRING_VALUE => Some(TString(string(s32())))
+			case other => error("Unexpected value: " + other)
+		}
+
+		private def `type`()(implicit ast: TaasAST): Option[TaasType] = s32() match {
+			case -1 => None
+			case index => Some(AbcTypes name2type name(index))
+		}
+
+		private def types()(implicit ast: TaasAST): ListBuffer[TaasType] = ListBuffer.fill(s32()) { nextType() }
+
+		private def nextType()(implicit ast: TaasAST): TaasType = AbcTypes name2type name(s32())
+	}
+}
+
+/**
+ * A library whose definitions are added from an <code>AbcLibraryIndex</code>
+ * when they are resolved.
+ */
+protected[abc] class AbcIndexedLibrary(index: AbcLibraryIndex) extends TaasLibrary(ListBuffer.empty) {
+	/**
+	 * Adds the definition <code>name</code> of package <code>namespace</code>
+	 * unless it is already part of this library.
+	 *
+	 * @return <code>true</code> if a definition has been added; <code>false</code> otherwise.
+	 */
+	def resolve(namespace: Symbol, name: Symbol): Boolean = synchronized {
+		val existing = packages find { _.name == namespace }
+
+		if(existing exists { _.definitions exists { _.name == name } }) {
+			false
+		} else {
+			index.definitionOf(namespace, name)(ast) match {
+				case Some(definition) => {
+					val pckg = existing getOrElse {
+						val result = TaasPackage(namespace, ListBuffer.empty)
+						packages append result
+						result setParent this
+						result
+					}
+
+					pckg.definitions append definition
+					definition setParent pckg
+					true
+				}
+				case None => false
+			}
+		}
+	}
+}
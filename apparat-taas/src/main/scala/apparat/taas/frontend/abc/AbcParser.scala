@@ -24,6 +24,20 @@ import apparat.taas.ast._
 import collection.mutable.ListBuffer
 import apparat.abc._
 
+protected[abc] object AbcParser {
+	def namespaceOf(namespace: AbcNamespace): TaasNamespace = {
+		namespace.kind match {
+			case AbcNamespaceKind.Package => TaasPublic
+			case AbcNamespaceKind.Explicit => error("Explicit")
+			case AbcNamespaceKind.Namespace => TaasExplicit(namespace.name)
+			case AbcNamespaceKind.PackageInternal => TaasInternal
+			case AbcNamespaceKind.Private => TaasPrivate
+			case AbcNamespaceKind.Protected => TaasProtected
+			case AbcNamespaceKind.StaticProtected => TaasProtected
+		}
+	}
+}
+
 /**
  * @author Joa Ebert
  */
@@ -119,7 +133,11 @@ protected[abc] class AbcParser(ast: TaasAST, abc: Abc, unit: TaasUnit) {
 			isStatic,
 			methodTrait.isFinal,
 			methodTrait.method.isNative,
-			method2code(scope, isStatic, methodTrait.method))
+			method2code(scope, isStatic, methodTrait.method),
+			methodTrait match {
+				case _: AbcTraitGetter | _: AbcTraitSetter => true
+				case _ => false
+			})
 	}
 
 	def parseMethod(scope: Option[AbcNominalType], method: AbcMethod, isStatic: Boolean, isFinal: Boolean): TaasMethod = {
@@ -157,17 +175,7 @@ protected[abc] class AbcParser(ast: TaasAST, abc: Abc, unit: TaasUnit) {
 		}
 	}
 
-	private implicit def ns2ns(namespace: AbcNamespace): TaasNamespace = {
-		namespace.kind match {
-			case AbcNamespaceKind.Package => TaasPublic
-			case AbcNamespaceKind.Explicit => error("Explicit")
-			case AbcNamespaceKind.Namespace => TaasExplicit(namespace.name)
-			case AbcNamespaceKind.PackageInternal => TaasInternal
-			case AbcNamespaceKind.Private => TaasPrivate
-			case AbcNamespaceKind.Protected => TaasProtected
-			case AbcNamespaceKind.StaticProtected => TaasProtected
-		}
-	}
+	private implicit def ns2ns(namespace: AbcNamespace): TaasNamespace = AbcParser namespaceOf namespace
 
 	private implicit def name2type(name: AbcName): TaasType = AbcTypes name2type name
 
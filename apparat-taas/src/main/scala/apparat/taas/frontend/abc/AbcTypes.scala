@@ -31,6 +31,16 @@ protected[abc] object AbcTypes {
 	private var cache = HashMap.empty[Symbol, TaasType]
 	private val EMPTY = Symbol("")
 
+	private def cached(qname: Symbol)(create: => TaasType): TaasType = synchronized {
+		cache get qname match {
+			case Some(x) => x
+			case None =>
+				val result = create
+				cache += qname -> result
+				result
+		}
+	}
+
 	private def qnameToString(name: AbcQName): String = qnameToString(name.name, name.namespace)
 
 	private def qnameToString(name: Symbol, namespace: AbcNamespace): String = {
@@ -82,24 +92,12 @@ protected[abc] object AbcTypes {
 			case
 				AbcNamespace(5, Symbol("BitmapData.as$233")) |
 				AbcNamespace(5, Symbol("DynamicPropertyOutput.as$208")) =>
-				cache get name match {
-					case Some(x) => x
-					case None =>
-						val result = AbcType(ast, name, AbcNamespace(22, Symbol("")))
-						cache += name -> result
-						result
-				}
+				cached(name) { AbcType(ast, name, AbcNamespace(22, Symbol(""))) }
 			case _ =>
 				val qname = if(namespace.name == EMPTY) { name } else {
 					Symbol(namespace.name.name+"."+name.name)
 				}
-				cache get qname match {
-					case Some(x) => x
-					case None =>
-						val result = AbcType(ast, name, namespace)
-						cache += qname -> result
-						result
-				}
+				cached(qname) { AbcType(ast, name, namespace) }
 		}
 	}
 
@@ -109,13 +107,7 @@ protected[abc] object AbcTypes {
 		val qname = if(name.namespace.name == EMPTY) { name.name } else {
 			Symbol(name.namespace.name.name+"."+name.name.name)
 		}
-		cache get qname match {
-			case Some(x) => x
-			case None =>
-				val result = AbcParameterizedType(ast, name, parameters)
-				cache += qname -> result
-				result
-		}
+		cached(qname) { AbcParameterizedType(ast, name, parameters) }
 	}
 
 	def fromTypename(typename: AbcTypename)(implicit ast: TaasAST): TaasType = fromTypename(typename.name, typename.parameters)
@@ -165,22 +157,36 @@ protected[abc] case class AbcType(ast: TaasAST, name: Symbol, namespace: AbcName
 	}
 
 	lazy val nominal: TaasNominal = {
-		def search(ast: TaasAST): TaasNominal = {
+		def search(ast: TaasAST): Option[TaasNominal] = {
 			for(unit <- ast.units;
 				pckg <- unit.packages if pckg.name == namespace.name) {
 				pckg.definitions find (_.name == name) match {
 					case Some(definition) => definition match {
-						case nominal: TaasNominal => return nominal
+						case nominal: TaasNominal => return Some(nominal)
 						case _ => error("Expected nominal type, got "+definition+".")
 					}
 					case None => false
 				}
 			}
 
-			error("Missing definition " + name + " in " + namespace)
+			None
+		}
+
+		def resolve(ast: TaasAST) = ast.units exists {
+			case library: AbcIndexedLibrary => library resolve (namespace.name, name)
+			case _ => false
 		}
 
-		search(ast)
+		//
+		// Indexed libraries add definitions while types are resolved
+		// in parallel.
+		//
+
+		ast.synchronized {
+			search(ast) orElse {
+				if(resolve(ast)) search(ast) else None
+			}
+		} getOrElse error("Missing definition " + name + " in " + namespace)
 	}
 }
 
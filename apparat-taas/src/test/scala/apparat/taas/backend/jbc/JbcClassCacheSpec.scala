@@ -0,0 +1,71 @@
+package apparat.taas.backend.jbc
+
+import org.specs.SpecificationWithJUnit
+import java.io.{File => JFile, RandomAccessFile => JRandomAccessFile}
+
+class JbcClassCacheSpec extends SpecificationWithJUnit {
+  def classes(seed: Int) = {
+    val random = new scala.util.Random(seed)
+    def bytes = Array.fill(0x100 + random.nextInt(0x1000))(random.nextInt.toByte)
+    Map("foo.Bar" -> bytes, "foo.Bar$1" -> bytes, "Main$$anon$2" -> bytes)
+  }
+
+  def sameClasses(a: Map[String, Array[Byte]], b: Map[String, Array[Byte]]) = {
+    a.keySet == b.keySet && (a.keySet forall { name => java.util.Arrays.equals(a(name), b(name)) })
+  }
+
+  "JbcClassCache" should {
+    val directory = JFile.createTempFile("apparat", "cache")
+    directory.delete()
+
+    val cache = new JbcClassCache(directory, "libraries")
+    val abc = Array[Byte](1, 2, 3, 4)
+    val key = cache keyOf abc
+
+    doAfter {
+      Option(directory.listFiles) foreach { _ foreach { _.delete() } }
+      directory.delete()
+    }
+
+    "load the classes it has stored" >> {
+      cache load key must_== None
+      cache store (key, classes(1))
+      val loaded = cache load key
+      loaded.isDefined must beTrue
+      loaded.get.keySet must_== classes(1).keySet
+      sameClasses(loaded.get, classes(1)) must beTrue
+    }
+
+    "use the ABC and the compiler as part of the key" >> {
+      cache keyOf abc must_== key
+      cache keyOf Array[Byte](1, 2, 3, 5) must_!= key
+      new JbcClassCache(directory, "other libraries") keyOf abc must_!= key
+    }
+
+    "delete entries which cannot be read" >> {
+      cache store (key, classes(1))
+
+      val entry = new JFile(directory, key+".jar")
+      val file = new JRandomAccessFile(entry, "rw")
+
+      try {
+        file setLength (file.length / 2)
+      } finally {
+        file.close()
+      }
+
+      cache load key must_== None
+      entry.exists must beFalse
+    }
+
+    "keep an existing entry" >> {
+      cache store (key, classes(1))
+      cache store (key, classes(2))
+      val loaded = cache load key
+      loaded.isDefined must beTrue
+      loaded.get.keySet must_== classes(1).keySet
+      sameClasses(loaded.get, classes(1)) must beTrue
+      directory.list.toList must_== List(key+".jar")
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package apparat.taas.frontend.abc
+
+import org.specs.SpecificationWithJUnit
+import apparat.abc._
+import apparat.taas.ast._
+import collection.mutable.ListBuffer
+import java.io.{ByteArrayInputStream => JByteArrayInputStream, ByteArrayOutputStream => JByteArrayOutputStream, File => JFile}
+
+class AbcLibraryIndexSpec extends SpecificationWithJUnit {
+  val global = AbcNamespace(AbcNamespaceKind.Package, Symbol(""))
+  val pckg = AbcNamespace(AbcNamespaceKind.Package, 'foo)
+  val intName = AbcQName('int, global)
+  val stringName = AbcQName('String, global)
+
+  def method(name: Symbol, returnType: AbcName, parameters: AbcMethodParameter*) = {
+    new AbcMethod(parameters.toArray, returnType, name, false, false, false, parameters exists { _.optional }, false, false, false, false)
+  }
+
+  def parameter(typeName: AbcName, value: Option[Any]) = {
+    val result = new AbcMethodParameter(typeName)
+    result.optional = value.isDefined
+    result.optionalVal = value
+    result
+  }
+
+  def library = {
+    val inst = new AbcInstance(AbcQName('Bar, pckg), Some(AbcQName('Object, global)), false, true, false, false, None,
+      Array(AbcMultiname('IEventDispatcher, AbcNSSet(Array(AbcNamespace(AbcNamespaceKind.Package, Symbol("flash.events")))))),
+      method('Bar, AbcQName('void, global)),
+      Array(
+        AbcTraitMethod(AbcQName('baz, global), 0, method('baz, AbcTypename(AbcQName('Vector, AbcNamespace(AbcNamespaceKind.Package, Symbol("__AS3__.vec"))), Array(intName)),
+          parameter(intName, Some(3)), parameter(stringName, Some('x)), parameter(AbcConstantPool.EMPTY_NAME, Some(null))), true, false, None),
+        AbcTraitSlot(AbcQName('count, global), 0, intName, None, None, None)))
+    val nominal = new AbcNominalType(inst)
+    nominal.klass = new AbcClass(method('cinit, AbcQName('void, global)),
+      Array(AbcTraitConst(AbcQName('MAX, global), 0, AbcQName('Number, global), None, None, None)))
+
+    val abc = new Abc()
+    abc.scripts = Array(new AbcScript(method('init, AbcQName('void, global)), Array(
+      AbcTraitClass(AbcQName('Bar, pckg), 0, nominal, None),
+      AbcTraitMethod(AbcQName('helper, pckg), 0, method('helper, stringName, parameter(AbcQName('Number, global), Some(1.5))), false, false, None),
+      AbcTraitSlot(AbcQName('value, pckg), 0, AbcQName('Boolean, global), None, None, None))))
+    abc
+  }
+
+  def written = {
+    val output = new JByteArrayOutputStream()
+    AbcLibraryIndex.write(List(library), output)
+    output.toByteArray
+  }
+
+  def verify(index: AbcLibraryIndex) = {
+    implicit val ast = new TaasAST(ListBuffer.empty)
+
+    index.size must_== 3
+    index.definitionOf('foo, 'Missing) must_== None
+
+    index.definitionOf('foo, 'Bar) match {
+      case Some(bar: TaasClass) => {
+        bar.namespace must_== TaasPublic
+        bar.isFinal must beTrue
+        bar.isDynamic must beTrue
+        bar.base must_== Some(TaasObjectType)
+        bar.interfaces.length must_== 1
+        bar.methods map { _.name } must_== ListBuffer('baz)
+
+        val baz = bar.methods.head
+        baz.isStatic must beFalse
+        baz.isFinal must beTrue
+        baz.`type`.isInstanceOf[TaasParameterizedType] must beTrue
+        baz.parameters map { _.`type` } must_== ListBuffer(TaasIntType, TaasStringType, TaasAnyType)
+        baz.parameters.toList map { _.defaultValue } must beLike {
+          case List(Some(TInt(3)), Some(TString(x)), Some(TNull)) => x == 'x
+        }
+
+        bar.fields map { f => (f.name, f.isStatic, f.isInstanceOf[TaasConstant]) } must_== ListBuffer(('count, false, false), ('MAX, true, true))
+        bar.fields map { _.`type` } must_== ListBuffer(TaasIntType, TaasDoubleType)
+      }
+      case other => fail("Expected a class but got "+other)
+    }
+
+    index.definitionOf('foo, 'helper) match {
+      case Some(TaasFunction(name, _, helper)) => {
+        name must_== 'helper
+        helper.`type` must_== TaasStringType
+        helper.parameters.toList map { _.defaultValue } must beLike { case List(Some(TDouble(1.5))) => true }
+      }
+      case other => fail("Expected a function but got "+other)
+    }
+
+    index.definitionOf('foo, 'value) match {
+      case Some(value: TaasSlot) => value.`type` must_== TaasBooleanType
+      case other => fail("Expected a slot but got "+other)
+    }
+  }
+
+  "AbcLibraryIndex" should {
+    "read the definitions it has written" >> {
+      verify(AbcLibraryIndex fromInputStream new JByteArrayInputStream(written))
+    }
+
+    "read the definitions it has written to a file" >> {
+      val file = JFile.createTempFile("apparat", ".index")
+
+      try {
+        AbcLibraryIndex.write(List(library), file)
+        verify(AbcLibraryIndex fromURL file.toURI.toURL)
+      } finally {
+        file.delete()
+      }
+    }
+
+    "reject names it cannot store" >> {
+      val abc = library
+      abc.scripts(0).traits = Array(AbcTraitSlot(AbcQName('late, pckg), 0, AbcMultinameL(AbcNSSet(Array(global))), None, None, None))
+      AbcLibraryIndex.write(List(abc), new JByteArrayOutputStream()) must throwA[Exception]
+    }
+  }
+}